@@ -0,0 +1,177 @@
+package Benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark harness (there is no build module for JMH), each benchmark is a task which is
+ * called again and again for a fixed time. The first iterations are the warm up, and for the
+ * measured ones it prints the throughput (mean +- standard deviation) and the allocated bytes of
+ * each operation, e.g :
+ * java -Dbench.iterations=10 -cp out:log4j-1.2.17.jar Benchmarks.BenchmarkRunner
+ * Settings (system properties) :
+ * bench.warmup : number of warm up iterations (default: 3)
+ * bench.iterations : number of measured iterations (default: 5)
+ * bench.time : duration of each iteration in milliseconds (default: 1000)
+ * bench.filter : regex, only the benchmarks which their name contains it will run
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A benchmark operation, it returns a result so the JIT can't remove the work.
+     */
+    public interface Task {
+        Object run() throws Exception;
+    }
+
+    private static final MethodHandle THREAD_ID = threadId();
+
+    private static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationTime;
+    private final Pattern filter;
+
+    /**
+     * Constructor. It reads the settings from system properties.
+     */
+    public BenchmarkRunner() {
+        this.warmupIterations = Integer.getInteger("bench.warmup", 3);
+        this.iterations = Math.max(1, Integer.getInteger("bench.iterations", 5));
+        this.iterationTime = Math.max(1, Long.getLong("bench.time", 1000)) * 1_000_000;
+        this.filter = Pattern.compile(System.getProperty("bench.filter", ""));
+        System.out.printf("%-52s %5s %14s    %10s %12s %10s%n", "Benchmark", "Cnt", "Score (ops/s)", "Error",
+                "B/op", "MB/s");
+    }
+
+    /**
+     * Runs all of the benchmarks.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        ServerMessageParserBenchmark.main(args);
+        ServerMessageBuilderBenchmark.main(args);
+        ClientMessageParserBenchmark.main(args);
+        BroadcastBenchmark.main(args);
+    }
+
+    /**
+     * Measure a task, allocation is counted on the current thread.
+     *
+     * @param name
+     * @param task
+     * @throws Exception
+     */
+    public void run(String name, Task task) throws Exception {
+        run(name, 1, BenchmarkRunner::currentThreadAllocatedBytes, task);
+    }
+
+    /**
+     * Measure a task which does more than one operation in each call (e.g. a batch of messages).
+     *
+     * @param name
+     * @param operations number of operations of each call
+     * @param allocated  returns the total allocated bytes of the threads which do the work
+     * @param task
+     * @throws Exception
+     */
+    public void run(String name, int operations, LongSupplier allocated, Task task) throws Exception {
+        if (!filter.matcher(name).find())
+            return;
+
+        // Checking the time after each call is too expensive for the small tasks.
+        int batch = (operations > 1) ? 1 : 64;
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(task, allocated, batch);
+
+        double[] scores = new double[iterations];
+        double allocatedBytes = 0;
+        double allocationRate = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] result = iteration(task, allocated, batch);
+            scores[i] = result[0] * operations * 1e9 / result[1];
+            allocatedBytes += result[2] / (result[0] * operations);
+            allocationRate += result[2] * 1e3 / result[1];
+        }
+
+        double mean = 0;
+        for (double score : scores)
+            mean += score;
+        mean /= iterations;
+        double variance = 0;
+        for (double score : scores)
+            variance += (score - mean) * (score - mean);
+        double error = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+        System.out.printf("%-52s %5d %14.1f +- %10.1f %12.1f %10.1f%n", name, iterations, mean, error,
+                allocatedBytes / iterations, allocationRate / iterations);
+    }
+
+    /**
+     * Calls the task till the iteration time is over, and returns the number of calls,
+     * elapsed time (ns) and allocated bytes.
+     *
+     * @param task
+     * @param allocated
+     * @param batch     number of calls between the time checks
+     * @return
+     * @throws Exception
+     */
+    private double[] iteration(Task task, LongSupplier allocated, int batch) throws Exception {
+        long calls = 0;
+        long bytes = allocated.getAsLong();
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++)
+                sink = task.run();
+            calls += batch;
+        } while ((elapsed = System.nanoTime() - start) < iterationTime);
+        bytes = allocated.getAsLong() - bytes;
+        return new double[]{calls, elapsed, bytes};
+    }
+
+    /**
+     * Allocated bytes of the current thread, or 0 if the JVM doesn't support it.
+     *
+     * @return
+     */
+    public static long currentThreadAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) || !Optional.ofNullable(THREAD_ID).isPresent())
+            return 0;
+        try {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    (long) THREAD_ID.invokeExact(Thread.currentThread()));
+        } catch (Throwable e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns Thread.threadId (java 19+), or Thread.getId on the older ones (it's deprecated on the new ones),
+     * or null if none of them is found.
+     *
+     * @return
+     */
+    private static MethodHandle threadId() {
+        MethodType type = MethodType.methodType(long.class);
+        for (String name : new String[]{"threadId", "getId"}) {
+            try {
+                return MethodHandles.publicLookup().findVirtual(Thread.class, name, type);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // The next one is tried.
+            }
+        }
+        return null;
+    }
+}
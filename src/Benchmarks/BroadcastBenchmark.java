@@ -0,0 +1,172 @@
+package Benchmarks;
+
+import Message.Protocol.BinaryProtocol;
+import Server.Server;
+import Server.ServerConfiguration;
+import Server.ServerMessageBuilder;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Measures Server.broadCastMessage with N loopback clients, the server runs in the same process.
+ * Each operation is one broad cast message, and it's done when all of the clients received it.
+ * The allocated bytes are counted on the server threads (not the receivers). e.g :
+ * java -Dserver.engine=nio -cp out:log4j-1.2.17.jar Benchmarks.BroadcastBenchmark [CLIENTS]
+ * Settings (system properties, see BenchmarkRunner for the others) :
+ * bench.port : port of the server (default: 16000, the next one is used for file sharing)
+ * bench.protocol : protocol of the clients, 1 (text, default) or 2 (binary)
+ * The server settings are read from the system properties too (see ServerConfiguration), the history is
+ * disabled unless server.history is given (it would make the History and Inbox folders in the working folder,
+ * and log the join messages of the clients).
+ */
+public class BroadcastBenchmark {
+
+    private static final int DEFAULT_CLIENTS = 100;
+    private static final int BATCH = 256;
+    private static final String BODY = "Hello, this is a normal sized chat message :)";
+    private static final String RECEIVER_THREAD = "Receiver-";
+
+    public static void main(String[] args) {
+        int clients = (args.length == 1) ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        // The server doesn't have a public shutdown, and it's threads keep the JVM running.
+        try {
+            benchmark(clients, Integer.getInteger("bench.port", 16_000),
+                    Integer.getInteger("bench.protocol", BinaryProtocol.TEXT_PROTOCOL));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void benchmark(int clients, int port, int protocol) throws Exception {
+        System.setProperty("server.history", System.getProperty("server.history", "false"));
+        Server server = new Server(port, clients + 1, ServerConfiguration.fromSystemProperties());
+        Thread serverThread = new Thread(server::runServer, "Server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        Semaphore received = new Semaphore(0);
+        for (int i = 0; i < clients; i++)
+            startReceiver(port, userName(i), protocol, received);
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String message = ServerMessageBuilder.publicMessage(BODY, BODY.length(), "Benchmark");
+        runner.run(String.format("Server.broadCastMessage (%d clients)", clients), BATCH,
+                BroadcastBenchmark::serverAllocatedBytes, () -> {
+                    for (int i = 0; i < BATCH; i++)
+                        server.broadCastMessage(message);
+                    received.acquire(BATCH * clients);
+                    return null;
+                });
+    }
+
+    /**
+     * Connect a client, and runs a thread which counts the received benchmark messages.
+     *
+     * @param port
+     * @param userName
+     * @param protocol
+     * @param received
+     * @throws Exception
+     */
+    private static void startReceiver(int port, String userName, int protocol, Semaphore received)
+            throws Exception {
+        Socket socket = connect(port);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        out.writeUTF((protocol == BinaryProtocol.TEXT_PROTOCOL) ? String.format("Hello<%s>", userName) :
+                String.format("Hello<%s>, %s", userName, BinaryProtocol.protocolSign(protocol)));
+        String response;
+        do {
+            response = in.readUTF();
+        } while (!response.contains(",201,"));
+        boolean binary = BinaryProtocol.requestedProtocol(response) == BinaryProtocol.BINARY_PROTOCOL;
+
+        Thread receiver = new Thread(() -> {
+            try {
+                while (true) {
+                    String message = binary ? new String(BinaryProtocol.readFrame(in), StandardCharsets.UTF_8)
+                            : in.readUTF();
+                    if (message.endsWith(BODY + ">"))
+                        received.release();
+                }
+            } catch (IOException e) {
+                // Server is closed.
+            }
+        }, RECEIVER_THREAD + userName);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * User names can only contain letters, e.g : 27 -> Benchab
+     *
+     * @param index
+     * @return
+     */
+    private static String userName(int index) {
+        StringBuilder userName = new StringBuilder();
+        do {
+            userName.insert(0, (char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return userName.insert(0, "Bench").toString();
+    }
+
+    /**
+     * The server may not be listening yet.
+     *
+     * @param port
+     * @return
+     * @throws Exception
+     */
+    private static Socket connect(int port) throws Exception {
+        for (int tries = 0; ; tries++) {
+            try {
+                return new Socket("127.0.0.1", port);
+            } catch (ConnectException e) {
+                if (tries == 50)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Allocated bytes of all of the threads except the receivers.
+     *
+     * @return
+     */
+    private static long serverAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        long[] ids = bean.getAllThreadIds();
+        long[] allocated = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids);
+        ThreadInfo[] threads = bean.getThreadInfo(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (Optional.ofNullable(threads[i]).isPresent() && allocated[i] > 0
+                    && !threads[i].getThreadName().startsWith(RECEIVER_THREAD))
+                total += allocated[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,47 @@
+package Benchmarks;
+
+import Client.ClientMessageParser;
+import Server.ServerMessageBuilder;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static Message.Status.Status.LIST_PASSED;
+
+/**
+ * Measures ClientMessageParser.parse for each kind of server message, e.g :
+ * java -cp out:log4j-1.2.17.jar Benchmarks.ClientMessageParserBenchmark
+ * (See BenchmarkRunner for the settings)
+ */
+public class ClientMessageParserBenchmark {
+
+    private static final String BODY = "Hello, this is a normal sized chat message :)";
+    private static final String SENDER = "Alireza";
+    private static final String[] RECEIVERS = {"Ali", "Reza", "Sara"};
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        ClientMessageParser parser = new ClientMessageParser("Ali");
+
+        Set<String> users = new TreeSet<>();
+        for (int i = 0; i < 20; i++)
+            users.add("User" + i);
+
+        String publicMessage = ServerMessageBuilder.publicMessage(BODY, BODY.length(), SENDER);
+        String privateMessage = ServerMessageBuilder.privateMessage(BODY, BODY.length(), SENDER, RECEIVERS);
+        String response = ServerMessageBuilder.responseBuilder("201", "Hi Ali, welcome to the chat room.");
+        String usersList = ServerMessageBuilder.responseBuilder(LIST_PASSED,
+                ServerMessageBuilder.sendUsersList(users));
+        // The client can't parse a private file message with more than one receiver yet (see TODO).
+        String privateFileMessage = ServerMessageBuilder.privateFileSendMessage(SENDER, "report.pdf",
+                4_194_304L, new String[]{"Ali"});
+        String publicFileMessage = ServerMessageBuilder.publicFileSendMessage(SENDER, "report.pdf", 4_194_304L);
+
+        runner.run("ClientMessageParser.publicMessage", () -> parser.parse(publicMessage));
+        runner.run("ClientMessageParser.privateMessage", () -> parser.parse(privateMessage));
+        runner.run("ClientMessageParser.response", () -> parser.parse(response));
+        runner.run("ClientMessageParser.usersList", () -> parser.parse(usersList));
+        runner.run("ClientMessageParser.privateFileMessage", () -> parser.parse(privateFileMessage));
+        runner.run("ClientMessageParser.publicFileMessage", () -> parser.parse(publicFileMessage));
+    }
+}
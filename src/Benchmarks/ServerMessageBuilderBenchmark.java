@@ -0,0 +1,84 @@
+package Benchmarks;
+
+import Server.ServerMessageBuilder;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static Message.Parser.Parser.BODY_SEPARATOR;
+import static Message.StaticMessages.*;
+
+/**
+ * Measures all of the ServerMessageBuilder methods, and the String.format based building
+ * (the old implementation) of the chat messages to compare them, e.g :
+ * java -cp out:log4j-1.2.17.jar Benchmarks.ServerMessageBuilderBenchmark
+ * (See BenchmarkRunner for the settings)
+ */
+public class ServerMessageBuilderBenchmark {
+
+    private static final String BODY = "Hello, this is a normal sized chat message :)";
+    private static final String SENDER = "Alireza";
+    private static final String[] RECEIVERS = {"Ali", "Reza", "Sara"};
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+
+        Set<String> users = new TreeSet<>();
+        for (int i = 0; i < 20; i++)
+            users.add("User" + i);
+
+        check("publicMessage",
+                String.format("Public message, length=<%d> from <%s>%s<%s>", (long) BODY.length(), SENDER,
+                        BODY_SEPARATOR, BODY),
+                ServerMessageBuilder.publicMessage(BODY, BODY.length(), SENDER));
+        check("privateMessage",
+                String.format("Private message, length=<%d> from <%s> to %s%s<%s>", (long) BODY.length(),
+                        SENDER, formatList(RECEIVERS), BODY_SEPARATOR, BODY),
+                ServerMessageBuilder.privateMessage(BODY, BODY.length(), SENDER, RECEIVERS));
+
+        runner.run("ServerMessageBuilder.handshakeAcceptResponse",
+                () -> ServerMessageBuilder.handshakeAcceptResponse(SENDER));
+        runner.run("ServerMessageBuilder.userJoiningInChatRoom",
+                () -> ServerMessageBuilder.userJoiningInChatRoom(SENDER));
+        runner.run("ServerMessageBuilder.sendUsersList",
+                () -> ServerMessageBuilder.sendUsersList(users));
+        runner.run("ServerMessageBuilder.publicMessage",
+                () -> ServerMessageBuilder.publicMessage(BODY, BODY.length(), SENDER));
+        runner.run("ServerMessageBuilder.publicMessage (String.format)",
+                () -> String.format("Public message, length=<%d> from <%s>%s<%s>", (long) BODY.length(), SENDER,
+                        BODY_SEPARATOR, BODY));
+        runner.run("ServerMessageBuilder.privateMessage",
+                () -> ServerMessageBuilder.privateMessage(BODY, BODY.length(), SENDER, RECEIVERS));
+        runner.run("ServerMessageBuilder.privateMessage (String.format)",
+                () -> String.format("Private message, length=<%d> from <%s> to %s%s<%s>", (long) BODY.length(),
+                        SENDER, formatList(RECEIVERS), BODY_SEPARATOR, BODY));
+        runner.run("ServerMessageBuilder.convertListToString",
+                () -> ServerMessageBuilder.convertListToString(RECEIVERS));
+        runner.run("ServerMessageBuilder.logoutMessage",
+                () -> ServerMessageBuilder.logoutMessage(SENDER));
+        runner.run("ServerMessageBuilder.responseBuilder",
+                () -> ServerMessageBuilder.responseBuilder("201", "Hi Alireza, welcome to the chat room."));
+        runner.run("ServerMessageBuilder.privateFileSendMessage",
+                () -> ServerMessageBuilder.privateFileSendMessage(SENDER, "report.pdf", 4_194_304L, RECEIVERS));
+        runner.run("ServerMessageBuilder.publicFileSendMessage",
+                () -> ServerMessageBuilder.publicFileSendMessage(SENDER, "report.pdf", 4_194_304L));
+    }
+
+    /**
+     * The old convertListToString.
+     *
+     * @param receivers
+     * @return
+     */
+    private static String formatList(String[] receivers) {
+        StringBuilder list = new StringBuilder();
+        for (String receiver : receivers)
+            list.append(String.format("<%s>%s", receiver.trim(), ","));
+        return list.substring(0, list.length() - 1);
+    }
+
+    private static void check(String name, String format, String builder) {
+        if (!format.equals(builder))
+            throw new IllegalStateException(name + " output is not the same!");
+    }
+}
@@ -0,0 +1,31 @@
+package Benchmarks;
+
+import Server.ServerMessageParser;
+
+/**
+ * Measures ServerMessageParser.parse for each kind of client message, e.g :
+ * java -cp out:log4j-1.2.17.jar Benchmarks.ServerMessageParserBenchmark
+ * (See BenchmarkRunner for the settings)
+ */
+public class ServerMessageParserBenchmark {
+
+    private static final String BODY = "Hello, this is a normal sized chat message :)";
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        ServerMessageParser parser = new ServerMessageParser("Alireza");
+
+        String publicMessage = String.format("Public message, length=<%d>\n\r<%s>", BODY.length(), BODY);
+        String privateMessage = String.format("Private message, length=<%d> to <Ali>,<Reza>,<Sara>\n\r<%s>",
+                BODY.length(), BODY);
+        String privateFileMessage = "PFile message, name<report.pdf>, length<4194304>, <Ali>, <Reza>, <Sara>";
+        String publicFileMessage = "File message, name<report.pdf>, length<4194304>";
+        String downloadMessage = "Download, report.pdf, <Ali>";
+
+        runner.run("ServerMessageParser.publicMessage", () -> parser.parse(publicMessage));
+        runner.run("ServerMessageParser.privateMessage", () -> parser.parse(privateMessage));
+        runner.run("ServerMessageParser.privateFileMessage", () -> parser.parse(privateFileMessage));
+        runner.run("ServerMessageParser.publicFileMessage", () -> parser.parse(publicFileMessage));
+        runner.run("ServerMessageParser.downloadMessage", () -> parser.parse(downloadMessage));
+    }
+}
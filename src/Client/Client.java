@@ -4,8 +4,13 @@ import Client.Exceptions.ClientInitializedBefore;
 import Client.Exceptions.ConnectionToServerNotEstablished;
 import Client.Exceptions.SendingMessageToServerFailed;
 import Client.Exceptions.ServerIsNotAccessible;
+import Client.FileSharing.TransferTokens;
 import Client.UserInterface.MainWindowController;
 import Message.Message;
+import Message.Protocol.BinaryProtocol;
+import Message.Protocol.FrameBuilder;
+import Transfer.Compression;
+import Transfer.TransferToken;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -13,8 +18,12 @@ import org.apache.log4j.Logger;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -22,16 +31,26 @@ import static Message.Status.Status.HANDSHAKE_ACCEPTED;
 
 public class Client {
 
+    /**
+     * Last seen sequence number of each user on each server ("user@host:port"), it's kept after logging out,
+     * so the next login of the user gets the messages which it missed (see ClientMessageReader).
+     */
+    private static final Map<String, Long> LAST_SEQUENCES = new ConcurrentHashMap<>();
+
     private final String serverAddress;
     private final int port;
     private final Logger logger;
     private final ExecutorService clientThreads;
+    private final ExecutorService transferThreads;
+    private final TransferTokens transferTokens = new TransferTokens();
+    private final Compression compression;
 
     private DataOutputStream toServer;
     private Socket serverSocket;
     private ClientMessageReader reader;
     private String userName;
     private boolean userNameIsValid = false;
+    private int protocol = BinaryProtocol.TEXT_PROTOCOL;
 
     private boolean isOnline = true;
 
@@ -45,6 +64,8 @@ public class Client {
         this.serverAddress = serverAddress;
         this.port = port;
         this.clientThreads = Executors.newFixedThreadPool(1);
+        this.transferThreads = Executors.newCachedThreadPool();
+        this.compression = Compression.of(System.getProperty("client.compression"), Compression.DEFLATE);
 
         BasicConfigurator.configure();
         this.logger = LogManager.getLogger(Client.class.getName());
@@ -58,6 +79,7 @@ public class Client {
         reader.stop();
         setOffline();
         clientThreads.shutdown();
+        transferThreads.shutdown();
     }
 
     /**
@@ -113,45 +135,139 @@ public class Client {
     /**
      * It takes a message from client (MainWindow controller class is the producer)
      * and send it to the server. note that this massage made by ClientMessageBuilder.
+     * In binary protocol, it will be sent as a TEXT frame.
      *
      * @param message
      * @return
      * @throws SendingMessageToServerFailed
      */
     public boolean sendMessageToServer(String message) throws SendingMessageToServerFailed {
+        if (message.equals(""))
+            return false;
+        if (protocol == BinaryProtocol.BINARY_PROTOCOL)
+            return sendFrameToServer(new FrameBuilder(BinaryProtocol.TEXT).writeText(message).build());
+
         if (Optional.ofNullable(toServer).isPresent()) {
-            if (!message.equals("")) {
-                try {
+            try {
+                synchronized (this) {
                     toServer.writeUTF(message);
                     toServer.flush();
-                    return true;
-                } catch (IOException e) {
-                    logger.error("Couldn't send the message to server");
-                    logger.error(e.getMessage());
-                    throw new SendingMessageToServerFailed("Server Stream didn't created!");
                 }
-            } else return false;
+                return true;
+            } catch (IOException e) {
+                logger.error("Couldn't send the message to server");
+                logger.error(e.getMessage());
+                throw new SendingMessageToServerFailed("Server Stream didn't created!");
+            }
         } else
             throw new SendingMessageToServerFailed("Server Stream didn't created!");
     }
 
+    /**
+     * Ask the server for a page of the chat history, the messages which are before the given
+     * sequence number (see ClientMessageBuilder.historyRequest). The page is shown by ClientMessageReader.
+     *
+     * @param beforeSequence 0 means the last messages
+     * @param limit          0 means the page size of the server
+     * @return
+     * @throws SendingMessageToServerFailed
+     */
+    public boolean requestHistory(long beforeSequence, int limit) throws SendingMessageToServerFailed {
+        return sendMessageToServer(ClientMessageBuilder.historyRequest(beforeSequence, limit));
+    }
+
+    /**
+     * Search the chat history (see ClientMessageBuilder.searchRequest), the server sends the sequence
+     * numbers of the found messages, the newest one first.
+     *
+     * @param query
+     * @return
+     * @throws SendingMessageToServerFailed
+     */
+    public boolean search(String query) throws SendingMessageToServerFailed {
+        return sendMessageToServer(ClientMessageBuilder.searchRequest(query));
+    }
+
+    /**
+     * Send a public chat message, based on the negotiated protocol.
+     *
+     * @param body
+     * @return
+     * @throws SendingMessageToServerFailed
+     */
+    public boolean sendPublicMessage(String body) throws SendingMessageToServerFailed {
+        if (protocol == BinaryProtocol.BINARY_PROTOCOL)
+            return sendFrameToServer(new FrameBuilder(BinaryProtocol.PUBLIC).writeText(body).build());
+        return sendMessageToServer(ClientMessageBuilder.publicMessage(body, body.length()));
+    }
+
+    /**
+     * Send a private chat message, based on the negotiated protocol.
+     *
+     * @param body
+     * @param receivers
+     * @return
+     * @throws SendingMessageToServerFailed
+     */
+    public boolean sendPrivateMessage(String body, String... receivers) throws SendingMessageToServerFailed {
+        if (protocol == BinaryProtocol.BINARY_PROTOCOL)
+            return sendFrameToServer(new FrameBuilder(BinaryProtocol.PRIVATE).writeReceivers(receivers)
+                    .writeText(body).build());
+        return sendMessageToServer(ClientMessageBuilder.privateMessageBuilder(body, body.length(), receivers));
+    }
+
+    /**
+     * Send an encoded frame of binary protocol to the server.
+     *
+     * @param frame
+     * @return
+     * @throws SendingMessageToServerFailed
+     */
+    private boolean sendFrameToServer(byte[] frame) throws SendingMessageToServerFailed {
+        if (!Optional.ofNullable(toServer).isPresent())
+            throw new SendingMessageToServerFailed("Server Stream didn't created!");
+        try {
+            synchronized (this) {
+                toServer.write(frame);
+                toServer.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Couldn't send the message to server");
+            logger.error(e.getMessage());
+            throw new SendingMessageToServerFailed("Server Stream didn't created!");
+        }
+    }
+
     /**
      * First of all run method call this function.
      * it makes a connection and send the handshake to server and wait for the response,
      * and if there was not any connection problem, returns the handshake validation result
      * and the result change the userNameIsValid field.
+     * The handshake asks for the binary protocol, if the server accepted it, the next
+     * messages will be sent (and received) with it.
+     * The handshake has the last seen sequence number of the user too, so the server sends the
+     * messages which were sent while the user was offline.
      *
      * @return
      * @throws Exception
      */
     private boolean validateUserName() throws Exception {
 
-        if (sendMessageToServer(ClientMessageBuilder.handshakeMessage(userName))) {
+        if (sendMessageToServer(ClientMessageBuilder.handshakeMessage(userName, getLastSequence(),
+                BinaryProtocol.BINARY_PROTOCOL))) {
             if (Optional.ofNullable(serverSocket).isPresent()) {
                 String serverResponse = new DataInputStream(serverSocket.getInputStream()).readUTF();
                 ClientMessageParser parser = new ClientMessageParser(userName);
                 Message parsed = parser.parse(serverResponse);
-                return (parsed.getSafeBody().startsWith(HANDSHAKE_ACCEPTED));
+                if (!parsed.getSafeBody().startsWith(HANDSHAKE_ACCEPTED))
+                    return false;
+                protocol = Math.min(BinaryProtocol.requestedProtocol(serverResponse), BinaryProtocol.BINARY_PROTOCOL);
+                // A new user starts from the last message of the server (the server may have a new history too).
+                long serverSequence = BinaryProtocol.requestedSequence(serverResponse);
+                if (serverSequence >= 0 && (getLastSequence() == 0 || getLastSequence() > serverSequence))
+                    setLastSequence(serverSequence);
+                return true;
             } else
                 throw new ConnectionToServerNotEstablished("Server socket didn't initialize");
         } else
@@ -183,6 +299,82 @@ public class Client {
         return userName;
     }
 
+    /**
+     * Return the sequence number of the last chat message which the user has seen, or 0 if it's
+     * the first login of the user.
+     *
+     * @return
+     */
+    public long getLastSequence() {
+        return LAST_SEQUENCES.getOrDefault(sequenceKey(), 0L);
+    }
+
+    /**
+     * A chat message is seen.
+     *
+     * @param sequence
+     */
+    public void setLastSequence(long sequence) {
+        LAST_SEQUENCES.put(sequenceKey(), sequence);
+    }
+
+    private String sequenceKey() {
+        return String.format("%s@%s:%d", userName, serverAddress, port);
+    }
+
+    /**
+     * Return the negotiated protocol (see BinaryProtocol).
+     *
+     * @return
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Return the received file transfer tokens (see TransferTokens).
+     *
+     * @return
+     */
+    public TransferTokens getTransferTokens() {
+        return transferTokens;
+    }
+
+    /**
+     * Return the executor which runs the extra data connections of the parallel
+     * file transfers (see ParallelTransfer).
+     *
+     * @return
+     */
+    public ExecutorService getTransferThreads() {
+        return transferThreads;
+    }
+
+    /**
+     * Connect to the server file sharing socket (SERVER PORT + 1), present the transfer token
+     * (see TransferTokens) and the wanted compression (client.compression, see Compression).
+     * The server answers the chosen compression (Compression.read), then the file data can be sent or
+     * received on the returned connection.
+     *
+     * @param token
+     * @return
+     * @throws IOException
+     */
+    public SocketChannel openTransferConnection(TransferTokens.Token token) throws IOException {
+        SocketChannel connection = SocketChannel.open(new InetSocketAddress(serverSocket.getInetAddress(),
+                serverSocket.getPort() + 1));
+        try {
+            // The token and the compression are two small writes, they shouldn't wait for each other.
+            connection.socket().setTcpNoDelay(true);
+            TransferToken.write(connection, token.getValue());
+            compression.write(connection);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
     public Socket getServerSocket() {
         return serverSocket;
     }
@@ -0,0 +1,98 @@
+package Client;
+
+import Message.Message;
+import Message.MessageTypes;
+import Message.Parser.Exceptions.SenderDoesNotExists;
+import Message.Protocol.FrameAssembler;
+import Message.Protocol.FrameReader;
+
+import java.util.HashMap;
+import java.util.Optional;
+
+import static Message.Protocol.BinaryProtocol.*;
+
+/**
+ * Decodes the binary protocol frames of the server (see BinaryProtocol).
+ * It keeps the user ids which are defined by the server, chat messages are decoded
+ * directly (with the sequence number of the SEQUENCE frame before them), and TEXT frames are parsed by
+ * the ClientMessageParser.
+ * Chunks of long messages (e.g. a long users list) are put together before decoding.
+ * Only the reader thread uses it.
+ */
+public class ClientFrameDecoder {
+
+    private final String userName;
+    private final ClientMessageParser parser;
+    private final HashMap<Integer, String> users;
+    private final FrameAssembler assembler;
+
+    private long nextSequence = 0;
+
+    /**
+     * Constructor
+     *
+     * @param userName
+     */
+    public ClientFrameDecoder(String userName) {
+        this.userName = userName;
+        this.parser = new ClientMessageParser(userName);
+        this.users = new HashMap<>();
+        this.assembler = new FrameAssembler(MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * Decode a received frame (type + payload). it returns null if the frame doesn't contain
+     * a message (e.g. a user id definition, or a chunk of an incomplete message).
+     *
+     * @param frame
+     * @return
+     * @throws Exception
+     */
+    public Message decode(byte[] frame) throws Exception {
+        byte[] message = assembler.add(frame);
+        if (!Optional.ofNullable(message).isPresent())
+            return null;
+        FrameReader reader = new FrameReader(message);
+
+        switch (reader.getType()) {
+            case TEXT:
+                return parser.parse(reader.readText());
+            case USER:
+                users.put(reader.readVarInt(), reader.readText());
+                return null;
+            case SEQUENCE:
+                nextSequence = reader.readLong();
+                return null;
+            case PUBLIC: {
+                String sender = userOf(reader.readVarInt());
+                String body = reader.readText();
+                return new Message(sender, new String[]{userName}, body, body.length(), MessageTypes.PUBLIC,
+                        takeSequence());
+            }
+            case PRIVATE: {
+                String sender = userOf(reader.readVarInt());
+                String[] receivers = reader.readReceivers();
+                String body = reader.readText();
+                return new Message(sender, receivers, body, body.length(), MessageTypes.PRIVATE, takeSequence());
+            }
+            default:
+                return new Message("NONE", new String[]{userName}, "", 0, MessageTypes.NONE);
+        }
+    }
+
+    /**
+     * Returns the sequence number of the SEQUENCE frame which came before the chat message, or 0.
+     *
+     * @return
+     */
+    private long takeSequence() {
+        long sequence = nextSequence;
+        nextSequence = 0;
+        return sequence;
+    }
+
+    private String userOf(int id) throws SenderDoesNotExists {
+        return Optional.ofNullable(users.get(id)).orElseThrow(() ->
+                new SenderDoesNotExists(String.format("User id is not defined: %d", id)));
+    }
+}
@@ -1,5 +1,7 @@
 package Client;
 
+import Message.Protocol.BinaryProtocol;
+
 import static Message.Parser.Parser.*;
 import static Message.StaticMessages.*;
 
@@ -43,6 +45,63 @@ public class ClientMessageBuilder {
         return String.format("Hello<%s>", userName);
     }
 
+    /**
+     * It builds the handshake message which asks for a protocol (see BinaryProtocol). e.g:
+     * "Hello<Alireza>, protocol=2"
+     *
+     * @param userName
+     * @param protocol
+     * @return
+     */
+    public static String handshakeMessage(String userName, int protocol) {
+        return String.format("Hello<%s>, %s", userName, BinaryProtocol.protocolSign(protocol));
+    }
+
+    /**
+     * It builds the handshake message with the last seen sequence number of the chat messages,
+     * so the server sends the missed ones. e.g:
+     * "Hello<Alireza>, seq=120, protocol=2"
+     *
+     * @param userName
+     * @param lastSequence 0 if nothing is seen yet
+     * @param protocol
+     * @return
+     */
+    public static String handshakeMessage(String userName, long lastSequence, int protocol) {
+        return String.format("Hello<%s>, %s%d, %s", userName, SEQUENCE, lastSequence,
+                BinaryProtocol.protocolSign(protocol));
+    }
+
+    /**
+     * Build the history request, a page of the chat messages which are before the given sequence number. e.g:
+     * "History, before<120>, limit<50>"
+     * The server sends the last page if beforeSequence is 0, and it's page size if limit is 0.
+     *
+     * @param beforeSequence
+     * @param limit
+     * @return
+     */
+    public static String historyRequest(long beforeSequence, int limit) {
+        StringBuilder request = new StringBuilder(HISTORY);
+        if (beforeSequence > 0)
+            request.append(TYPE_SEPARATOR).append(' ').append(BEFORE).append(beforeSequence).append('>');
+        if (limit > 0)
+            request.append(TYPE_SEPARATOR).append(' ').append(LIMIT).append(limit).append('>');
+        return request.toString();
+    }
+
+    /**
+     * Build the search request, the server returns the sequence numbers of the messages which have
+     * all of the words. e.g:
+     * "Search, who posted the link"
+     *
+     * @param query
+     * @return
+     */
+    public static String searchRequest(String query) {
+        return String.format("%s%s %s", SEARCH, TYPE_SEPARATOR, query);
+    }
+
     /**
      * It's convert a list of string (users) to this format:
      * ["A","B"] -> "<A>,<B>"
@@ -87,6 +146,34 @@ public class ClientMessageBuilder {
         return String.format("%s, name<%s>, length<%d>", PUBLIC_FILE_MESSAGE, fileName, fileSize);
     }
 
+    /**
+     * Build private file upload request message with the content hash of the file (see FileHash). e.g :
+     * "PFile message, name<a.txt>, length<4096>, sha256<9f86...>, <A>,<B>"
+     *
+     * @param fileName
+     * @param fileSize
+     * @param hash
+     * @param receivers
+     * @return
+     */
+    public static String privateFileSendMessage(String fileName, long fileSize, String hash, String[] receivers) {
+        return String.format("%s, name<%s>, length<%d>, %s%s>, %s", PRIVATE_FILE_MESSAGE, fileName, fileSize, HASH,
+                hash, buildReceiversString(receivers));
+    }
+
+    /**
+     * Build public file upload request message with the content hash of the file (see FileHash). e.g :
+     * "File message, name<a.txt>, length<4096>, sha256<9f86...>"
+     *
+     * @param fileName
+     * @param fileSize
+     * @param hash
+     * @return
+     */
+    public static String publicFileSendMessage(String fileName, long fileSize, String hash) {
+        return String.format("%s, name<%s>, length<%d>, %s%s>", PUBLIC_FILE_MESSAGE, fileName, fileSize, HASH, hash);
+    }
+
     /**
      * Build file download request message. e.g:
      * "Download,fileName,<source>"
@@ -97,4 +184,32 @@ public class ClientMessageBuilder {
     public static String downloadRequest(String fileName, String source) {
         return String.format("%s,%s,<%s>", DOWNLOAD, fileName, source);
     }
+
+    /**
+     * Build file download request message for a part of the file (from rangeStart till the end). e.g:
+     * "Download,fileName,<source>, range<4096->"
+     * It's used for resuming an interrupted download.
+     *
+     * @param fileName
+     * @param source
+     * @param rangeStart
+     * @return
+     */
+    public static String downloadRequest(String fileName, String source, long rangeStart) {
+        return String.format("%s,%s,<%s>, %s%d->", DOWNLOAD, fileName, source, RANGE, rangeStart);
+    }
+
+    /**
+     * Build file download request message for a range of the file (rangeEnd is exclusive). e.g:
+     * "Download,fileName,<source>, range<0-4096>"
+     *
+     * @param fileName
+     * @param source
+     * @param rangeStart
+     * @param rangeEnd
+     * @return
+     */
+    public static String downloadRequest(String fileName, String source, long rangeStart, long rangeEnd) {
+        return String.format("%s,%s,<%s>, %s%d-%d>", DOWNLOAD, fileName, source, RANGE, rangeStart, rangeEnd);
+    }
 }
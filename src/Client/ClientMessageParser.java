@@ -172,11 +172,31 @@ public class ClientMessageParser implements Parser {
             } catch (IndexOutOfBoundsException e) {
                 return new Message(sender, new String[]{userName}, "", 0, NONE);
             }
-            return new Message(sender, stringToList(rec), body, messageLength, PRIVATE);
+            return new Message(sender, stringToList(rec), body, messageLength, PRIVATE,
+                    sequenceOf(messageParts[0]));
         } else
             return new Message(sender, new String[]{userName}, "", 0, NONE);
     }
 
+    /**
+     * Returns the sequence number of a chat message (the part before the sender), or 0 if it doesn't have any.
+     * e.g : " length=<5> seq=<12>" -> 12
+     *
+     * @param header
+     * @return
+     */
+    private static long sequenceOf(String header) {
+        int index = header.indexOf(SEQUENCE + "<");
+        if (index == -1)
+            return 0;
+        int start = index + SEQUENCE.length() + 1;
+        try {
+            return Long.parseLong(header.substring(start, header.indexOf(">", start)));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private String[] stringToList(String string) throws ReceiverDoesNotExists {
         String[] receiversNames = string.split(RECEIVERS_SEPARATOR);
 
@@ -235,7 +255,8 @@ public class ClientMessageParser implements Parser {
             } catch (IndexOutOfBoundsException e) {
                 return new Message(sender, new String[]{"None"}, "", 0, NONE);
             }
-            return new Message(sender, new String[]{userName}, body, messageLength, PUBLIC);
+            return new Message(sender, new String[]{userName}, body, messageLength, PUBLIC,
+                    sequenceOf(messageParts[0]));
         } else
             return new Message(sender, new String[]{"None"}, "", 0, NONE);
     }
@@ -2,15 +2,22 @@ package Client;
 
 import Client.UserInterface.MainWindowController;
 import Message.Message;
+import Message.Protocol.BinaryProtocol;
 import javafx.application.Platform;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 import static Message.MessageTypes.*;
+import static Message.StaticMessages.BEFORE;
+import static Message.Status.Status.HISTORY_PASSED;
 
 public class ClientMessageReader implements Runnable {
 
@@ -19,8 +26,10 @@ public class ClientMessageReader implements Runnable {
     private final Client client;
     private final MainWindowController controller;
     private final ClientMessageParser messageParser;
+    private final ClientFrameDecoder frameDecoder;
 
     private DataInputStream fromServer;
+    private List<Message> historyPage = new ArrayList<>();
 
     private boolean readerIsOpen = true;
 
@@ -36,23 +45,24 @@ public class ClientMessageReader implements Runnable {
         this.client = client;
         this.controller = controller;
         this.messageParser = new ClientMessageParser("");
+        this.frameDecoder = new ClientFrameDecoder("");
         this.logger = LogManager.getLogger(ClientMessageReader.class.getName());
 
     }
 
     /**
      * It waits for server message and after receiving message from it,
-     * tries to pars the message (by calling ClientMessageParser) and send it to
-     * MainViewController.
+     * tries to pars the message (by calling ClientMessageParser, or ClientFrameDecoder
+     * in binary protocol) and send it to MainViewController.
      */
     @Override
     public void run() {
-        String message;
+        boolean binary = client.getProtocol() == BinaryProtocol.BINARY_PROTOCOL;
 
         //Try to check if it can establish a connection or not, if
         //it was successful, reading process will start.
         try {
-            fromServer = new DataInputStream(server.getInputStream());
+            fromServer = new DataInputStream(new BufferedInputStream(server.getInputStream()));
         } catch (IOException e) {
             logger.fatal("Couldn't get input stream from server socket");
             readerIsOpen = false;
@@ -64,14 +74,10 @@ public class ClientMessageReader implements Runnable {
 
         while (readerIsOpen) {
             try {
-                message = fromServer.readUTF();
-                try {
-                    Message parsed = messageParser.parse(message);
+                Message parsed = binary ? readFrame() : readTextMessage();
+                // Definition frames (and not valid messages) don't have anything to show
+                if (Optional.ofNullable(parsed).isPresent())
                     handleMessage(parsed);
-                } catch (Exception e) {
-                    logger.fatal("Server don't work properly!");
-                    logger.fatal(e.getMessage());
-                }
             } catch (IOException e) {
                 logger.fatal("Reading from Server was not successful!");
                 logger.fatal(e.getMessage());
@@ -84,18 +90,69 @@ public class ClientMessageReader implements Runnable {
         logger.debug("Client reader is shutting down!");
     }
 
+    /**
+     * Read a message of the text protocol and parse it, it returns null if it was not valid.
+     *
+     * @return
+     * @throws IOException
+     */
+    private Message readTextMessage() throws IOException {
+        String message = fromServer.readUTF();
+        try {
+            return messageParser.parse(message);
+        } catch (Exception e) {
+            logger.fatal("Server don't work properly!");
+            logger.fatal(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read a frame of the binary protocol and decode it, it returns null if it was not valid
+     * or it doesn't contain a message.
+     *
+     * @return
+     * @throws IOException
+     */
+    private Message readFrame() throws IOException {
+        byte[] frame = BinaryProtocol.readFrame(fromServer);
+        try {
+            return frameDecoder.decode(frame);
+        } catch (Exception e) {
+            logger.fatal("Server don't work properly!");
+            logger.fatal(e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Based on the type of the parsed message, it calls
      * the proper function of MainWindowController.
+     * File transfer tokens are kept for the file sharing services, and they aren't shown.
+     * The sequence number of the chat messages is kept as the last seen message of the user.
      *
      * @param parsedMessage
      */
     private void handleMessage(Message parsedMessage) {
+        if ((parsedMessage.getType() == PRIVATE || parsedMessage.getType() == PUBLIC)
+                && parsedMessage.getSequence() > 0) {
+            // A message which is already seen (e.g. before reconnecting) is not shown again.
+            if (parsedMessage.getSequence() <= client.getLastSequence())
+                return;
+            client.setLastSequence(parsedMessage.getSequence());
+        }
+
         if (parsedMessage.getType() == PRIVATE) {
             Platform.runLater(() -> controller.showPrivateMessage(parsedMessage));
         } else if (parsedMessage.getType() == PUBLIC) {
             Platform.runLater(() -> controller.showPublicMessage(parsedMessage));
         } else if (parsedMessage.getType() == RESPONSE) {
+            if (parsedMessage.getSafeBody().startsWith(HISTORY_PASSED + ",")) {
+                handleHistory(parsedMessage.getSafeBody().substring(HISTORY_PASSED.length() + 1));
+                return;
+            }
+            if (client.getTransferTokens().handle(parsedMessage.getSafeBody()))
+                return;
             Platform.runLater(() -> controller.showResponse(parsedMessage));
         } else if (parsedMessage.getType() == PRIVATE_DATA) {
             Platform.runLater(() -> controller.showPrivateData(parsedMessage));
@@ -104,6 +161,29 @@ public class ClientMessageReader implements Runnable {
         }
     }
 
+    /**
+     * A message of a history page (see Client.requestHistory) is received, the messages are collected
+     * and the page is shown at once when it's end ("before<SEQUENCE>") is received.
+     * They are old messages, so the last seen message doesn't change.
+     *
+     * @param response
+     */
+    private void handleHistory(String response) {
+        if (response.startsWith(BEFORE)) {
+            List<Message> page = historyPage;
+            historyPage = new ArrayList<>();
+            Platform.runLater(() -> controller.showHistory(page));
+            return;
+        }
+        try {
+            Message message = messageParser.parse(response);
+            if (message.getType() == PUBLIC || message.getType() == PRIVATE)
+                historyPage.add(message);
+        } catch (Exception e) {
+            logger.error(String.format("History message is not valid : %s", e.getMessage()));
+        }
+    }
+
     /**
      * It stops the reading process.
      */
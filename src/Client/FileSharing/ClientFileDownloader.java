@@ -1,35 +1,49 @@
 package Client.FileSharing;
 
 import Client.Client;
+import Client.ClientMessageBuilder;
+import Client.Exceptions.SendingMessageToServerFailed;
 import Client.UserInterface.MainWindowController;
 import Client.Utils;
 import Message.Message;
+import Transfer.Compression;
+import Transfer.Exceptions.TransferWasIncomplete;
+import Transfer.FileSync;
+import Transfer.FileTransfer;
+import Transfer.ParallelTransfer;
+import Transfer.TransferStats;
 import javafx.application.Platform;
 import org.apache.log4j.Logger;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 
 import static Message.MessageTypes.PRIVATE;
 
 /**
  * This service is going to download the specific file
- * form the server. for this, it makes a Server socket (ONT SERVER PORT + 2 [E.G 15002] and wait
- * till the server file uploader connect to it, then receive it
+ * form the server. for this, it sends the download request, waits for the transfer token of the file (see TransferTokens)
+ * and connect to the server file sharing socket (SERVER PORT + 1 [E.G 15001]) with it, then receive it
  * from server and save it to the client system's.
+ * The data is moved from the socket to the file directly (see FileTransfer), or in compressed
+ * blocks if both sides want it (see Compression).
+ * The file is received in a part file, if the download is interrupted, downloading it again
+ * (to the same location) only requests the rest of the file.
+ * The file is synced to the disk once at the end, "-Dclient.fileSync=strict" makes each write
+ * synchronous (see FileSync).
  */
 public class ClientFileDownloader implements Runnable {
 
     private final MainWindowController mainWindowController;
     private final Client client;
     private final String fileName;
+    private final String source;
 
     private final Logger logger;
     private final File saveLocation;
-    private final int BUFFER_SIZE = 4096;
     private final long fileLength;
 
     /**
@@ -38,68 +52,70 @@ public class ClientFileDownloader implements Runnable {
      * @param mainWindowController
      * @param client
      * @param fileName
+     * @param source       the user who sent the file
      * @param fileLength
      * @param saveLocation
      */
     public ClientFileDownloader(MainWindowController mainWindowController, Client client, String fileName,
-                                long fileLength, File saveLocation) {
+                                String source, long fileLength, File saveLocation) {
         this.mainWindowController = mainWindowController;
         this.client = client;
         this.fileName = fileName;
+        this.source = source;
         this.fileLength = fileLength;
         this.saveLocation = saveLocation;
         logger = Logger.getLogger(ClientFileDownloader.class.getName());
     }
 
-    /**
-     * Get a socket and returns a string with this format:
-     * [HOST IP ADDRESS:PORT]
-     * example: [192.168.1.4:15000]
-     *
-     * @param client
-     * @return
-     */
-    private static String getClientInfo(Socket client) {
-        return String.format("%s:%s", client.getInetAddress().getHostAddress(), client.getPort());
-    }
-
     @Override
     public void run() {
+        File file = buildDestFile();
+        File partFile = FileTransfer.partFile(file);
         try {
-            File file = buildDestFile();
-
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rws");
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-
-            int loopLimit = (int) (fileLength / BUFFER_SIZE);
+            //An interrupted download of this file continues from the end of it's part file.
+            long offset = FileTransfer.resumeOffset(partFile, fileLength);
+            client.sendMessageToServer((offset > 0) ? ClientMessageBuilder.downloadRequest(fileName, source, offset)
+                    : ClientMessageBuilder.downloadRequest(fileName, source));
 
             logger.debug("Waiting for Sever");
-            Socket senderSocket = mainWindowController.getDownloaderSocket().accept();
-            logger.debug("Server Connected :" + getClientInfo(senderSocket));
-
-            sendingState(String.format("%s Downloading started!", fileName));
-
-            DataInputStream fromSender = new DataInputStream(senderSocket.getInputStream());
-
-            for (int i = 0; i < loopLimit; i++) {
-                fromSender.read(buffer);
-                randomAccessFile.write(buffer);
-                randomAccessFile.skipBytes(BUFFER_SIZE);
+            List<TransferTokens.Token> tokens = client.getTransferTokens().awaitAll(fileName, fileLength);
+            FileSync fileSync = FileSync.of(System.getProperty("client.fileSync"));
+            try (FileChannel fileChannel = fileSync.open(partFile)) {
+                //Large files are received over parallel data connections, one for the range of each token.
+                if (tokens.size() > 1)
+                    FileTransfer.reserve(partFile, fileChannel, offset, fileLength);
+
+                ParallelTransfer transfer = new ParallelTransfer(client.getTransferThreads());
+                for (TransferTokens.Token token : tokens)
+                    transfer.add(token.getRange(), (position, length) -> {
+                        try (SocketChannel senderSocket = client.openTransferConnection(token)) {
+                            logger.debug("Server Connected :" + senderSocket.getRemoteAddress());
+                            return Compression.read(senderSocket).receive(senderSocket, fileChannel, position, length);
+                        }
+                    });
+
+                sendingState((offset > 0) ? String.format("%s Downloading resumed from byte %d!", fileName, offset)
+                        : String.format("%s Downloading started!", fileName));
+
+                TransferStats stats;
+                try {
+                    stats = transfer.run();
+                } catch (TransferWasIncomplete e) {
+                    //The ranges after the failed one may have gaps, so only the complete part is kept for resuming.
+                    FileTransfer.truncate(partFile, fileChannel, e.getCompleteLength());
+                    throw e;
+                }
+                fileSync.complete(fileChannel);
+                logger.debug(String.format("File downloaded completely! %s (%d streams)", stats, tokens.size()));
+
+                sendingState(String.format("%s download completed! %s", fileName, stats));
             }
+            FileTransfer.commit(partFile, file);
 
-            buffer = new byte[(int) (fileLength - loopLimit * BUFFER_SIZE)];
-
-            if (fromSender.read(buffer) != -1)
-                randomAccessFile.write(buffer);
-
-            randomAccessFile.close();
-            logger.debug("File downloaded completely!");
-
-            sendingState(String.format("%s download completed!", fileName));
-
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException | SendingMessageToServerFailed e) {
+            //The part file is kept, so downloading the same file again resumes it.
             logger.error(e.getMessage());
+            sendingState(String.format("Downloading %s was failed!", fileName));
         }
     }
 
@@ -5,20 +5,31 @@ import Client.ClientMessageBuilder;
 import Client.Exceptions.SendingMessageToServerFailed;
 import Client.UserInterface.MainWindowController;
 import Message.Message;
+import Transfer.Compression;
+import Transfer.FileHash;
+import Transfer.ParallelTransfer;
+import Transfer.TransferStats;
 import javafx.application.Platform;
 import org.apache.log4j.Logger;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 
 import static Message.MessageTypes.PRIVATE;
 
 /**
- * This service is going to connect to server downloader socket
+ * This service is going to connect to server file sharing socket (with the transfer token
+ * which the server sent for the file, see TransferTokens)
  * and upload the specific file to it. and show the state to the user.
+ * The data is moved from the file to the socket directly (see FileTransfer), or in compressed
+ * blocks if both sides want it (see Compression).
+ * The content hash of the file is sent with the upload request, so if the server already has
+ * the same content, the file is not uploaded again, only the range which the server asks is sent
+ * to prove that the client has the content (see FileStore).
  */
 public class ClientFileUploader implements Runnable {
 
@@ -26,7 +37,6 @@ public class ClientFileUploader implements Runnable {
 
     private final File file;
     private final boolean isPublic;
-    private final int BUFFER_SIZE = 4096;
     private final String[] receivers;
     private final Client client;
 
@@ -57,17 +67,23 @@ public class ClientFileUploader implements Runnable {
     public void run() {
         /*
          *Based on the message state, it will build the sending message.
+         * Server receives exactly the announced length, so the same length is sent.
          */
-        String message = (isPublic) ? ClientMessageBuilder.publicFileSendMessage(file.getName(), file.length()) :
-                ClientMessageBuilder.privateFileSendMessage(file.getName(), file.length(), receivers);
-
+        long fileLength = file.length();
         try {
+            String hash;
+            try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+                hash = FileHash.of(fileChannel);
+            }
+            String message = (isPublic) ? ClientMessageBuilder.publicFileSendMessage(file.getName(), fileLength, hash)
+                    : ClientMessageBuilder.privateFileSendMessage(file.getName(), fileLength, hash, receivers);
+
             //Send the upload request to server to make it ready for downloading
             client.sendMessageToServer(message);
-            Thread.sleep(1000);
-            sendingFile();
-        } catch (SendingMessageToServerFailed | InterruptedException e) {
+            sendingFile(fileLength);
+        } catch (IOException | SendingMessageToServerFailed e) {
             logger.error(e.getMessage());
+            sendingState(String.format("Sending %s to server was failed!", file.getName()));
         }
 
 
@@ -75,38 +91,66 @@ public class ClientFileUploader implements Runnable {
 
     /**
      * Reading from file and send it iteratively to
-     * the server downloader socket.
+     * the server file sharing socket, as soon as the server sent the transfer tokens.
+     * It sends the range of each token on it's own connection (the first one starts from the
+     * offset which the server already has).
+     *
+     * @param fileLength the announced length
      */
-    private void sendingFile() {
+    private void sendingFile(long fileLength) {
         try {
+            List<TransferTokens.Token> tokens = client.getTransferTokens().awaitAll(file.getName(), fileLength);
+            if (tokens.get(0).isProof()) {
+                sendingRange(tokens.get(0));
+                tokens = client.getTransferTokens().awaitAll(file.getName(), fileLength);
+            }
+            if (tokens.get(0).isStored()) {
+                sendingState(String.format("%s is already on the server, it's shared without uploading!",
+                        file.getName()));
+                return;
+            }
+            try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
 
-            Socket fileGetterSocket = new Socket(client.getServerSocket().getInetAddress(),
-                    client.getServerSocket().getPort() + 1);
-
-            DataOutputStream toServer = new DataOutputStream(fileGetterSocket.getOutputStream());
-
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-
-            byte[] buffer = new byte[BUFFER_SIZE];
+                //Server may have a part of the file from an interrupted upload.
+                long offset = tokens.get(0).getOffset();
+                sendingState((offset > 0) ? String.format("Sending %s resumed from byte %d!", file.getName(), offset)
+                        : String.format("Sending %s started!", file.getName()));
 
-            Thread.sleep(1000);
+                ParallelTransfer transfer = new ParallelTransfer(client.getTransferThreads());
+                for (TransferTokens.Token token : tokens)
+                    transfer.add(token.getRange(), (position, length) -> {
+                        try (SocketChannel fileGetterSocket = client.openTransferConnection(token)) {
+                            return Compression.read(fileGetterSocket).send(fileChannel, position, length, fileGetterSocket);
+                        }
+                    });
 
-            sendingState(String.format("Sending %s started!", file.getName()));
+                TransferStats stats = transfer.run();
+                logger.debug(String.format("%s uploaded: %s (%d streams)", file.getName(), stats, tokens.size()));
 
-            while (randomAccessFile.read(buffer) != -1) {
-                toServer.write(buffer);
+                sendingState(String.format("%s Uploaded Successfully! %s", file.getName(), stats));
             }
 
-            randomAccessFile.close();
-
-            sendingState(String.format("%s Uploaded Successfully!", file.getName()));
-
         } catch (IOException | InterruptedException e) {
             logger.error(e.getMessage());
             sendingState(String.format("Sending %s to server was failed!", file.getName()));
         }
     }
 
+    /**
+     * Send the range of the token (the server already has the content, and this range proves that the
+     * client has it too).
+     *
+     * @param token
+     * @throws IOException
+     */
+    private void sendingRange(TransferTokens.Token token) throws IOException {
+        try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+             SocketChannel fileGetterSocket = client.openTransferConnection(token)) {
+            Compression.read(fileGetterSocket).send(fileChannel, token.getOffset(), token.getLength(),
+                    fileGetterSocket);
+        }
+    }
+
     /**
      * Send the proper message to client private messages
      * from client.
@@ -0,0 +1,185 @@
+package Client.FileSharing;
+
+import Transfer.ParallelTransfer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static Message.Status.Status.FILE_ALREADY_EXISTS;
+import static Message.Status.Status.FILE_PROOF_REQUIRED;
+import static Message.Status.Status.READY_TO_GET_FILE;
+
+/**
+ * Holds the transfer tokens which the server sent (READY_TO_GET_FILE responses) till the
+ * file uploader/downloader of that file takes them, e.g : "203,<TOKEN>,<OFFSET>,<LENGTH>,<FILE NAME>"
+ * OFFSET and LENGTH are the range of the file which is going to be transferred with the token, a large
+ * file may have several tokens (parallel data connections, see ParallelTransfer).
+ * If the server already has the content of an uploading file, it sends FILE_ALREADY_EXISTS instead of
+ * the tokens, e.g : "207,<FILE NAME>" (see Token.isStored). Before that, the client must send a random range of
+ * the file to prove that it has the content, the server asks it with a proof token :
+ * "208,<TOKEN>,<OFFSET>,<LENGTH>,<FILE NAME>" (see Token.isProof).
+ * The token can arrive before or after the transfer starts waiting for it, and
+ * the tokens which nobody took in TIMEOUT are thrown away (the server doesn't accept them anymore).
+ */
+public class TransferTokens {
+
+    /**
+     * Maximum waiting time (milliseconds) for a token.
+     */
+    public static final long TIMEOUT = 30_000;
+
+    private final Map<String, LinkedList<Token>> tokens = new HashMap<>();
+
+    /**
+     * If the response body is a transfer token, it keeps the token and returns true.
+     *
+     * @param responseBody
+     * @return
+     */
+    public synchronized boolean handle(String responseBody) {
+        if (responseBody.startsWith(FILE_ALREADY_EXISTS + ",")) {
+            tokens.computeIfAbsent(responseBody.substring(FILE_ALREADY_EXISTS.length() + 1),
+                    fileName -> new LinkedList<>()).add(new Token(null, 0, 0, false, System.currentTimeMillis()));
+            notifyAll();
+            return true;
+        }
+
+        String[] parts = responseBody.split(",", 5);
+        if (parts.length != 5 || (!parts[0].equals(READY_TO_GET_FILE) && !parts[0].equals(FILE_PROOF_REQUIRED)))
+            return false;
+
+        try {
+            tokens.computeIfAbsent(parts[4], fileName -> new LinkedList<>()).add(new Token(parts[1],
+                    Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[0].equals(FILE_PROOF_REQUIRED),
+                    System.currentTimeMillis()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait for the token of the file and return it.
+     *
+     * @param fileName
+     * @return
+     * @throws IOException          if the server didn't send it in TIMEOUT
+     * @throws InterruptedException
+     */
+    public synchronized Token await(String fileName) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (long now = System.currentTimeMillis(); now < deadline; now = System.currentTimeMillis()) {
+            Token token = take(fileName, now);
+            if (Optional.ofNullable(token).isPresent())
+                return token;
+            wait(deadline - now);
+        }
+        throw new IOException(String.format("Server is not ready for %s!", fileName));
+    }
+
+    /**
+     * Wait for all of the tokens of the file, till their ranges reach the end of the file.
+     * If the server already has the file, it returns only the stored token (or the proof token).
+     *
+     * @param fileName
+     * @param fileLength
+     * @return
+     * @throws IOException          if the server didn't send them in TIMEOUT
+     * @throws InterruptedException
+     */
+    public synchronized List<Token> awaitAll(String fileName, long fileLength) throws IOException,
+            InterruptedException {
+        List<Token> fileTokens = new ArrayList<>();
+        Token token;
+        do {
+            token = await(fileName);
+            fileTokens.add(token);
+        } while (!token.isStored() && !token.isProof() && token.getOffset() + token.getLength() < fileLength);
+        return fileTokens;
+    }
+
+    /**
+     * Take the oldest token of the file which is not expired yet.
+     *
+     * @param fileName
+     * @param now
+     * @return
+     */
+    private Token take(String fileName, long now) {
+        LinkedList<Token> fileTokens = tokens.get(fileName);
+        if (!Optional.ofNullable(fileTokens).isPresent())
+            return null;
+
+        Token token = null;
+        for (Iterator<Token> iterator = fileTokens.iterator(); iterator.hasNext() && token == null; ) {
+            Token next = iterator.next();
+            iterator.remove();
+            if (now - next.time < TIMEOUT)
+                token = next;
+        }
+        if (fileTokens.isEmpty())
+            tokens.remove(fileName);
+        return token;
+    }
+
+    /**
+     * A received token, and the range of the file which is going to be transferred with it.
+     */
+    public static class Token {
+        private final String value;
+        private final long offset;
+        private final long length;
+        private final boolean proof;
+        private final long time;
+
+        private Token(String value, long offset, long length, boolean proof, long time) {
+            this.value = value;
+            this.offset = offset;
+            this.length = length;
+            this.proof = proof;
+            this.time = time;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public ParallelTransfer.Range getRange() {
+            return new ParallelTransfer.Range(offset, length);
+        }
+
+        /**
+         * Returns true if the server already has the file, so nothing is going to be transferred.
+         *
+         * @return
+         */
+        public boolean isStored() {
+            return value == null;
+        }
+
+        /**
+         * Returns true if the server already has the content, and the range of the token is sent only to prove
+         * that the client has it too. The server answers with the stored token or the tokens of the whole file.
+         *
+         * @return
+         */
+        public boolean isProof() {
+            return proof;
+        }
+    }
+}
@@ -1,12 +1,9 @@
 package Client.UserInterface;
 
 import Client.Client;
-import Client.ClientMessageBuilder;
-import Client.Exceptions.SendingMessageToServerFailed;
 import Client.FileSharing.ClientFileDownloader;
 import Client.Utils;
 import com.jfoenix.controls.JFXButton;
-import javafx.application.Platform;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.image.Image;
@@ -60,8 +57,10 @@ public class CustomCell extends ListCell<String> {
         /**
          * If clicked on the download button,
          * it will run a thread to download it from server,
-         * before it, send download request message to server
+         * the thread sends the download request message to server
          * to it starts it's file uploader service.
+         * The save location is chosen first, so the transfer token of the server
+         * doesn't expire while the dialog is open.
          */
         downloadButton.setOnAction(event -> {
             String text = message.getText();
@@ -69,20 +68,13 @@ public class CustomCell extends ListCell<String> {
             String source = text.substring(text.indexOf("[") + 1, text.indexOf("]"));
             long fileLength = Long.parseLong(text.substring(text.lastIndexOf("[") + 1,
                     text.lastIndexOf("]")));
-            try {
-                client.sendMessageToServer(ClientMessageBuilder.downloadRequest(fileName, source));
 
-                DirectoryChooser chooseDirectory = new DirectoryChooser();
-                chooseDirectory.setTitle("Choose a save location");
-                File saveLocation = chooseDirectory.showDialog(new Stage());
+            DirectoryChooser chooseDirectory = new DirectoryChooser();
+            chooseDirectory.setTitle("Choose a save location");
+            File saveLocation = chooseDirectory.showDialog(new Stage());
 
-                new Thread(new ClientFileDownloader(mainWindowController, client, fileName,
-                        fileLength, saveLocation)).start();
-
-            } catch (SendingMessageToServerFailed e) {
-                logger.error(e.getMessage());
-                Platform.runLater(() -> mainWindowController.logOut(event));
-            }
+            new Thread(new ClientFileDownloader(mainWindowController, client, fileName, source,
+                    fileLength, saveLocation)).start();
 
         });
     }
@@ -1,7 +1,6 @@
 package Client.UserInterface;
 
 import Client.Client;
-import Client.ClientMessageBuilder;
 import Client.Exceptions.SendingMessageToServerFailed;
 import Client.Utils;
 import Message.Message;
@@ -30,7 +29,6 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +36,7 @@ import java.util.ResourceBundle;
 import java.util.function.Predicate;
 
 import static Message.MessageTypes.BROADCAST;
+import static Message.MessageTypes.PRIVATE;
 import static Message.MessageTypes.RESPONSE;
 import static Message.StaticMessages.GET_USERS_LIST;
 import static Message.StaticMessages.SIGN_OUT;
@@ -85,7 +84,6 @@ public class MainWindowController implements Initializable {
     private ImageView userImage;
     private Logger logger;
     private Client client;
-    private ServerSocket downloaderSocket;
 
     /**
      * Initializing the mian window and fxml file.
@@ -144,10 +142,6 @@ public class MainWindowController implements Initializable {
         privateListView.setCellFactory(param -> new CustomCell(this, client));
     }
 
-    public ServerSocket getDownloaderSocket() {
-        return downloaderSocket;
-    }
-
     /**
      * After initializing, it's set client and call runReader
      * and tries to get online users from server.
@@ -156,14 +150,12 @@ public class MainWindowController implements Initializable {
      */
     protected void setupClient(Client client) {
         this.client = client;
+        // The messages after the last seen one are sent by the server (catch-up), the older ones are asked.
+        long lastSeen = client.getLastSequence();
         this.client.runReader(this);
         Platform.runLater(() -> getOnlineUsers(new ActionEvent()));
+        Platform.runLater(() -> loadHistory(lastSeen + 1));
         userNameLabel.setText(client.getUserName());
-        try {
-            this.downloaderSocket = new ServerSocket(client.getServerSocket().getPort() + 2);
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-        }
     }
 
     /**
@@ -213,7 +205,7 @@ public class MainWindowController implements Initializable {
     /**
      * After clicking to sendButton, it takes the message
      * from message text area and based on the radio buttons, call the proper
-     * message builder and call sendMessageToServer to send it's message.
+     * client method to send it's message.
      * if the server was not available, it log out the client.
      *
      * @param event
@@ -226,15 +218,13 @@ public class MainWindowController implements Initializable {
                 try {
                     if (publicRadio.isSelected()) {
 
-                        client.sendMessageToServer(ClientMessageBuilder.publicMessage(
-                                messageText, messageText.length()));
+                        client.sendPublicMessage(messageText);
 
                     } else if (privateRadio.isSelected()) {
                         getOnlineUsers(new ActionEvent());
                         String[] receivers = getReceiversList();
                         if (receivers.length > 0)
-                            client.sendMessageToServer(ClientMessageBuilder.privateMessageBuilder(messageText,
-                                    messageText.length(), receivers));
+                            client.sendPrivateMessage(messageText, receivers);
                     }
                 } catch (SendingMessageToServerFailed e) {
                     logger.error(e.getMessage());
@@ -289,6 +279,38 @@ public class MainWindowController implements Initializable {
                 beautifyMessage(parsedMessage.getSafeBody(), 40));
     }
 
+    /**
+     * It adds a page of the history before the shown messages (public ones to publicListView
+     * and private ones to privateListView).
+     *
+     * @param page
+     */
+    public void showHistory(List<Message> page) {
+        List<String> publicMessages = new ArrayList<>();
+        List<String> privateMessages = new ArrayList<>();
+        for (Message message : page) {
+            if (message.getType() == PRIVATE)
+                privateMessages.add("[" + message.getSender() + "]: " + beautifyMessage(message.getSafeBody(), 40));
+            else
+                publicMessages.add("[" + message.getSender() + "]: " + beautifyMessage(message.getSafeBody(), 80));
+        }
+        publicListView.getItems().addAll(0, publicMessages);
+        privateListView.getItems().addAll(0, privateMessages);
+    }
+
+    /**
+     * It asks the server for the messages which are before the given sequence number.
+     *
+     * @param beforeSequence
+     */
+    private void loadHistory(long beforeSequence) {
+        try {
+            client.requestHistory(beforeSequence, 0);
+        } catch (SendingMessageToServerFailed e) {
+            logger.error(e.getMessage());
+        }
+    }
+
     /**
      * It adds public message to publicListView.
      *
@@ -338,6 +360,18 @@ public class MainWindowController implements Initializable {
                         new Message(parsedMessage.getSender(), parsedMessage.getReceivers(),
                                 newBody, newBody.length(), RESPONSE)
                 );
+            } else if (status.equals(PRIVATE_MESSAGE_IS_STORED)) {
+                newBody = "These users are offline, they will receive the private message later" + parts[1];
+                showPrivateMessage(
+                        new Message(parsedMessage.getSender(), parsedMessage.getReceivers(),
+                                newBody, newBody.length(), RESPONSE)
+                );
+            } else if (status.equals(SEARCH_PASSED)) {
+                newBody = parts[1].isEmpty() ? "No message is found" : "Found messages (newest first): " + parts[1];
+                showPrivateMessage(
+                        new Message(parsedMessage.getSender(), parsedMessage.getReceivers(),
+                                newBody, newBody.length(), RESPONSE)
+                );
             } else if (status.equals(HANDSHAKE_ACCEPTED)) {
                 showPrivateMessage(
                         new Message(parsedMessage.getSender(), parsedMessage.getReceivers(),
@@ -7,6 +7,11 @@ public class Message {
     private final long length;
 
     private final MessageTypes type;
+    private final long rangeStart;
+    private final long rangeEnd;
+    private final String hash;
+    private final long sequence;
+    private final Query query;
 
     /**
      * This class hold a message and it's parameters.
@@ -18,11 +23,80 @@ public class Message {
      * @param type
      */
     public Message(String sender, String[] receivers, String body, long length, MessageTypes type) {
+        this(sender, receivers, body, length, type, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as the other one, with the requested bytes of a file (download requests).
+     *
+     * @param sender
+     * @param receivers
+     * @param body
+     * @param length
+     * @param type
+     * @param rangeStart first byte
+     * @param rangeEnd   end of the range (exclusive), Long.MAX_VALUE means till the end of the file
+     */
+    public Message(String sender, String[] receivers, String body, long length, MessageTypes type,
+                   long rangeStart, long rangeEnd) {
+        this(sender, receivers, body, length, type, rangeStart, rangeEnd, null, 0, null);
+    }
+
+    /**
+     * Same as the other one, with the content hash of a file (upload requests, see FileHash).
+     *
+     * @param sender
+     * @param receivers
+     * @param body
+     * @param length
+     * @param type
+     * @param hash      null if the client didn't send it
+     */
+    public Message(String sender, String[] receivers, String body, long length, MessageTypes type, String hash) {
+        this(sender, receivers, body, length, type, 0, Long.MAX_VALUE, hash, 0, null);
+    }
+
+    /**
+     * Same as the other one, with the sequence number of a chat message in the history of the server
+     * (see MessageLog).
+     *
+     * @param sender
+     * @param receivers
+     * @param body
+     * @param length
+     * @param type
+     * @param sequence  0 if the server didn't send it
+     */
+    public Message(String sender, String[] receivers, String body, long length, MessageTypes type, long sequence) {
+        this(sender, receivers, body, length, type, 0, Long.MAX_VALUE, null, sequence, null);
+    }
+
+    /**
+     * Same as the other one, with the parameters of a history or search command.
+     *
+     * @param sender
+     * @param receivers
+     * @param body      the command
+     * @param length
+     * @param type
+     * @param query
+     */
+    public Message(String sender, String[] receivers, String body, long length, MessageTypes type, Query query) {
+        this(sender, receivers, body, length, type, 0, Long.MAX_VALUE, null, 0, query);
+    }
+
+    private Message(String sender, String[] receivers, String body, long length, MessageTypes type,
+                    long rangeStart, long rangeEnd, String hash, long sequence, Query query) {
         this.sender = sender;
         this.receivers = receivers;
         this.body = body;
         this.length = length;
         this.type = type;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.hash = hash;
+        this.sequence = sequence;
+        this.query = query;
     }
 
     /*
@@ -58,4 +132,29 @@ public class Message {
         return type;
     }
 
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    public long getRangeEnd() {
+        return rangeEnd;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the parameters of a history or search command, or null.
+     *
+     * @return
+     */
+    public Query getQuery() {
+        return query;
+    }
+
 }
@@ -0,0 +1,190 @@
+package Message.Protocol;
+
+import Message.StaticMessages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Version 2 of the wire protocol (binary framing), it's used by both server and client side.
+ * It's negotiated by the handshake, which is still a text message :
+ * Client : "Hello<User>, protocol=2"
+ * Server : "Server message,201,protocol=2"
+ * An old server (or client) ignores the protocol part, so both sides keep using the text protocol.
+ * After the handshake, each message is sent as a frame :
+ * [length (varint)][type (1 byte)][payload]
+ * The length counts the type byte and the payload, strings are UTF-8.
+ * A message which is longer than CHUNK_SIZE is split into CHUNK frames (the last one is LAST_CHUNK),
+ * each of them contains the next part of the message frame (type + payload), and the receiver
+ * puts them together (see FrameAssembler).
+ */
+public class BinaryProtocol {
+
+    public static final int TEXT_PROTOCOL = 1;
+    public static final int BINARY_PROTOCOL = 2;
+    public static final String PROTOCOL_SIGN = "protocol=";
+
+    /**
+     * Frame types.
+     * TEXT : [text] a message of the text protocol (commands, responses, file messages, ...)
+     * USER : [id][name] defines the id of a user, sent by server before the first use of the id
+     * PUBLIC : server [sender id][body], client [body]
+     * PRIVATE : server [sender id][receivers], client [receivers] + [body]
+     * receivers : [count][name 1]...[name n], each name is prefixed with it's length (varint)
+     * CHUNK : [part of a message frame]
+     * LAST_CHUNK : [last part of a message frame]
+     * SEQUENCE : [sequence number (8 bytes)] sequence number of the next chat message in the history of the server,
+     * it's sent only to the clients which sent their last seen sequence number in the handshake
+     */
+    public static final byte TEXT = 1;
+    public static final byte USER = 2;
+    public static final byte PUBLIC = 3;
+    public static final byte PRIVATE = 4;
+    public static final byte CHUNK = 5;
+    public static final byte LAST_CHUNK = 6;
+    public static final byte SEQUENCE = 7;
+
+    /**
+     * Maximum size of a message frame (type + payload) which is sent without splitting.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum length of the frames on the wire (a chunk type byte + CHUNK_SIZE).
+     */
+    public static final int MAX_FRAME_LENGTH = CHUNK_SIZE + 1;
+
+    /**
+     * Default maximum size of a message which is put together from chunks.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 1 << 20;
+
+    private static final int MAX_VARINT_SIZE = 5;
+
+    /**
+     * It takes a handshake (or it's response) and returns the requested protocol,
+     * if it doesn't have any, it returns TEXT_PROTOCOL.
+     * e.g : "Hello<Alireza>, protocol=2" -> 2
+     *
+     * @param message
+     * @return
+     */
+    public static int requestedProtocol(String message) {
+        int index = message.lastIndexOf(PROTOCOL_SIGN);
+        if (index == -1 || index < message.lastIndexOf(">"))
+            return TEXT_PROTOCOL;
+        try {
+            return Integer.parseInt(message.substring(index + PROTOCOL_SIGN.length()).trim());
+        } catch (NumberFormatException e) {
+            return TEXT_PROTOCOL;
+        }
+    }
+
+    /**
+     * It takes a handshake (or it's response) and returns the sequence number part of it (see Client and
+     * MessageLog), if it doesn't have any, it returns -1.
+     * e.g : "Hello<Alireza>, seq=120, protocol=2" -> 120
+     *
+     * @param message
+     * @return
+     */
+    public static long requestedSequence(String message) {
+        int index = message.lastIndexOf(StaticMessages.SEQUENCE);
+        if (index == -1 || index < message.lastIndexOf(">"))
+            return -1;
+        int end = message.indexOf(',', index);
+        try {
+            long sequence = Long.parseLong(message.substring(index + StaticMessages.SEQUENCE.length(),
+                    (end == -1) ? message.length() : end).trim());
+            return (sequence >= 0) ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Build the protocol part of handshake messages. e.g :
+     * 2 -> "protocol=2"
+     *
+     * @param protocol
+     * @return
+     */
+    public static String protocolSign(int protocol) {
+        return PROTOCOL_SIGN + protocol;
+    }
+
+    /**
+     * Read a frame (type + payload) from the stream, it blocks till the whole frame is received.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift == MAX_VARINT_SIZE * 7)
+                throw new IOException("Frame length is not valid");
+            int b = in.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        checkLength(length);
+
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Read a varint from the array. it returns -1 if the varint is not complete yet.
+     *
+     * @param bytes
+     * @param offset
+     * @param limit  end of the valid bytes
+     * @return
+     * @throws IOException if it's not a valid varint
+     */
+    public static int readVarInt(byte[] bytes, int offset, int limit) throws IOException {
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+            if (offset + i >= limit)
+                return -1;
+            int b = bytes[offset + i];
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0 && value >= 0)
+                return value;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        throw new IOException("Varint is not valid");
+    }
+
+    /**
+     * Returns the number of bytes of the value as varint.
+     *
+     * @param value
+     * @return
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Checks the length of a received frame, so a broken (or hostile) peer can't make
+     * us allocate a huge buffer.
+     *
+     * @param length
+     * @throws IOException
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length <= 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException(String.format("Frame length is not valid: %d", length));
+    }
+}
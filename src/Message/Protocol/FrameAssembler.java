@@ -0,0 +1,90 @@
+package Message.Protocol;
+
+import Message.Parser.Exceptions.MessageIsNotValid;
+import Message.Parser.Exceptions.MessageIsTooLong;
+
+import java.util.Arrays;
+
+/**
+ * Puts the chunks of a long message together (see BinaryProtocol), it's used by both
+ * server and client side, one assembler per connection.
+ * The parts are appended as they are received, and the buffer is released after each
+ * message, so a connection never holds more than maxLength bytes of an incomplete message.
+ * If a message is longer than maxLength, the rest of it's chunks are dropped.
+ * Only the reader of the connection uses it.
+ */
+public class FrameAssembler {
+
+    private static final int INITIAL_SIZE = 2 * BinaryProtocol.CHUNK_SIZE;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int maxLength;
+
+    private byte[] buffer = EMPTY;
+    private int size;
+    private boolean dropping;
+
+    /**
+     * Constructor
+     *
+     * @param maxLength maximum size of a message (type + payload)
+     */
+    public FrameAssembler(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Takes a received frame (type + payload), and returns the complete message frame,
+     * or null if it's a chunk and the message is not complete yet.
+     *
+     * @param frame
+     * @return
+     * @throws MessageIsNotValid if a message is sent in the middle of another one
+     * @throws MessageIsTooLong  if the message is longer than maxLength
+     */
+    public byte[] add(byte[] frame) throws MessageIsNotValid, MessageIsTooLong {
+        byte type = frame[0];
+        if (type != BinaryProtocol.CHUNK && type != BinaryProtocol.LAST_CHUNK) {
+            if (size > 0 || dropping) {
+                reset();
+                throw new MessageIsNotValid("Message is not complete, the received chunks are dropped");
+            }
+            return frame;
+        }
+
+        boolean last = type == BinaryProtocol.LAST_CHUNK;
+        if (dropping) {
+            dropping = !last;
+            return null;
+        }
+
+        int partLength = frame.length - 1;
+        if (size + partLength > maxLength) {
+            reset();
+            dropping = !last;
+            throw new MessageIsTooLong(String.format("Message is longer than %d bytes", maxLength));
+        }
+
+        if (size + partLength > buffer.length)
+            buffer = Arrays.copyOf(buffer,
+                    Math.min(maxLength, Math.max(INITIAL_SIZE, Math.max(size * 2, size + partLength))));
+        System.arraycopy(frame, 1, buffer, size, partLength);
+        size += partLength;
+
+        if (!last)
+            return null;
+        if (size == 0) {
+            reset();
+            throw new MessageIsNotValid("Chunked message is empty");
+        }
+        byte[] message = (size == buffer.length) ? buffer : Arrays.copyOf(buffer, size);
+        reset();
+        return message;
+    }
+
+    private void reset() {
+        buffer = EMPTY;
+        size = 0;
+        dropping = false;
+    }
+}
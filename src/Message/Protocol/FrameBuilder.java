@@ -0,0 +1,140 @@
+package Message.Protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds a frame of the binary protocol (see BinaryProtocol). e.g :
+ * new FrameBuilder(PUBLIC).writeVarInt(senderId).writeText(body).build()
+ */
+public class FrameBuilder {
+
+    private static final int INITIAL_SIZE = 64;
+
+    private byte[] buffer;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     */
+    public FrameBuilder(byte type) {
+        this.buffer = new byte[INITIAL_SIZE];
+        this.buffer[0] = type;
+        this.size = 1;
+    }
+
+    public FrameBuilder writeVarInt(int value) {
+        ensureCapacity(BinaryProtocol.varIntSize(value));
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    public FrameBuilder writeLong(long value) {
+        ensureCapacity(Long.BYTES);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buffer[size++] = (byte) (value >>> shift);
+        return this;
+    }
+
+    /**
+     * Write a string prefixed with it's length.
+     *
+     * @param string
+     * @return
+     */
+    public FrameBuilder writeString(String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        return writeBytes(bytes);
+    }
+
+    /**
+     * Write a string without length, it must be the last field of the frame.
+     *
+     * @param text
+     * @return
+     */
+    public FrameBuilder writeText(String text) {
+        return writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the list of receivers (count + names).
+     *
+     * @param receivers
+     * @return
+     */
+    public FrameBuilder writeReceivers(String[] receivers) {
+        writeVarInt(receivers.length);
+        for (String receiver : receivers)
+            writeString(receiver.trim());
+        return this;
+    }
+
+    /**
+     * Returns the frame with it's length. If it's longer than CHUNK_SIZE, it returns
+     * the chunk frames of the message (one after another).
+     *
+     * @return
+     */
+    public byte[] build() {
+        if (size <= BinaryProtocol.CHUNK_SIZE) {
+            byte[] frame = new byte[BinaryProtocol.varIntSize(size) + size];
+            int index = writeLength(frame, 0, size);
+            System.arraycopy(buffer, 0, frame, index, size);
+            return frame;
+        }
+
+        int chunks = (size + BinaryProtocol.CHUNK_SIZE - 1) / BinaryProtocol.CHUNK_SIZE;
+        int lastChunkSize = size - (chunks - 1) * BinaryProtocol.CHUNK_SIZE;
+        byte[] frames = new byte[size + chunks + (chunks - 1) * BinaryProtocol.varIntSize(BinaryProtocol.CHUNK_SIZE + 1)
+                + BinaryProtocol.varIntSize(lastChunkSize + 1)];
+
+        int index = 0;
+        for (int offset = 0; offset < size; offset += BinaryProtocol.CHUNK_SIZE) {
+            int chunkSize = Math.min(BinaryProtocol.CHUNK_SIZE, size - offset);
+            boolean last = offset + chunkSize == size;
+
+            index = writeLength(frames, index, chunkSize + 1);
+            frames[index++] = last ? BinaryProtocol.LAST_CHUNK : BinaryProtocol.CHUNK;
+            System.arraycopy(buffer, offset, frames, index, chunkSize);
+            index += chunkSize;
+        }
+        return frames;
+    }
+
+    /**
+     * Write the length (varint) of a frame, and returns the index after it.
+     *
+     * @param frame
+     * @param index
+     * @param length
+     * @return
+     */
+    private static int writeLength(byte[] frame, int index, int length) {
+        while ((length & ~0x7F) != 0) {
+            frame[index++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        frame[index++] = (byte) length;
+        return index;
+    }
+
+    private FrameBuilder writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+    }
+}
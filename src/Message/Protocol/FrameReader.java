@@ -0,0 +1,93 @@
+package Message.Protocol;
+
+import Message.Parser.Exceptions.MessageIsNotValid;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of a received frame (type + payload) of the binary protocol.
+ */
+public class FrameReader {
+
+    private final byte[] frame;
+    private int position;
+
+    /**
+     * Constructor.
+     *
+     * @param frame
+     */
+    public FrameReader(byte[] frame) {
+        this.frame = frame;
+        this.position = 1;
+    }
+
+    public byte getType() {
+        return frame[0];
+    }
+
+    public int readVarInt() throws MessageIsNotValid {
+        try {
+            int value = BinaryProtocol.readVarInt(frame, position, frame.length);
+            if (value < 0)
+                throw new MessageIsNotValid("Frame is not complete");
+            position += BinaryProtocol.varIntSize(value);
+            return value;
+        } catch (IOException e) {
+            throw new MessageIsNotValid(e.getMessage());
+        }
+    }
+
+    public long readLong() throws MessageIsNotValid {
+        if (frame.length - position < Long.BYTES)
+            throw new MessageIsNotValid("Frame is not complete");
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++)
+            value = (value << 8) | (frame[position++] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Read a string which is prefixed with it's length.
+     *
+     * @return
+     * @throws MessageIsNotValid
+     */
+    public String readString() throws MessageIsNotValid {
+        int length = readVarInt();
+        if (length > frame.length - position)
+            throw new MessageIsNotValid("Frame is not complete");
+        String string = new String(frame, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return string;
+    }
+
+    /**
+     * Read the rest of the frame as a string.
+     *
+     * @return
+     */
+    public String readText() {
+        String text = new String(frame, position, frame.length - position, StandardCharsets.UTF_8);
+        position = frame.length;
+        return text;
+    }
+
+    /**
+     * Read the list of receivers (count + names).
+     *
+     * @return
+     * @throws MessageIsNotValid
+     */
+    public String[] readReceivers() throws MessageIsNotValid {
+        int count = readVarInt();
+        if (count > frame.length - position)
+            throw new MessageIsNotValid("Receivers list is not valid");
+
+        String[] receivers = new String[count];
+        for (int i = 0; i < count; i++)
+            receivers[i] = readString();
+        return receivers;
+    }
+}
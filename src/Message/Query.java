@@ -0,0 +1,59 @@
+package Message;
+
+/**
+ * Parameters of the history and search commands (see StaticMessages.HISTORY and StaticMessages.SEARCH),
+ * the command itself is the body of it's message.
+ */
+public class Query {
+    private final long beforeSequence;
+    private final long beforeTime;
+    private final long limit;
+    private final String words;
+
+    /**
+     * A page of the history, the last messages which are before the sequence number and the time.
+     *
+     * @param beforeSequence Long.MAX_VALUE means the last message
+     * @param beforeTime     milliseconds since epoch, Long.MAX_VALUE means now
+     * @param limit          maximum number of the messages, Long.MAX_VALUE means the server's page size
+     */
+    public Query(long beforeSequence, long beforeTime, long limit) {
+        this(beforeSequence, beforeTime, limit, "");
+    }
+
+    /**
+     * The messages which have all of the words.
+     *
+     * @param words
+     */
+    public Query(String words) {
+        this(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, words);
+    }
+
+    private Query(long beforeSequence, long beforeTime, long limit, String words) {
+        this.beforeSequence = beforeSequence;
+        this.beforeTime = beforeTime;
+        this.limit = limit;
+        this.words = words;
+    }
+
+    /*
+    list of getters
+     */
+
+    public long getBeforeSequence() {
+        return beforeSequence;
+    }
+
+    public long getBeforeTime() {
+        return beforeTime;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public String getWords() {
+        return words;
+    }
+}
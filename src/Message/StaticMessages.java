@@ -9,6 +9,14 @@ public class StaticMessages {
     public static final String GET_USERS_LIST = "Please send the list of attendees.";
     public static final String SIGN_OUT = "Bye.";
     public static final String DOWNLOAD = "Download";
+    public static final String RANGE = "range<";
+    public static final String HASH = "sha256<";
+    public static final String SEQUENCE = "seq=";
+    public static final String HISTORY = "History";
+    public static final String BEFORE = "before<";
+    public static final String TIME = "time<";
+    public static final String LIMIT = "limit<";
+    public static final String SEARCH = "Search";
     public static final String PUBLIC_MESSAGE = "Public message";
     public static final String PRIVATE_MESSAGE = "Private message";
     public static final String SERVER_MESSAGE = "Server message";
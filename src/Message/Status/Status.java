@@ -8,6 +8,11 @@ public class Status {
     public static final String HANDSHAKE_ACCEPTED = "201";
     public static final String LIST_PASSED = "202";
     public static final String READY_TO_GET_FILE = "203";
+    public static final String HISTORY_PASSED = "204";
+    public static final String PRIVATE_MESSAGE_IS_STORED = "205";
+    public static final String SEARCH_PASSED = "206";
+    public static final String FILE_ALREADY_EXISTS = "207";
+    public static final String FILE_PROOF_REQUIRED = "208";
     public static final String LOG_OUT = "301";
     public static final String USER_LOGOUT = "302";
     public static final String HANDSHAKE_REJECTED = "400";
@@ -0,0 +1,133 @@
+package Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs it's tasks on another executor, but only lets a limited number of them
+ * run at the same time. the other tasks wait (on their own thread) for a permit,
+ * so it's meant to be used with cheap (virtual) threads.
+ * The other executor is shared by many of them, so shutting down a bounded executor only
+ * stops it's own tasks (the other executor is never shut down by it).
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+
+    private int tasks = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Constructor.
+     *
+     * @param executor
+     * @param maxConcurrentTasks
+     */
+    public BoundedExecutor(ExecutorService executor, int maxConcurrentTasks) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrentTasks, true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (lock) {
+            if (shutdown)
+                throw new RejectedExecutionException("Executor is shut down");
+            tasks++;
+        }
+        try {
+            executor.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            finished();
+            throw e;
+        }
+    }
+
+    /**
+     * New tasks are rejected, the submitted ones are still run.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * New tasks are rejected and the submitted ones are interrupted (the waiting ones are not run).
+     * The waiting tasks are not returned, they are already given to the other executor.
+     *
+     * @return
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Thread worker : workers)
+            worker.interrupt();
+        return new ArrayList<>();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (lock) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (lock) {
+            return shutdown && tasks == 0;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!(shutdown && tasks == 0)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    private void run(Runnable task) {
+        Thread worker = Thread.currentThread();
+        workers.add(worker);
+        try {
+            permits.acquire();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            worker.interrupt();
+        } finally {
+            workers.remove(worker);
+            finished();
+        }
+    }
+
+    private void finished() {
+        synchronized (lock) {
+            if (--tasks == 0)
+                lock.notifyAll();
+        }
+    }
+}
@@ -2,74 +2,213 @@ package Server;
 
 import Server.Exceptions.ReceivingFromClientWasFailed;
 import Server.Exceptions.SendingToClientWasFailed;
+import Server.Network.Frame;
+import Server.Network.OutboundQueue;
+import Server.Network.Packet;
+import Server.Network.Transport;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static Message.Protocol.BinaryProtocol.TEXT_PROTOCOL;
 
 public class Client {
 
     private final Server server;
-    private final ServerSocket fileDownloaderSocket;
-    private final Socket clientSocket;
-
-    private final DataOutputStream toClient;
-    private final DataInputStream fromClient;
+    private final Transport transport;
+    private final OutboundQueue outboundQueue;
 
     private String userName;
+    private volatile int protocol = TEXT_PROTOCOL;
+    private volatile List<Frame> heldFrames;
 
     /**
      * Constructor. It holds all fields about a client.
      *
      * @param server
-     * @param clientSocket
-     * @param fileDownloaderSocket
-     * @throws IOException
+     * @param transport
      */
-    public Client(Server server, Socket clientSocket, ServerSocket fileDownloaderSocket) throws IOException {
+    public Client(Server server, Transport transport) {
         this.server = server;
-        this.clientSocket = clientSocket;
-        this.fileDownloaderSocket = fileDownloaderSocket;
-        this.toClient = new DataOutputStream(clientSocket.getOutputStream());
-        this.fromClient = new DataInputStream(clientSocket.getInputStream());
+        this.transport = transport;
 
+        ServerConfiguration configuration = server.getConfiguration();
+        this.outboundQueue = new OutboundQueue(transport, server.getOutboundExecutor(),
+                configuration.getOutboundQueueSize(), configuration.getOverflowPolicy(),
+                configuration.getOutboundTimeout(), configuration.getFlushDelay());
     }
 
     /**
-     * Takes a message (Built by ServerMessageBuilder) and tries to send it to the client socket.
+     * Takes a message (Built by ServerMessageBuilder) and puts it in the client outbound queue,
+     * the message will be sent to the client socket by the queue writer.
      *
      * @param message
      * @throws SendingToClientWasFailed
      */
     public void sendMessageToClient(String message) throws SendingToClientWasFailed {
+        sendMessageToClient(Frame.of(message));
+    }
+
+    /**
+     * Takes an already encoded message and puts it in the client outbound queue.
+     * The same frame can be sent to many clients (e.g. broad cast).
+     * Messages which are longer than 64KB can't be sent to the text protocol clients.
+     *
+     * @param frame
+     * @throws SendingToClientWasFailed
+     */
+    public void sendMessageToClient(Frame frame) throws SendingToClientWasFailed {
+        if (!trySendMessageToClient(frame))
+            awaitDelivery();
+    }
+
+    /**
+     * Returns true if the message can be sent to the client, messages which are longer than 64KB can't be sent to
+     * the text protocol clients.
+     *
+     * @param frame
+     * @return
+     */
+    public boolean canReceive(Frame frame) {
+        return protocol != TEXT_PROTOCOL || frame.hasText();
+    }
+
+    /**
+     * Same as sendMessageToClient, but it doesn't wait if the outbound queue is full, it returns false then
+     * and awaitDelivery must be called (see OutboundQueue.trySend).
+     *
+     * @param frame
+     * @return
+     * @throws SendingToClientWasFailed
+     */
+    private boolean trySendMessageToClient(Frame frame) throws SendingToClientWasFailed {
+        if (!canReceive(frame))
+            throw new SendingToClientWasFailed(String.format("Message is too long for the text protocol of" +
+                    " client [%s]!", transport.getInfo()));
         try {
-            toClient.writeUTF(message);
-            toClient.flush();
+            boolean queued = outboundQueue.trySend(frame);
+            // Control messages go before the file transfers (see BandwidthScheduler).
+            server.getBandwidthScheduler().control(frame.size());
+            return queued;
+        } catch (IOException e) {
+            throw sendingFailed();
+        }
+    }
+
+    /**
+     * Takes a message which is routed to this client (e.g. broad cast), it's sent like sendMessageToClient,
+     * unless the live messages are held (see holdLiveMessages).
+     * It doesn't wait for space in the outbound queue, so it can be called by the routing lock of the server.
+     * If it returns false, the message is waiting for space and awaitDelivery must be called (without the lock).
+     *
+     * @param frame
+     * @return
+     * @throws SendingToClientWasFailed
+     */
+    public boolean deliver(Frame frame) throws SendingToClientWasFailed {
+        if (Optional.ofNullable(heldFrames).isPresent()) {
+            synchronized (this) {
+                if (Optional.ofNullable(heldFrames).isPresent()) {
+                    heldFrames.add(frame);
+                    return true;
+                }
+            }
+        }
+        return trySendMessageToClient(frame);
+    }
 
+    /**
+     * Wait till the delivered messages which are waiting for space are in the outbound queue (see deliver).
+     *
+     * @throws SendingToClientWasFailed
+     */
+    public void awaitDelivery() throws SendingToClientWasFailed {
+        try {
+            outboundQueue.awaitSpace();
         } catch (IOException e) {
-            throw new SendingToClientWasFailed(String.format("Sending message to client [%s] was not successful!",
-                    Server.getClientInfo(clientSocket)));
+            throw sendingFailed();
         }
     }
 
+    private SendingToClientWasFailed sendingFailed() {
+        return new SendingToClientWasFailed(String.format("Sending message to client [%s] was not successful!",
+                transport.getInfo()));
+    }
+
+    /**
+     * The routed messages are held till releaseLiveMessages, so the handshake response (and the missed messages
+     * of a reconnecting client) can be sent before them. It must be called before the client is added to the server.
+     */
+    public synchronized void holdLiveMessages() {
+        heldFrames = new ArrayList<>();
+    }
+
+    /**
+     * Send the held messages and switch to live delivery. The held chat messages which are already sent
+     * from the history are skipped, and so are the ones which are too long for the client (see canReceive), a
+     * live one would be rejected too.
+     *
+     * @param sentSequence sequence number of the last message which is sent from the history
+     * @throws SendingToClientWasFailed
+     */
+    public synchronized void releaseLiveMessages(long sentSequence) throws SendingToClientWasFailed {
+        List<Frame> frames = heldFrames;
+        heldFrames = null;
+        if (!Optional.ofNullable(frames).isPresent())
+            return;
+        for (Frame frame : frames)
+            if ((frame.getSequence() == 0 || frame.getSequence() > sentSequence) && canReceive(frame))
+                sendMessageToClient(frame);
+    }
+
+    /**
+     * Send the handshake response which accepts the requested protocol (see BinaryProtocol).
+     * The response itself is sent with the text protocol, and the next messages (in both
+     * directions) use the accepted protocol.
+     * Only the reader of the client calls it, before receiving the next message.
+     *
+     * @param response
+     * @param protocol
+     * @param sequences true if the client wants the sequence numbers of the chat messages
+     * @throws SendingToClientWasFailed
+     */
+    public void acceptProtocol(String response, int protocol, boolean sequences) throws SendingToClientWasFailed {
+        sendMessageToClient(Frame.upgrade(response, protocol, sequences));
+        this.protocol = protocol;
+        transport.upgradeInbound(protocol);
+    }
+
     /**
      * It tries to receive a message from client.
      *
      * @return
      * @throws ReceivingFromClientWasFailed
      */
-    public String receiveMessageFromClient() throws ReceivingFromClientWasFailed {
+    public Packet receiveMessageFromClient() throws ReceivingFromClientWasFailed {
         try {
-            return fromClient.readUTF();
+            return transport.receive();
         } catch (IOException e) {
             throw new ReceivingFromClientWasFailed(String.format("Receiving message from client [%s] was" +
                             " not successful!",
-                    Server.getClientInfo(clientSocket)));
+                    transport.getInfo()));
         }
     }
 
+    /**
+     * Stop handling the next messages of the client till resumeReading (see Transport.suspendReading).
+     */
+    public void suspendReading() {
+        transport.suspendReading();
+    }
+
+    /**
+     * Continue handling the messages of the client.
+     */
+    public void resumeReading() {
+        transport.resumeReading();
+    }
 
     /**
      * It close the client socket and call disconnectClient from server class.
@@ -79,26 +218,24 @@ public class Client {
      * @throws IOException
      */
     public void disconnectClient() throws IOException {
-        clientSocket.close();
+        closeConnection();
         server.disconnectClient(userName);
     }
 
     /**
-     * Return server object.
-     *
-     * @return
+     * Close the client socket after sending the queued messages.
      */
-    public Server getServer() {
-        return server;
+    public void closeConnection() {
+        outboundQueue.close();
     }
 
     /**
-     * Return file downloader service socket
+     * Return server object.
      *
      * @return
      */
-    public ServerSocket getFileDownloaderSocket() {
-        return fileDownloaderSocket;
+    public Server getServer() {
+        return server;
     }
 
     /**
@@ -107,7 +244,7 @@ public class Client {
      * @return
      */
     public String getIP() {
-        return clientSocket.getInetAddress().getHostAddress();
+        return transport.getAddress().getHostAddress();
     }
 
     /**
@@ -0,0 +1,61 @@
+package Server.FileSharing;
+
+import Transfer.FileTransfer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the bandwidth of the server between the file transfers (ServerFileDownloader and
+ * ServerFileUploader). Each user has a token bucket (server.userRate) which is shared by all of
+ * it's transfers, and all of the transfers share the global bucket (server.globalRate), see TokenBucket.
+ * The control messages (chat) have priority : they never wait, but their bytes are taken from the
+ * global bucket, so the transfers leave room for them.
+ * A rate of 0 means unlimited.
+ */
+public class BandwidthScheduler {
+
+    private final TokenBucket global;
+    private final long userRate;
+    private final Map<String, TokenBucket> users = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param globalRate bytes per second of all of the transfers, 0 means unlimited
+     * @param userRate   bytes per second of the transfers of each user, 0 means unlimited
+     */
+    public BandwidthScheduler(long globalRate, long userRate) {
+        this.global = (globalRate > 0) ? new TokenBucket(globalRate) : null;
+        this.userRate = userRate;
+    }
+
+    /**
+     * Returns the throttle of a transfer of the user.
+     *
+     * @param userName
+     * @return
+     */
+    public FileTransfer.Throttle throttle(String userName) {
+        if (userRate <= 0)
+            return (global == null) ? FileTransfer.Throttle.NONE : global::acquire;
+
+        TokenBucket user = users.computeIfAbsent(userName, name -> new TokenBucket(userRate));
+        return bytes -> {
+            long granted = user.acquire(bytes);
+            if (global != null)
+                global.acquireAll(granted);
+            return granted;
+        };
+    }
+
+    /**
+     * A control message is sent, it takes it's bytes from the global bucket without waiting.
+     *
+     * @param bytes
+     */
+    public void control(long bytes) {
+        if (global != null)
+            global.take(bytes);
+    }
+}
@@ -0,0 +1,331 @@
+package Server.FileSharing;
+
+import Transfer.FileHash;
+import Transfer.FileTransfer;
+import Transfer.ParallelTransfer;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed store of the shared files. Each content is stored once in a blob, named by it's hash
+ * (see FileHash) : "DownloadedFiles/.blobs/ab/abcd..." , and the file names of the users
+ * ("DownloadedFiles/UserName/file") are hard links to the blobs. So a file which is sent by ten users
+ * is stored once, and the file names are still readable like normal files (see ServerFileUploader).
+ * If a user sends another content with a name which is already used, it's stored with a new name
+ * (e.g "report (2).pdf"), so the previous file is not overwritten.
+ * A client which tells the hash of a stored content gets it without uploading only if it proves that it has the
+ * content : it sends a random range of the file, which must match the blob (see proofRange and proves), so knowing
+ * a hash is not enough to get the content of the others.
+ * In relay mode, the name of an upload is reserved when it starts (the file is announced before it's
+ * complete), and the uploading file can be read as a LiveFile till it's stored.
+ */
+public class FileStore {
+
+    private static final String BLOBS = ".blobs";
+    private static final long PROOF_LENGTH = 64 * 1024;
+
+    private final File root;
+    private final Set<File> reservedFiles = new HashSet<>();
+    private final Map<File, LiveFile> liveFiles = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Logger logger;
+
+    /**
+     * Constructor.
+     *
+     * @param root the shared files folder (DownloadedFiles)
+     */
+    public FileStore(File root) {
+        this.root = root;
+        this.logger = Logger.getLogger(FileStore.class.getName());
+    }
+
+    /**
+     * Returns the file of the user with the given name. "DownloadedFiles/UserName/file"
+     *
+     * @param userName
+     * @param fileName
+     * @return
+     */
+    public File file(String userName, String fileName) {
+        return new File(new File(root, userName), fileName);
+    }
+
+    /**
+     * Returns the part file which the file of the user is received in (see FileTransfer),
+     * it makes the folder of the user if it doesn't exist.
+     *
+     * @param userName
+     * @param fileName
+     * @return
+     * @throws SecurityException
+     */
+    public File partFile(String userName, String fileName) throws SecurityException {
+        File file = file(userName, fileName);
+        file.getParentFile().mkdirs();
+        return FileTransfer.partFile(file);
+    }
+
+    /**
+     * Returns the blob of the hash.
+     *
+     * @param hash
+     * @return
+     */
+    public File blob(String hash) {
+        return new File(new File(new File(root, BLOBS), hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Returns true if the content of the hash is already stored.
+     *
+     * @param hash
+     * @param length length of the content, so a wrong length is not accepted
+     * @return
+     */
+    public boolean contains(String hash, long length) {
+        File blob = blob(hash);
+        return blob.isFile() && blob.length() == length;
+    }
+
+    /**
+     * Returns a random range of a content with the given length, which the client must send to prove that it has
+     * the content (see proves). It's unknown to the client till it's asked.
+     *
+     * @param length
+     * @return
+     */
+    public ParallelTransfer.Range proofRange(long length) {
+        long rangeLength = Math.min(PROOF_LENGTH, length);
+        long position = (long) (random.nextDouble() * (length - rangeLength + 1));
+        return new ParallelTransfer.Range(Math.min(position, length - rangeLength), rangeLength);
+    }
+
+    /**
+     * Returns true if the received range (from the start of the proof file) matches the
+     * stored content of the hash.
+     *
+     * @param hash
+     * @param proof the file which the range is received in
+     * @param range
+     * @return
+     * @throws IOException
+     */
+    public boolean proves(String hash, FileChannel proof, ParallelTransfer.Range range) throws IOException {
+        ByteBuffer expected = ByteBuffer.allocate((int) range.getLength());
+        ByteBuffer received = ByteBuffer.allocate((int) range.getLength());
+        try (FileChannel blobChannel = new RandomAccessFile(blob(hash), "r").getChannel()) {
+            readFully(blobChannel, expected, range.getPosition());
+        }
+        readFully(proof, received, 0);
+        return expected.equals(received);
+    }
+
+    /**
+     * Add a completely received part file to the store, and give it the name of the user.
+     * The hash of the content is computed from the part file, if the sender told it's hash,
+     * the content must match it (otherwise the part file is thrown away).
+     *
+     * @param partFile
+     * @param userName
+     * @param fileName
+     * @param expectedHash the hash which the sender told, or null
+     * @return the stored name of the file
+     * @throws IOException
+     */
+    public String add(File partFile, String userName, String fileName, String expectedHash) throws IOException {
+        String hash;
+        try (FileChannel fileChannel = new RandomAccessFile(partFile, "r").getChannel()) {
+            hash = FileHash.of(fileChannel);
+        }
+        if (expectedHash != null && !expectedHash.equals(hash)) {
+            FileTransfer.discard(partFile);
+            throw new IOException(String.format("Content of %s doesn't match it's hash!", fileName));
+        }
+
+        File blob = blob(hash);
+        synchronized (this) {
+            // The same content may be received from the others at the same time, so one of them is kept.
+            if (blob.isFile()) {
+                FileTransfer.discard(partFile);
+            } else {
+                blob.getParentFile().mkdirs();
+                FileTransfer.commit(partFile, blob);
+            }
+        }
+        return link(hash, userName, fileName);
+    }
+
+    /**
+     * Give a name of the user to a stored content. If the name is used by another content,
+     * it picks the next free name (e.g "report (2).pdf"), unless the name was reserved for it.
+     *
+     * @param hash
+     * @param userName
+     * @param fileName
+     * @return the stored name of the file
+     * @throws IOException
+     */
+    public synchronized String link(String hash, String userName, String fileName) throws IOException {
+        File blob = blob(hash);
+        File file = file(userName, fileName);
+        if (!reservedFiles.remove(file))
+            file = freeFile(hash, userName, fileName);
+        if (file.exists())
+            return file.getName();
+        file.getParentFile().mkdirs();
+
+        try {
+            Files.createLink(file.toPath(), blob.toPath());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Some file systems don't have hard links, so the content is stored twice.
+            logger.debug(String.format("Hard link of %s is not possible, it's copied: %s", file.getName(), e));
+            Files.copy(blob.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file.getName();
+    }
+
+    /**
+     * Reserve the name which the content is going to be stored with (see link), before receiving it.
+     * The reserved name is given to the content by link or add, or it's freed by release.
+     *
+     * @param hash
+     * @param userName
+     * @param fileName
+     * @return the reserved name
+     * @throws IOException
+     */
+    public synchronized String reserve(String hash, String userName, String fileName) throws IOException {
+        File file = freeFile(hash, userName, fileName);
+        if (!file.exists())
+            reservedFiles.add(file);
+        return file.getName();
+    }
+
+    /**
+     * Free a reserved name, the upload of it's content failed.
+     *
+     * @param userName
+     * @param fileName
+     */
+    public synchronized void release(String userName, String fileName) {
+        reservedFiles.remove(file(userName, fileName));
+    }
+
+    /**
+     * The file of the user is being uploaded, and it's readable as the live file till it's removed.
+     *
+     * @param userName
+     * @param fileName
+     * @param liveFile
+     */
+    public void addLiveFile(String userName, String fileName, LiveFile liveFile) {
+        liveFiles.put(file(userName, fileName), liveFile);
+    }
+
+    /**
+     * The upload of the file is finished (or failed).
+     *
+     * @param userName
+     * @param fileName
+     */
+    public void removeLiveFile(String userName, String fileName) {
+        liveFiles.remove(file(userName, fileName));
+    }
+
+    /**
+     * Returns the live file of the user with the given name (see LiveFile.acquire),
+     * or null if it's not being uploaded.
+     *
+     * @param userName
+     * @param fileName
+     * @return
+     */
+    public LiveFile acquireLiveFile(String userName, String fileName) {
+        LiveFile liveFile = liveFiles.get(file(userName, fileName));
+        return (Optional.ofNullable(liveFile).isPresent() && liveFile.acquire()) ? liveFile : null;
+    }
+
+    /**
+     * Returns the file which the content can get from the given name : the file which already has the
+     * content, or the first name which is not used or reserved (e.g "report (2).pdf").
+     *
+     * @param hash
+     * @param userName
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    private File freeFile(String hash, String userName, String fileName) throws IOException {
+        File blob = blob(hash);
+        File file = file(userName, fileName);
+        for (int copy = 2; file.exists() || reservedFiles.contains(file); copy++) {
+            if (file.exists() && blob.isFile() && sameContent(file, blob, hash))
+                return file;
+            file = file(userName, copyName(fileName, copy));
+        }
+        return file;
+    }
+
+    /**
+     * Read the file from the position till the buffer is full (or the file ends), and flip the buffer.
+     *
+     * @param fileChannel
+     * @param buffer
+     * @param position
+     * @throws IOException
+     */
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        for (int read = 0; buffer.hasRemaining() && read != -1; position += Math.max(read, 0))
+            read = fileChannel.read(buffer, position);
+        buffer.flip();
+    }
+
+    /**
+     * Returns true if the file has the content of the blob. The files which are not
+     * linked to the blob (e.g the files before the store), are compared by their hash.
+     *
+     * @param file
+     * @param blob
+     * @param hash
+     * @return
+     * @throws IOException
+     */
+    private static boolean sameContent(File file, File blob, String hash) throws IOException {
+        if (Files.isSameFile(file.toPath(), blob.toPath()))
+            return true;
+        if (file.length() != blob.length())
+            return false;
+        try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+            return hash.equals(FileHash.of(fileChannel));
+        }
+    }
+
+    /**
+     * Returns the name of a copy. e.g : ("report.pdf", 2) -> "report (2).pdf"
+     *
+     * @param fileName
+     * @param copy
+     * @return
+     */
+    private static String copyName(String fileName, int copy) {
+        int extension = fileName.lastIndexOf('.');
+        if (extension <= 0)
+            return String.format("%s (%d)", fileName, copy);
+        return String.format("%s (%d)%s", fileName.substring(0, extension), copy, fileName.substring(extension));
+    }
+}
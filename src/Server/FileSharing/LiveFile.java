@@ -0,0 +1,203 @@
+package Server.FileSharing;
+
+import Transfer.FileTransfer;
+import Transfer.ParallelTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A file which is still being uploaded, in relay mode (server.relay) it's announced before it's complete,
+ * and the receivers get it's bytes as soon as they are written to the part file (see ServerFileUploader).
+ * It knows how many bytes of each range are received, so the readers wait only till the bytes which they
+ * need are received. The part file is opened once for all of the readers, so it's still readable after
+ * the upload moves it to the store (see FileStore).
+ * The content is verified (it's hash) only after the whole file is received, so the readers send the last byte
+ * of their range after that (see awaitVerified), and a receiver never gets the whole of a wrong file.
+ */
+public class LiveFile {
+
+    private final FileChannel fileChannel;
+    private final String fileName;
+    private final long length;
+    private final List<ParallelTransfer.Range> ranges;
+    private final long[] received;
+
+    private long available;
+    private boolean complete = false;
+    private boolean verified = false;
+    private String failure;
+    private int users = 1;
+
+    /**
+     * Constructor, the upload is the first user of the file (see release).
+     *
+     * @param partFile
+     * @param fileName
+     * @param length   length of the whole file
+     * @param offset   bytes which are already in the part file (resumed upload)
+     * @param ranges   the ranges which are going to be received, in order
+     * @throws IOException
+     */
+    public LiveFile(File partFile, String fileName, long length, long offset, List<ParallelTransfer.Range> ranges)
+            throws IOException {
+        this.fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.READ);
+        this.fileName = fileName;
+        this.length = length;
+        this.ranges = ranges;
+        this.received = new long[ranges.size()];
+        this.available = offset;
+    }
+
+    /**
+     * Returns the progress of one of the ranges, it's given to the receiver of that range.
+     *
+     * @param range index of the range
+     * @return
+     */
+    public FileTransfer.Progress progress(int range) {
+        return bytes -> advance(range, bytes);
+    }
+
+    /**
+     * Wait till the file has more bytes than the position, and returns the number of available bytes
+     * (from the start of the file).
+     *
+     * @param position
+     * @param timeout  milliseconds, maximum waiting time without receiving anything
+     * @return
+     * @throws IOException if the upload failed or stalled
+     */
+    public synchronized long await(long position, long timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (available <= position && !complete && failure == null) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline)
+                throw new IOException(String.format("Upload of %s is stalled!", fileName));
+            try {
+                wait(deadline - now);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+        if (failure != null)
+            throw new IOException(String.format("Upload of %s failed: %s", fileName, failure));
+        return available;
+    }
+
+    /**
+     * Wait till the upload is verified and stored (see verified). The timeout is the maximum waiting time
+     * without receiving anything, like await.
+     *
+     * @param timeout milliseconds
+     * @throws IOException if the upload failed (e.g. it's hash didn't match) or stalled
+     */
+    public synchronized void awaitVerified(long timeout) throws IOException {
+        long seen = available;
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!verified && failure == null) {
+            long now = System.currentTimeMillis();
+            if (available != seen) {
+                seen = available;
+                deadline = now + timeout;
+            }
+            if (now >= deadline)
+                throw new IOException(String.format("Upload of %s is stalled!", fileName));
+            try {
+                wait(deadline - now);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+        if (failure != null)
+            throw new IOException(String.format("Upload of %s failed: %s", fileName, failure));
+    }
+
+    /**
+     * The whole file is received.
+     */
+    public synchronized void complete() {
+        available = length;
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * The received file matched it's hash, and it's stored.
+     */
+    public synchronized void verified() {
+        verified = true;
+        notifyAll();
+    }
+
+    /**
+     * The upload failed, the waiting readers get the failure.
+     *
+     * @param reason
+     */
+    public synchronized void fail(String reason) {
+        failure = reason;
+        notifyAll();
+    }
+
+    /**
+     * A new reader starts reading the file, it returns false if the file is closed.
+     * Each reader must release it at the end.
+     *
+     * @return
+     */
+    public synchronized boolean acquire() {
+        if (users == 0)
+            return false;
+        users++;
+        return true;
+    }
+
+    /**
+     * A reader (or the upload) is done, the file is closed after the last one.
+     *
+     * @throws IOException
+     */
+    public synchronized void release() throws IOException {
+        if (--users == 0)
+            fileChannel.close();
+    }
+
+    /**
+     * The part file, for reading. Reads must not be after the available bytes.
+     *
+     * @return
+     */
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Count the received bytes of the range, the file is available till the first range
+     * which is not complete.
+     *
+     * @param range
+     * @param bytes
+     */
+    private synchronized void advance(int range, long bytes) {
+        received[range] += bytes;
+        long end = ranges.get(0).getPosition();
+        for (int i = 0; i < ranges.size(); i++) {
+            end += received[i];
+            if (received[i] < ranges.get(i).getLength())
+                break;
+        }
+        if (end > available) {
+            available = end;
+            notifyAll();
+        }
+    }
+}
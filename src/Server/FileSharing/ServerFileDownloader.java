@@ -2,27 +2,49 @@ package Server.FileSharing;
 
 import Message.Message;
 import Server.Client;
+import Server.Exceptions.SendingToClientWasFailed;
 import Server.ServerMessageBuilder;
 import Server.ServerWorker;
+import Transfer.Compression;
+import Transfer.Exceptions.TransferWasIncomplete;
+import Transfer.FileSync;
+import Transfer.FileTransfer;
+import Transfer.ParallelTransfer;
+import Transfer.TransferStats;
 import org.apache.log4j.Logger;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 import static Message.MessageTypes.PUBLIC_DATA;
+import static Message.Status.Status.FILE_ALREADY_EXISTS;
 
 /**
  * This service is going to download the specific file
- * form the client. for this, it makes a Server socket (ONT SERVER PORT + 1 [E.G 15001] and wait
- * till the client file uploader connect to it, then receive it
- * from client and save it to the server system's.
+ * form the client. for this, it sends a transfer token to the client (READY_TO_GET_FILE) and wait
+ * till the client file uploader connect to the file sharing socket (SERVER PORT + 1 [E.G 15001])
+ * with that token (see TransferRegistry), then receive it from client and save it to the server system's.
+ * The data is moved from the socket to the file directly (see FileTransfer) or in compressed blocks
+ * (server.compression, see Compression), and the file is durable before the receivers are told
+ * about it (see FileSync).
+ * The file is received in a part file, so an interrupted upload is resumed from it's last
+ * received byte (the offset is sent with the transfer token).
+ * Large files can be received over several data connections at the same time (server.transferStreams),
+ * and the rate of the transfer is limited by the BandwidthScheduler.
+ * The received file is added to the content addressed store (see FileStore). If the client sent the
+ * content hash and the server already has that content, the client only proves that it has the content by
+ * sending a random range of it (FILE_PROOF_REQUIRED), and nothing else is uploaded (FILE_ALREADY_EXISTS).
+ * If the range doesn't match, the whole file is uploaded like the others.
+ * In relay mode (server.relay), the file is announced as soon as the upload starts, and the receivers
+ * get it's bytes while it's being received (see LiveFile).
  */
 public class ServerFileDownloader implements Runnable {
 
-    private final int BUFFER_SIZE = 4096;
+    private static final String PROOF_SUFFIX = ".proof";
 
     private final ServerWorker serverWorker;
     private final Client client;
@@ -46,82 +68,185 @@ public class ServerFileDownloader implements Runnable {
 
     @Override
     public void run() {
+        FileStore fileStore = client.getServer().getFileStore();
+        String relayName = null;
+        LiveFile liveFile = null;
         try {
-            File file = buildDestFile();
-
-            //If file exits, we remove it.
-            if (file.exists())
-                file.delete();
-
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rws");
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-
             long fileLength = message.getLength();
+            String hash = message.getHash();
+            File partFile = fileStore.partFile(message.getSender(), message.getBody());
+
+            //The same content is already stored, so only the name is given to it (if the client has it).
+            if (hash != null && fileStore.contains(hash, fileLength) && proves(fileStore, hash, partFile)) {
+                String fileName = fileStore.link(hash, message.getSender(), message.getBody());
+                FileTransfer.discard(partFile);
+                client.sendMessageToClient(ServerMessageBuilder.responseBuilder(FILE_ALREADY_EXISTS,
+                        message.getBody()));
+                logger.debug(String.format("%s of %s is already stored, upload is skipped.", fileName,
+                        message.getSender()));
+                announce(fileName, fileLength);
+                return;
+            }
 
-            int loopLimit = (int) (fileLength / BUFFER_SIZE);
-
+            //If the previous upload of this file was interrupted, it continues from the last received byte.
+            long offset = FileTransfer.resumeOffset(partFile, fileLength);
+            FileSync fileSync = client.getServer().getConfiguration().getFileSync();
+            TransferRegistry registry = client.getServer().getTransferRegistry();
+            int timeout = client.getServer().getConfiguration().getTransferTimeout();
+            Compression compression = client.getServer().getConfiguration().getCompression();
+            FileTransfer.Throttle throttle = client.getServer().getBandwidthScheduler().throttle(message.getSender());
+
+            //In relay mode the name is reserved now, because the file is announced before it's complete.
+            if (client.getServer().getConfiguration().isRelay() && hash != null)
+                relayName = fileStore.reserve(hash, message.getSender(), message.getBody());
+
+            //Large files are received over parallel data connections, each one has a token and a range.
+            int streams = serverWorker.acquireStreams(fileLength - offset);
+            TransferStats stats;
             logger.debug("Waiting for client");
-            Socket senderSocket = client.getFileDownloaderSocket().accept();
-            logger.debug("Client Connected :" + Server.Server.getClientInfo(senderSocket));
-            DataInputStream fromSender = new DataInputStream(senderSocket.getInputStream());
-
-            for (int i = 0; i < loopLimit; i++) {
-                fromSender.read(buffer);
-                randomAccessFile.write(buffer);
-                randomAccessFile.skipBytes(BUFFER_SIZE);
+            try (FileChannel fileChannel = fileSync.open(partFile)) {
+                if (streams > 1)
+                    FileTransfer.reserve(partFile, fileChannel, offset, fileLength);
+
+                List<ParallelTransfer.Range> ranges = ParallelTransfer.split(offset, fileLength - offset, streams);
+                if (relayName != null) {
+                    liveFile = new LiveFile(partFile, relayName, fileLength, offset, ranges);
+                    fileStore.addLiveFile(message.getSender(), relayName, liveFile);
+                }
+
+                ParallelTransfer transfer = new ParallelTransfer(client.getServer().getStreamExecutor());
+                for (int i = 0; i < ranges.size(); i++) {
+                    ParallelTransfer.Range range = ranges.get(i);
+                    FileTransfer.Progress progress = (liveFile != null) ? liveFile.progress(i) :
+                            FileTransfer.Progress.NONE;
+                    String token = registry.register();
+                    client.sendMessageToClient(ServerMessageBuilder.transferReadyMessage(token, range.getPosition(),
+                            range.getLength(), message.getBody()));
+                    transfer.add(range, (position, length) -> {
+                        try (Socket senderSocket = registry.await(token, timeout)) {
+                            logger.debug("Client Connected :" + Server.Server.getClientInfo(senderSocket));
+                            return compression.accept(senderSocket.getChannel()).receive(senderSocket.getChannel(),
+                                    fileChannel, position, length, progress, throttle);
+                        }
+                    });
+                }
+
+                if (liveFile != null)
+                    announce(relayName, fileLength);
+
+                try {
+                    stats = transfer.run();
+                } catch (TransferWasIncomplete e) {
+                    //The ranges after the failed one may have gaps, so only the complete part is kept for resuming.
+                    FileTransfer.truncate(partFile, fileChannel, e.getCompleteLength());
+                    throw e;
+                }
+                fileSync.complete(fileChannel);
+            } finally {
+                serverWorker.releaseStreams(streams);
             }
-
-
-            buffer = new byte[(int) (fileLength - loopLimit * BUFFER_SIZE)];
-
-            if (fromSender.read(buffer) != -1)
-                randomAccessFile.write(buffer);
-
-
-            randomAccessFile.close();
-
-            logger.debug("File downloaded completely!");
-            logger.debug(String.format("File Saved at : %s", file.getAbsolutePath()));
-
-            if (message.getType() == PUBLIC_DATA)
-                client.getServer().broadCastMessage(ServerMessageBuilder.publicFileSendMessage(
-                        message.getSender(),
-                        message.getBody(),
-                        fileLength
-                ));
-
-            else
-                client.getServer().sendPrivateMessage(ServerMessageBuilder.privateFileSendMessage(
-                        message.getSender(),
-                        message.getBody(),
-                        fileLength,
-                        message.getReceivers()
-                ), message.getReceivers());
-
-
-        } catch (SecurityException | IOException e) {
+            if (liveFile != null)
+                liveFile.complete();
+
+            //An incomplete file must not be served to the others, so it's stored only after receiving all of it.
+            String fileName = fileStore.add(partFile, message.getSender(),
+                    (relayName != null) ? relayName : message.getBody(), hash);
+            //The relayed readers finish their ranges now, they fail if the content didn't match it's hash.
+            if (liveFile != null)
+                liveFile.verified();
+
+            logger.debug(String.format("File downloaded completely! %s (from byte %d, %d streams)", stats, offset,
+                    streams));
+            logger.debug(String.format("File Saved at : %s",
+                    fileStore.file(message.getSender(), fileName).getAbsolutePath()));
+
+            if (liveFile == null)
+                announce(fileName, fileLength);
+
+        } catch (SecurityException | IOException | SendingToClientWasFailed e) {
+            //The part file is kept, so the client can resume the upload.
             logger.error(e.getMessage());
+            if (liveFile != null)
+                liveFile.fail(e.getMessage());
+            if (relayName != null)
+                fileStore.release(message.getSender(), relayName);
         } finally {
+            if (liveFile != null)
+                closeLiveFile(fileStore, relayName, liveFile);
             serverWorker.decreaseDownloadInProgress();
         }
     }
 
     /**
-     * Build the destination folder and the return the result file.
-     * "DownloadFiles/UserName/file"
+     * Ask the client for a random range of the stored content (see FileStore.proofRange), and returns true
+     * if the received range matches it. The range is received in a temporary file next to the part file.
      *
+     * @param fileStore
+     * @param hash
+     * @param partFile
      * @return
-     * @throws SecurityException
+     * @throws IOException               if the client didn't send the range
+     * @throws SendingToClientWasFailed
      */
-    private File buildDestFile() throws SecurityException {
-        File destinationFolder = new File(Utils.rebuildPath(String.format("%s\\DownloadedFiles\\%s",
-                System.getProperty("user.dir"), message.getSender())));
+    private boolean proves(FileStore fileStore, String hash, File partFile) throws IOException,
+            SendingToClientWasFailed {
+        ParallelTransfer.Range range = fileStore.proofRange(message.getLength());
+        TransferRegistry registry = client.getServer().getTransferRegistry();
+        String token = registry.register();
+        client.sendMessageToClient(ServerMessageBuilder.proofRequestMessage(token, range.getPosition(),
+                range.getLength(), message.getBody()));
+
+        File proofFile = new File(partFile.getPath() + PROOF_SUFFIX);
+        try (Socket senderSocket = registry.await(token, client.getServer().getConfiguration().getTransferTimeout());
+             FileChannel proof = FileChannel.open(proofFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            client.getServer().getConfiguration().getCompression().accept(senderSocket.getChannel())
+                    .receive(senderSocket.getChannel(), proof, 0, range.getLength());
+            boolean proved = fileStore.proves(hash, proof, range);
+            if (!proved)
+                logger.debug(String.format("%s of %s doesn't match the stored content, it's uploaded.",
+                        message.getBody(), message.getSender()));
+            return proved;
+        }
+    }
 
-        destinationFolder.mkdirs();
+    /**
+     * The upload is finished, new readers get the stored file after this.
+     *
+     * @param fileStore
+     * @param fileName
+     * @param liveFile
+     */
+    private void closeLiveFile(FileStore fileStore, String fileName, LiveFile liveFile) {
+        fileStore.removeLiveFile(message.getSender(), fileName);
+        try {
+            liveFile.release();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
 
-        return new File(Utils.rebuildPath(String.format("%s\\%s", destinationFolder.getAbsolutePath(),
-                message.getBody())));
+    /**
+     * Tell the receivers about the stored file.
+     *
+     * @param fileName the stored name of the file (see FileStore)
+     * @param fileLength
+     */
+    private void announce(String fileName, long fileLength) {
+        if (message.getType() == PUBLIC_DATA)
+            client.getServer().broadCastMessage(ServerMessageBuilder.publicFileSendMessage(
+                    message.getSender(),
+                    fileName,
+                    fileLength
+            ));
+
+        else
+            client.getServer().sendPrivateMessage(ServerMessageBuilder.privateFileSendMessage(
+                    message.getSender(),
+                    fileName,
+                    fileLength,
+                    message.getReceivers()
+            ), message.getReceivers());
     }
 
 }
@@ -5,19 +5,34 @@ import Server.Client;
 import Server.Exceptions.SendingToClientWasFailed;
 import Server.ServerMessageBuilder;
 import Server.ServerWorker;
+import Transfer.Compression;
+import Transfer.FileTransfer;
+import Transfer.ParallelTransfer;
+import Transfer.TransferStats;
 import org.apache.log4j.Logger;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
 
+import static Message.Status.Status.FILE_DOWNLOADING_REJECTED;
 import static Message.Status.Status.FILE_REMOVED;
 
 /**
  * This class going to upload the requested file to the client
- * it connects to client file download socket, and send the file to it.
+ * it sends a transfer token to the client (READY_TO_GET_FILE), and wait till the client file
+ * downloader connect to the file sharing socket with that token (see TransferRegistry),
+ * then send the file to it.
+ * Download requests can ask for a range of the file (see ServerMessageParser), it's used for
+ * resuming the interrupted downloads.
+ * Large files can be sent over several data connections at the same time (server.transferStreams),
+ * and the rate of the transfer is limited by the BandwidthScheduler.
+ * The data is moved from the file to the socket directly (see FileTransfer), or in compressed
+ * blocks if both sides want it (server.compression, see Compression).
+ * A file which is still uploading (relay mode) is sent while it's being received (see LiveFile).
  */
 public class ServerFileUploader implements Runnable {
 
@@ -27,8 +42,6 @@ public class ServerFileUploader implements Runnable {
 
     private final Logger logger;
 
-    private final int BUFFER_SIZE = 4096;
-
     public ServerFileUploader(ServerWorker serverWorker, Client client, Message message) {
         this.serverWorker = serverWorker;
         this.client = client;
@@ -40,38 +53,67 @@ public class ServerFileUploader implements Runnable {
     @Override
     public void run() {
         try {
+            //Receiver of the download request is the user who sent the file.
+            File file = client.getServer().getFileStore().file(message.getReceivers()[0], message.getBody());
 
-            //Wait for client to be ready
-            Thread.sleep(1000);
-
-            Socket uploadTo = new Socket(client.getIP(), client.getServer().getMAIN_PORT() + 2);
-
-            File file = new File(Utils.rebuildPath(
-                    String.format("%s\\DownloadedFiles\\%s\\%s",
-                            System.getProperty("user.dir"),
-                            message.getSender(),
-                            message.getBody())
-            ));
-
-            DataOutputStream toClient = new DataOutputStream(uploadTo.getOutputStream());
-
-            if (file.exists()) {
+            //The file may be still uploading (relay mode), it's sent while it's being received.
+            LiveFile liveFile = client.getServer().getFileStore().acquireLiveFile(message.getReceivers()[0],
+                    message.getBody());
+            if (Optional.ofNullable(liveFile).isPresent()) {
+                try {
+                    relay(liveFile);
+                } finally {
+                    liveFile.release();
+                }
 
-                logger.debug(String.format("Start uploading %s", file.getName()));
+            } else if (file.exists()) {
 
                 if (!file.canRead())
                     logger.error("File is not readable :)");
 
-                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-
-                byte[] buffer = new byte[BUFFER_SIZE];
-
-                while (randomAccessFile.read(buffer) != -1)
-                    toClient.write(buffer);
-
-                randomAccessFile.close();
-
-                logger.debug(String.format("%s uploaded successfully!", file.getName()));
+                TransferStats stats;
+                try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+                    //Only the requested range is sent (e.g. the rest of an interrupted download).
+                    long size = fileChannel.size();
+                    long start = message.getRangeStart();
+                    long end = Math.min(message.getRangeEnd(), size);
+                    if (start > size) {
+                        client.sendMessageToClient(ServerMessageBuilder.responseBuilder(FILE_DOWNLOADING_REJECTED,
+                                String.format("%s is shorter than %d bytes!", file.getName(), start)));
+                        return;
+                    }
+
+                    TransferRegistry registry = client.getServer().getTransferRegistry();
+                    int timeout = client.getServer().getConfiguration().getTransferTimeout();
+                    Compression compression = client.getServer().getConfiguration().getCompression();
+                    FileTransfer.Throttle throttle = client.getServer().getBandwidthScheduler()
+                            .throttle(message.getSender());
+
+                    //Large files are sent over parallel data connections, each one has a token and a range.
+                    int streams = serverWorker.acquireStreams(end - start);
+                    try {
+                        ParallelTransfer transfer = new ParallelTransfer(client.getServer().getStreamExecutor());
+                        for (ParallelTransfer.Range range : ParallelTransfer.split(start, end - start, streams)) {
+                            String token = registry.register();
+                            client.sendMessageToClient(ServerMessageBuilder.transferReadyMessage(token,
+                                    range.getPosition(), range.getLength(), message.getBody()));
+                            transfer.add(range, (position, length) -> {
+                                try (Socket uploadTo = registry.await(token, timeout)) {
+                                    return compression.accept(uploadTo.getChannel()).send(fileChannel, position,
+                                            length, uploadTo.getChannel(), throttle);
+                                }
+                            });
+                        }
+
+                        logger.debug(String.format("Start uploading %s (bytes %d-%d, %d streams)", file.getName(),
+                                start, end, streams));
+                        stats = transfer.run();
+                    } finally {
+                        serverWorker.releaseStreams(streams);
+                    }
+                }
+
+                logger.debug(String.format("%s uploaded successfully! %s", file.getName(), stats));
 
             } else {
                 logger.debug(String.format("%s doesn't exists :)", file.getName()));
@@ -80,10 +122,66 @@ public class ServerFileUploader implements Runnable {
                         .responseBuilder(FILE_REMOVED, String.format("%s doesn't exists :)", file.getName())));
             }
 
-        } catch (IOException | SendingToClientWasFailed | InterruptedException e) {
+        } catch (IOException | SendingToClientWasFailed e) {
             logger.error(e.getMessage());
         } finally {
             serverWorker.decreaseUploadInProgress();
         }
     }
+
+    /**
+     * Send the requested range of a file which is still uploading. It sends the received bytes,
+     * and waits for the next ones, till the end of the range (over one data connection).
+     * The range is finished only if the upload is verified (see LiveFile.awaitVerified).
+     *
+     * @param liveFile
+     * @throws IOException
+     * @throws SendingToClientWasFailed
+     */
+    private void relay(LiveFile liveFile) throws IOException, SendingToClientWasFailed {
+        long start = message.getRangeStart();
+        long end = Math.min(message.getRangeEnd(), liveFile.getLength());
+        if (start > liveFile.getLength()) {
+            client.sendMessageToClient(ServerMessageBuilder.responseBuilder(FILE_DOWNLOADING_REJECTED,
+                    String.format("%s is shorter than %d bytes!", message.getBody(), start)));
+            return;
+        }
+
+        TransferRegistry registry = client.getServer().getTransferRegistry();
+        int timeout = client.getServer().getConfiguration().getTransferTimeout();
+        Compression compression = client.getServer().getConfiguration().getCompression();
+        FileTransfer.Throttle throttle = client.getServer().getBandwidthScheduler().throttle(message.getSender());
+
+        int streams = serverWorker.acquireStreams(0);
+        TransferStats stats;
+        try {
+            String token = registry.register();
+            client.sendMessageToClient(ServerMessageBuilder.transferReadyMessage(token, start, end - start,
+                    message.getBody()));
+            logger.debug(String.format("Start relaying %s (bytes %d-%d)", message.getBody(), start, end));
+
+            try (Socket uploadTo = registry.await(token, timeout)) {
+                Compression chosen = compression.accept(uploadTo.getChannel());
+                long begin = System.nanoTime();
+                long wireBytes = 0;
+                //The last byte is sent after the upload is verified, if it's not the receiver gets an incomplete file.
+                long last = Math.max(start, end - 1);
+                for (long position = start; position < last; ) {
+                    long available = Math.min(liveFile.await(position, timeout), last);
+                    wireBytes += chosen.send(liveFile.getFileChannel(), position, available - position,
+                            uploadTo.getChannel(), throttle).getWireBytes();
+                    position = available;
+                }
+                if (end > start) {
+                    liveFile.awaitVerified(timeout);
+                    wireBytes += chosen.send(liveFile.getFileChannel(), last, end - last, uploadTo.getChannel(),
+                            throttle).getWireBytes();
+                }
+                stats = new TransferStats(end - start, wireBytes, System.nanoTime() - begin);
+            }
+        } finally {
+            serverWorker.releaseStreams(streams);
+        }
+        logger.debug(String.format("%s relayed successfully! %s", message.getBody(), stats));
+    }
 }
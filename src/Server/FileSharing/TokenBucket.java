@@ -0,0 +1,92 @@
+package Server.FileSharing;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket, it's filled with rate bytes per second up to it's capacity (a tenth of a second
+ * of the rate, so a transfer can't burst more than that). A transfer takes bytes from it before
+ * moving them, and waits if the bucket is empty.
+ * The control messages take their bytes without waiting, and the bucket may get negative,
+ * so the transfers pay for them (see BandwidthScheduler).
+ */
+public class TokenBucket {
+
+    private static final long MIN_CAPACITY = 64 * 1024;
+
+    /**
+     * A waiting transfer gets at least this much (or what it asked for, if it's less),
+     * so it's not woken up for a few bytes.
+     */
+    private static final long MIN_GRANT = 16 * 1024;
+
+    private final double bytesPerNano;
+    private final long capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor.
+     *
+     * @param rate bytes per second
+     */
+    public TokenBucket(long rate) {
+        this.bytesPerNano = rate / 1e9;
+        this.capacity = Math.max(MIN_CAPACITY, rate / 10);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take up to the given bytes (at most the capacity), it waits till enough bytes are available.
+     *
+     * @param bytes
+     * @return the taken bytes, at least one
+     * @throws InterruptedIOException
+     */
+    public synchronized long acquire(long bytes) throws InterruptedIOException {
+        long wanted = Math.max(1, Math.min(bytes, capacity));
+        long needed = Math.min(wanted, MIN_GRANT);
+        refill();
+        while (tokens < needed) {
+            long waitNanos = (long) Math.ceil((needed - tokens) / bytesPerNano);
+            try {
+                wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+            refill();
+        }
+        long granted = Math.min(wanted, (long) tokens);
+        tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * Take all of the given bytes, it waits till all of them are taken.
+     *
+     * @param bytes
+     * @throws InterruptedIOException
+     */
+    public void acquireAll(long bytes) throws InterruptedIOException {
+        while (bytes > 0)
+            bytes -= acquire(bytes);
+    }
+
+    /**
+     * Take the bytes without waiting (the control messages), the bucket can get
+     * negative till one second of the rate.
+     *
+     * @param bytes
+     */
+    public synchronized void take(long bytes) {
+        refill();
+        tokens = Math.max(tokens - bytes, -bytesPerNano * 1e9);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,199 @@
+package Server.FileSharing;
+
+import Transfer.TransferToken;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * It accepts the data connections of the file sharing socket (SERVER PORT + 1 [E.G 15001]),
+ * reads their token (see TransferToken) and hands each connection to the transfer which
+ * issued that token. Connections with an unknown (or expired) token are closed.
+ * So the transfers don't depend on the order of connections, and nobody needs to sleep
+ * till the other side is ready.
+ * A token which nobody waits for (see await) in the token timeout is expired by the accepting thread
+ * (it checks them every SWEEP_INTERVAL), and it's connection is closed if it was handed over but never taken.
+ */
+public class TransferRegistry implements Runnable {
+
+    /**
+     * Maximum waiting time (milliseconds) for the token of a new data connection.
+     */
+    private static final int HANDSHAKE_TIMEOUT = 5_000;
+    private static final int SWEEP_INTERVAL = 1_000;
+
+    private final ServerSocket fileSharingSocket;
+    private final long tokenTimeout;
+    private final Map<String, PendingTransfer> pendingTransfers = new ConcurrentHashMap<>();
+    private final ExecutorService handshakeExecutor;
+    private final Logger logger;
+
+    /**
+     * Constructor.
+     *
+     * @param fileSharingSocket
+     * @param tokenTimeout      milliseconds, the tokens which nobody waits for in this time are expired
+     */
+    public TransferRegistry(ServerSocket fileSharingSocket, long tokenTimeout) {
+        this.fileSharingSocket = fileSharingSocket;
+        this.tokenTimeout = tokenTimeout;
+        this.handshakeExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "TransferHandshake");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logger = Logger.getLogger(TransferRegistry.class.getName());
+    }
+
+    /**
+     * Issue a token for a new transfer, the data connection of the transfer
+     * can be taken by calling await.
+     *
+     * @return
+     */
+    public String register() {
+        String token = TransferToken.next();
+        pendingTransfers.put(token, new PendingTransfer(System.currentTimeMillis() + tokenTimeout));
+        return token;
+    }
+
+    /**
+     * Wait till the data connection of the token is connected and return it.
+     * If it didn't connect in time, the token will be expired.
+     *
+     * @param token
+     * @param timeout milliseconds
+     * @return
+     * @throws IOException if the token is not valid (or it's already expired)
+     */
+    public Socket await(String token, long timeout) throws IOException {
+        PendingTransfer pendingTransfer = Optional.ofNullable(pendingTransfers.get(token))
+                .orElseThrow(() -> new IOException("Transfer token is not valid!"));
+        if (!pendingTransfer.claim())
+            throw new IOException("Transfer token is expired!");
+        CompletableFuture<Socket> transfer = pendingTransfer.connection;
+        try {
+            return transfer.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException | ExecutionException e) {
+            // The connection may be handed over right now, so it's not lost.
+            if (!transfer.completeExceptionally(e))
+                return transfer.join();
+            throw new IOException("Client didn't connect for the transfer in time!");
+        } finally {
+            pendingTransfers.remove(token);
+        }
+    }
+
+    /**
+     * Accepts the data connections till the socket is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            fileSharingSocket.setSoTimeout(SWEEP_INTERVAL);
+        } catch (SocketException e) {
+            logger.error(e.getMessage());
+        }
+        long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+        while (!fileSharingSocket.isClosed()) {
+            try {
+                Socket connection = fileSharingSocket.accept();
+                handshakeExecutor.execute(() -> handOver(connection));
+            } catch (SocketTimeoutException e) {
+                // Nobody connected, it's time to check the tokens.
+            } catch (SocketException e) {
+                logger.debug("File sharing socket is closed!");
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+            long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                expire(now);
+                nextSweep = now + SWEEP_INTERVAL;
+            }
+        }
+        expire(Long.MAX_VALUE);
+        handshakeExecutor.shutdown();
+    }
+
+    /**
+     * Expire the tokens which nobody waits for till their deadline, and close their connections which
+     * were handed over but never taken.
+     *
+     * @param now
+     */
+    private void expire(long now) {
+        for (Iterator<PendingTransfer> iterator = pendingTransfers.values().iterator(); iterator.hasNext(); ) {
+            PendingTransfer pendingTransfer = iterator.next();
+            if (now < pendingTransfer.deadline || !pendingTransfer.claim())
+                continue;
+            iterator.remove();
+            if (!pendingTransfer.connection.completeExceptionally(new TimeoutException("Transfer token is expired!")))
+                close(pendingTransfer.connection.join());
+        }
+    }
+
+    /**
+     * Read the token of the connection, and give the connection to it's transfer.
+     *
+     * @param connection
+     */
+    private void handOver(Socket connection) {
+        try {
+            connection.setSoTimeout(HANDSHAKE_TIMEOUT);
+            String token = TransferToken.read(connection.getInputStream());
+            connection.setSoTimeout(0);
+
+            // The transfer may not be waiting yet, it removes the token itself (see await).
+            PendingTransfer transfer = pendingTransfers.get(token);
+            if (Optional.ofNullable(transfer).isPresent() && transfer.connection.complete(connection))
+                return;
+            logger.error(String.format("Unknown transfer token from [%s]", Server.Server.getClientInfo(connection)));
+        } catch (IOException e) {
+            logger.error(String.format("Data connection [%s] didn't send a token: %s",
+                    Server.Server.getClientInfo(connection), e));
+        }
+        close(connection);
+    }
+
+    private void close(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * A registered token, the data connection of it is handed over with the future. It's claimed once,
+     * by the transfer which waits for it (see await) or by the expiry (see expire).
+     */
+    private static class PendingTransfer {
+        private final CompletableFuture<Socket> connection = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final long deadline;
+
+        private PendingTransfer(long deadline) {
+            this.deadline = deadline;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package Server.History;
+
+import Message.Message;
+import Message.MessageTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the MessageLog, named by the sequence number of it's first message (e.g "00000000000000000001.log").
+ * The file has a fixed size and it's memory-mapped once, the writer thread appends the records to the mapping
+ * and the readers read the same mapping, so reading the history doesn't need any read system call.
+ * Each record is : [payload length (4 bytes)][CRC32 of the payload (4 bytes)][payload], the rest of the file
+ * is zero, so the end of the records is where a zero length (or a broken record, after a crash) is found.
+ * The payload has the type of the message as a fixed code (PUBLIC_RECORD or PRIVATE_RECORD), so the records
+ * don't depend on the order of MessageTypes.
+ * It has a sparse index (the sequence number, time and position of every INDEX_INTERVAL'th record), which is
+ * written next to the segment ("00000000000000000001.idx", INDEX_ENTRY bytes per record) and loaded when the
+ * segment is opened. So a message can be found by it's sequence number or time with a binary search and a short
+ * scan, and opening the segment only checks the records after the last indexed one.
+ */
+class LogSegment {
+
+    static final String EXTENSION = ".log";
+    static final String INDEX_EXTENSION = ".idx";
+
+    private static final int HEADER = 8;
+    private static final int INDEX_ENTRY = 20;
+    private static final int INDEX_INTERVAL = 64;
+    private static final byte PUBLIC_RECORD = 0;
+    private static final byte PRIVATE_RECORD = 1;
+
+    private final File file;
+    private final long baseSequence;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer writeBuffer;
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+    private final CRC32 crc = new CRC32();
+
+    private volatile int written = 0;
+    private volatile long lastSequence;
+    private int records = 0;
+
+    private long[] indexSequences = new long[16];
+    private long[] indexTimes = new long[16];
+    private int[] indexPositions = new int[16];
+    private int indexSize = 0;
+
+    /**
+     * Open (or make) the segment file and find the end of it's records.
+     *
+     * @param file
+     * @param baseSequence sequence number of the first message of the segment
+     * @param size         size of a new segment file
+     * @throws IOException
+     */
+    LogSegment(File file, long baseSequence, int size) throws IOException {
+        this.file = file;
+        this.baseSequence = baseSequence;
+        this.lastSequence = baseSequence - 1;
+        this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, fileChannel.size()));
+        this.writeBuffer = buffer.duplicate();
+        this.indexChannel = new RandomAccessFile(indexFileOf(file), "rw").getChannel();
+        recover();
+    }
+
+    /**
+     * Returns the file of the segment which starts from the given sequence number.
+     *
+     * @param directory
+     * @param baseSequence
+     * @return
+     */
+    static File fileOf(File directory, long baseSequence) {
+        return new File(directory, String.format("%020d%s", baseSequence, EXTENSION));
+    }
+
+    /**
+     * Returns the index file of the segment file.
+     *
+     * @param file
+     * @return
+     */
+    static File indexFileOf(File file) {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - EXTENSION.length()) + INDEX_EXTENSION);
+    }
+
+    /**
+     * Returns true if the record of the message fits in an empty segment of the given size.
+     *
+     * @param message
+     * @param size
+     * @return
+     */
+    static boolean fits(Message message, int size) {
+        long recordLength = HEADER + 8 + 8 + 1 + 4 + bytes(message.getSender()).length + 2 + 8 + 4
+                + bytes(message.getSafeBody()).length;
+        for (String receiver : Optional.ofNullable(message.getReceivers()).orElse(new String[0]))
+            recordLength += 4 + bytes(receiver).length;
+        return recordLength <= size;
+    }
+
+    /**
+     * Append a message to the end of the segment (only the writer thread calls it).
+     * It returns false if the segment doesn't have enough space for it.
+     *
+     * @param loggedMessage
+     * @return
+     * @throws IOException if the index is not writable
+     */
+    boolean append(LoggedMessage loggedMessage) throws IOException {
+        Message message = loggedMessage.getMessage();
+        byte[] sender = bytes(message.getSender());
+        byte[] body = bytes(message.getSafeBody());
+        String[] receiverNames = Optional.ofNullable(message.getReceivers()).orElse(new String[0]);
+        byte[][] receivers = new byte[receiverNames.length][];
+        int payloadLength = 8 + 8 + 1 + 4 + sender.length + 2 + 8 + 4 + body.length;
+        for (int i = 0; i < receivers.length; i++) {
+            receivers[i] = bytes(receiverNames[i]);
+            payloadLength += 4 + receivers[i].length;
+        }
+
+        int position = written;
+        if (position + HEADER + payloadLength > buffer.capacity())
+            return false;
+
+        writeBuffer.position(position + HEADER);
+        writeBuffer.putLong(loggedMessage.getSequence()).putLong(loggedMessage.getTime())
+                .put((message.getType() == MessageTypes.PRIVATE) ? PRIVATE_RECORD : PUBLIC_RECORD);
+        writeBuffer.putInt(sender.length).put(sender);
+        writeBuffer.putShort((short) receivers.length);
+        for (byte[] receiver : receivers)
+            writeBuffer.putInt(receiver.length).put(receiver);
+        writeBuffer.putLong(message.getLength());
+        writeBuffer.putInt(body.length).put(body);
+        writeBuffer.putInt(position, payloadLength);
+        writeBuffer.putInt(position + 4, checksum(position, payloadLength));
+
+        index(loggedMessage.getSequence(), loggedMessage.getTime(), position);
+        lastSequence = loggedMessage.getSequence();
+        // Readers see the record only after it's completely written.
+        written = position + HEADER + payloadLength;
+        return true;
+    }
+
+    /**
+     * Read the messages which their sequence number is at least fromSequence, till the end of the segment
+     * or till the list has max messages.
+     *
+     * @param fromSequence
+     * @param max
+     * @param messages     the read messages are added to it
+     */
+    void read(long fromSequence, int max, List<LoggedMessage> messages) {
+        int end = written;
+        ByteBuffer reader = buffer.duplicate();
+        int position = indexedPosition(fromSequence);
+        while (position < end && messages.size() < max) {
+            int payloadLength = reader.getInt(position);
+            if (reader.getLong(position + HEADER) >= fromSequence) {
+                reader.limit(position + HEADER + payloadLength).position(position + HEADER);
+                messages.add(decode(reader));
+                reader.limit(reader.capacity());
+            }
+            position += HEADER + payloadLength;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the first message of the segment which is sent at (or after) the time,
+     * or getLastSequence() + 1 if all of them are sent before it.
+     *
+     * @param time milliseconds since epoch
+     * @return
+     */
+    long sequenceAt(long time) {
+        int end = written;
+        int position = indexedPositionBefore(time);
+        while (position < end) {
+            if (buffer.getLong(position + HEADER + 8) >= time)
+                return buffer.getLong(position + HEADER);
+            position += HEADER + buffer.getInt(position);
+        }
+        return lastSequence + 1;
+    }
+
+    /**
+     * Returns the time of the first message of the segment, or -1 if it's empty.
+     *
+     * @return
+     */
+    synchronized long getFirstTime() {
+        return (indexSize > 0) ? indexTimes[0] : -1;
+    }
+
+    /**
+     * Write the appended records (and their index) to the disk.
+     *
+     * @throws IOException
+     */
+    void force() throws IOException {
+        buffer.force();
+        indexChannel.force(false);
+    }
+
+    void close() throws IOException {
+        force();
+        fileChannel.close();
+        indexChannel.close();
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * Returns the sequence number of the last message of the segment, or baseSequence - 1 if it's empty.
+     *
+     * @return
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Load the index, and find the end of the records which are completely written after the last indexed one.
+     * A missing (or broken) index is built again from the records.
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        int position = loadIndex();
+        while (position + HEADER <= buffer.capacity()) {
+            int payloadLength = buffer.getInt(position);
+            if (payloadLength <= 0 || position + HEADER + payloadLength > buffer.capacity()
+                    || buffer.getInt(position + 4) != checksum(position, payloadLength))
+                break;
+            long sequence = buffer.getLong(position + HEADER);
+            index(sequence, buffer.getLong(position + HEADER + 8), position);
+            lastSequence = sequence;
+            position += HEADER + payloadLength;
+        }
+        written = position;
+        indexChannel.truncate((long) indexSize * INDEX_ENTRY);
+    }
+
+    /**
+     * Read the entries of the index file which point to a record of the segment, and returns the position of
+     * the last one (the records are checked from there). The last entry is added again by the check.
+     *
+     * @return
+     * @throws IOException
+     */
+    private int loadIndex() throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate((int) Math.min(indexChannel.size(), Integer.MAX_VALUE));
+        while (entries.hasRemaining() && indexChannel.read(entries, entries.position()) > 0) ;
+        entries.flip();
+
+        long previous = baseSequence - 1;
+        while (entries.remaining() >= INDEX_ENTRY) {
+            long sequence = entries.getLong();
+            long time = entries.getLong();
+            int position = entries.getInt();
+            if (sequence <= previous || position < 0 || position + HEADER + 16 > buffer.capacity()
+                    || buffer.getInt(position) <= 0 || buffer.getLong(position + HEADER) != sequence)
+                break;
+            addIndex(sequence, time, position);
+            previous = sequence;
+        }
+        if (indexSize == 0)
+            return 0;
+        records = (indexSize - 1) * INDEX_INTERVAL;
+        return indexPositions[--indexSize];
+    }
+
+    /**
+     * Count the record, and add every INDEX_INTERVAL'th one to the index.
+     *
+     * @param sequence
+     * @param time
+     * @param position
+     * @throws IOException
+     */
+    private void index(long sequence, long time, int position) throws IOException {
+        if (records++ % INDEX_INTERVAL != 0)
+            return;
+        indexEntry.clear();
+        indexEntry.putLong(sequence).putLong(time).putInt(position).flip();
+        long offset = (long) indexSize * INDEX_ENTRY;
+        while (indexEntry.hasRemaining())
+            offset += indexChannel.write(indexEntry, offset);
+        addIndex(sequence, time, position);
+    }
+
+    private synchronized void addIndex(long sequence, long time, int position) {
+        if (indexSize == indexSequences.length) {
+            indexSequences = Arrays.copyOf(indexSequences, indexSize * 2);
+            indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        indexSequences[indexSize] = sequence;
+        indexTimes[indexSize] = time;
+        indexPositions[indexSize++] = position;
+    }
+
+    /**
+     * Returns the position of the last indexed record which is not after the sequence.
+     *
+     * @param sequence
+     * @return
+     */
+    private synchronized int indexedPosition(long sequence) {
+        int found = Arrays.binarySearch(indexSequences, 0, indexSize, sequence);
+        if (found >= 0)
+            return indexPositions[found];
+        int before = -found - 2;
+        return (before >= 0) ? indexPositions[before] : 0;
+    }
+
+    /**
+     * Returns the position of the last indexed record which is sent before the time.
+     *
+     * @param time
+     * @return
+     */
+    private synchronized int indexedPositionBefore(long time) {
+        int low = 0;
+        int high = indexSize - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexTimes[middle] < time) {
+                found = indexPositions[middle];
+                low = middle + 1;
+            } else
+                high = middle - 1;
+        }
+        return found;
+    }
+
+    private int checksum(int position, int payloadLength) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(position + HEADER + payloadLength).position(position + HEADER);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static LoggedMessage decode(ByteBuffer record) {
+        long sequence = record.getLong();
+        long time = record.getLong();
+        MessageTypes type = (record.get() == PRIVATE_RECORD) ? MessageTypes.PRIVATE : MessageTypes.PUBLIC;
+        String sender = string(record);
+        String[] receivers = new String[record.getShort() & 0xFFFF];
+        for (int i = 0; i < receivers.length; i++)
+            receivers[i] = string(record);
+        long length = record.getLong();
+        String body = string(record);
+        return new LoggedMessage(sequence, time, new Message(sender,
+                (type == MessageTypes.PUBLIC) ? null : receivers, body, length, type));
+    }
+
+    private static String string(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
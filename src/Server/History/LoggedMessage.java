@@ -0,0 +1,39 @@
+package Server.History;
+
+import Message.Message;
+
+/**
+ * A chat message which is stored in the MessageLog, with it's sequence number
+ * and the time which the server routed it.
+ */
+public class LoggedMessage {
+
+    private final long sequence;
+    private final long time;
+    private final Message message;
+
+    /**
+     * Constructor.
+     *
+     * @param sequence sequence number of the message in the log (starts from 1)
+     * @param time     milliseconds since epoch
+     * @param message  a PUBLIC or PRIVATE message
+     */
+    public LoggedMessage(long sequence, long time, Message message) {
+        this.sequence = sequence;
+        this.time = time;
+        this.message = message;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,311 @@
+package Server.History;
+
+import Message.Message;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.function.Predicate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of the routed chat messages (public and private), it's the history of the chatroom.
+ * Each message gets the next sequence number when it's routed, and it's given to a writer thread which
+ * appends it to the last segment (see LogSegment), so logging a message doesn't add any disk write to
+ * the delivery of it. The log is split into segments of a fixed size (server.historySegmentSize MB) in the
+ * "History" folder, a full segment is closed and a new one is started. All of the segments are memory-mapped,
+ * and the messages are read from the mappings.
+ * The appended messages are written to the disk at most one second later (FLUSH_INTERVAL). At most PENDING_LIMIT
+ * messages wait for the writer, if the disk is slower than that, append waits for it (the memory is bounded).
+ * A message which is larger than a segment is not logged (append returns 0), so every sequence number which a
+ * message gets has a record in the log.
+ * The history can be read forward (read, e.g. catching up a client) or backward (readBefore, e.g. the
+ * pages of the history command), and a time can be found with sequenceAt. The segments are found by their
+ * first sequence number or first time, and the message in the segment by it's index (see LogSegment).
+ */
+public class MessageLog implements Runnable {
+
+    private static final long FLUSH_INTERVAL = 1_000;
+    private static final int READ_BACK_WINDOW = 256;
+    private static final int PENDING_LIMIT = 16 * 1024;
+
+    private final File directory;
+    private final int segmentSize;
+    private final NavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Long, LogSegment> segmentsByTime = new ConcurrentSkipListMap<>();
+    private final BlockingQueue<LoggedMessage> pendingMessages = new LinkedBlockingQueue<>(PENDING_LIMIT);
+    private final Logger logger;
+
+    private long lastSequence;
+    private long writtenSequence;
+    private volatile boolean isOpen = true;
+
+    /**
+     * Constructor, it opens the segments of the folder and continues the last one.
+     *
+     * @param directory
+     * @param segmentSize bytes
+     * @throws IOException
+     */
+    public MessageLog(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.logger = Logger.getLogger(MessageLog.class.getName());
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException(String.format("%s is not usable!", directory.getAbsolutePath()));
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(LogSegment.EXTENSION));
+        for (File file : (files == null) ? new File[0] : files) {
+            try {
+                long baseSequence = Long.parseLong(file.getName().substring(0,
+                        file.getName().length() - LogSegment.EXTENSION.length()));
+                LogSegment segment = new LogSegment(file, baseSequence, segmentSize);
+                segments.put(baseSequence, segment);
+                if (segment.getFirstTime() >= 0)
+                    segmentsByTime.put(segment.getFirstTime(), segment);
+            } catch (NumberFormatException e) {
+                logger.error(String.format("%s is not a segment of the history!", file.getName()));
+            }
+        }
+        if (segments.isEmpty())
+            segments.put(1L, new LogSegment(LogSegment.fileOf(directory, 1), 1, segmentSize));
+        this.lastSequence = segments.lastEntry().getValue().getLastSequence();
+        this.writtenSequence = lastSequence;
+        logger.debug(String.format("History has %d segments, last message is %d", segments.size(), lastSequence));
+    }
+
+    /**
+     * Add a message to the end of the log and returns it's sequence number, or 0 if it's larger than a segment
+     * (it's not logged).
+     * The message is written by the writer thread (run), so it doesn't wait for the disk, unless PENDING_LIMIT
+     * messages are already waiting.
+     *
+     * @param message
+     * @return
+     */
+    public long append(Message message) {
+        if (!LogSegment.fits(message, segmentSize)) {
+            logger.error(String.format("Message of %s is larger than a segment, it's not logged!",
+                    message.getSender()));
+            return 0;
+        }
+        // The sequence numbers are given in the order of the queue, so the log is in order.
+        synchronized (pendingMessages) {
+            LoggedMessage loggedMessage = new LoggedMessage(lastSequence + 1, System.currentTimeMillis(), message);
+            try {
+                pendingMessages.put(loggedMessage);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error(String.format("Message of %s is not logged: %s", message.getSender(), e));
+                return 0;
+            }
+            return ++lastSequence;
+        }
+    }
+
+    /**
+     * Read the written messages which come after the given sequence number, at most max of them.
+     * The messages which are not written yet (they are still in the queue) are not returned.
+     *
+     * @param afterSequence
+     * @param max
+     * @return
+     */
+    public List<LoggedMessage> read(long afterSequence, int max) {
+        List<LoggedMessage> messages = new ArrayList<>();
+        Map.Entry<Long, LogSegment> first = segments.floorEntry(afterSequence + 1);
+        Long from = (first != null) ? first.getKey() : segments.firstKey();
+        for (LogSegment segment : segments.tailMap(from, true).values()) {
+            if (messages.size() >= max)
+                break;
+            segment.read(afterSequence + 1, max, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Read the written messages which come before the given sequence number backward, and add the last
+     * max of them which are accepted by the filter to the list (in order). At most scanLimit messages are read,
+     * so a filter which accepts only a few messages doesn't read the whole log.
+     * It returns the sequence number which the older messages are before (the next page), or 0 if there
+     * isn't any older message.
+     *
+     * @param beforeSequence
+     * @param max
+     * @param scanLimit
+     * @param filter
+     * @param messages       the read messages are added to it
+     * @return
+     */
+    public long readBefore(long beforeSequence, int max, long scanLimit, Predicate<Message> filter,
+                           List<LoggedMessage> messages) {
+        LinkedList<LoggedMessage> page = new LinkedList<>();
+        long first = segments.firstKey();
+        long to = Math.min(beforeSequence, getWrittenSequence() + 1);
+        while (to > first && page.size() < max && scanLimit > 0) {
+            long from = Math.max(first, to - Math.min(READ_BACK_WINDOW, scanLimit));
+            List<LoggedMessage> window = read(from - 1, (int) (to - from));
+            scanLimit -= to - from;
+            to = from;
+            for (int i = window.size() - 1; i >= 0 && page.size() < max; i--) {
+                if (filter.test(window.get(i).getMessage())) {
+                    page.addFirst(window.get(i));
+                    if (page.size() == max)
+                        to = window.get(i).getSequence();
+                }
+            }
+        }
+        messages.addAll(page);
+        return (to > first) ? to : 0;
+    }
+
+    /**
+     * Returns the sequence number of the first written message which is sent at (or after) the given time,
+     * or the next sequence number if there isn't any.
+     *
+     * @param time milliseconds since epoch
+     * @return
+     */
+    public long sequenceAt(long time) {
+        Map.Entry<Long, LogSegment> segment = segmentsByTime.floorEntry(time);
+        if (segment == null)
+            return segments.firstKey();
+        return segment.getValue().sequenceAt(time);
+    }
+
+    /**
+     * Wait till the messages are written (see read) up to the given sequence number.
+     * It returns false if they are not written in time.
+     *
+     * @param sequence
+     * @param timeout  milliseconds
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized boolean await(long sequence, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (writtenSequence < sequence) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline)
+                return false;
+            wait(deadline - now);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sequence number of the last routed message (it may not be written yet).
+     *
+     * @return
+     */
+    public long getLastSequence() {
+        synchronized (pendingMessages) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Writer thread, it appends the queued messages to the segments.
+     */
+    @Override
+    public void run() {
+        List<LoggedMessage> batch = new LinkedList<>();
+        long lastFlush = System.currentTimeMillis();
+        boolean unflushed = false;
+
+        while (isOpen || !pendingMessages.isEmpty()) {
+            try {
+                LoggedMessage next = pendingMessages.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (next != null) {
+                    batch.add(next);
+                    pendingMessages.drainTo(batch);
+                    for (LoggedMessage loggedMessage : batch)
+                        write(loggedMessage);
+                    written(batch.get(batch.size() - 1).getSequence());
+                    batch.clear();
+                    unflushed = true;
+                }
+            } catch (InterruptedException e) {
+                isOpen = false;
+            } catch (IOException e) {
+                logger.error(String.format("Writing the history was not successful: %s", e.getMessage()));
+                // The readers must not wait for the messages which are not written.
+                if (!batch.isEmpty())
+                    written(batch.get(batch.size() - 1).getSequence());
+                batch.clear();
+            }
+
+            if (unflushed && System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+                // A failed flush is tried again later, the writer must keep taking the messages.
+                try {
+                    segments.lastEntry().getValue().force();
+                    unflushed = false;
+                } catch (IOException e) {
+                    logger.error(String.format("Flushing the history was not successful: %s", e.getMessage()));
+                }
+                lastFlush = System.currentTimeMillis();
+            }
+        }
+
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+        }
+        logger.debug("History is closed.");
+    }
+
+    /**
+     * Stop the writer thread, after writing the queued messages.
+     */
+    public void close() {
+        isOpen = false;
+    }
+
+    private synchronized long getWrittenSequence() {
+        return writtenSequence;
+    }
+
+    private synchronized void written(long sequence) {
+        writtenSequence = sequence;
+        notifyAll();
+    }
+
+    /**
+     * Append a message to the last segment, a new segment is started if it's full.
+     *
+     * @param loggedMessage
+     * @throws IOException
+     */
+    private void write(LoggedMessage loggedMessage) throws IOException {
+        LogSegment segment = segments.lastEntry().getValue();
+        if (segment.append(loggedMessage)) {
+            if (segment.getLastSequence() == segment.getBaseSequence())
+                segmentsByTime.put(loggedMessage.getTime(), segment);
+            return;
+        }
+
+        segment.force();
+        long baseSequence = loggedMessage.getSequence();
+        LogSegment next = new LogSegment(LogSegment.fileOf(directory, baseSequence), baseSequence, segmentSize);
+        if (!next.append(loggedMessage)) {
+            next.close();
+            next.getFile().delete();
+            logger.error(String.format("Message %d is larger than a segment, it's not stored!", baseSequence));
+            return;
+        }
+        segments.put(baseSequence, next);
+        segmentsByTime.put(loggedMessage.getTime(), next);
+        logger.debug(String.format("History segment %s is started.", next.getFile().getName()));
+    }
+}
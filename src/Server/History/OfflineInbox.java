@@ -0,0 +1,212 @@
+package Server.History;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inboxes of the offline users. A private message which a receiver couldn't get (it was not online) is kept
+ * in the inbox of the receiver, and all of them are sent at it's next login (see Server.flushInbox), they are
+ * removed from the inbox when they are sent.
+ * The message itself is already in the MessageLog, so an inbox only has the sequence numbers of it's
+ * messages (ENTRY bytes each) in a file named by the user (e.g "Inbox/Alireza"), and the messages are read
+ * from the history when they are sent.
+ * Only the known users (the ones which have logged in before) have an inbox, they are kept in the ".users" file
+ * of the folder, so a message to a name which nobody uses is not kept.
+ * Each inbox has at most server.inboxLimit messages, and there are at most server.inboxUsers inboxes with
+ * server.inboxSize MB of messages in all of them, the next ones are rejected.
+ */
+public class OfflineInbox {
+
+    private static final int ENTRY = 8;
+    private static final String USERS_FILE = ".users";
+
+    private final File directory;
+    private final int limit;
+    private final int maxUsers;
+    private final long maxBytes;
+    private final Map<String, Integer> sizes = new HashMap<>();
+    private final Set<String> users = new HashSet<>();
+    private final Logger logger;
+
+    private long bytes = 0;
+
+    /**
+     * Constructor, it opens the inboxes of the folder.
+     *
+     * @param directory
+     * @param limit     maximum number of the messages of each inbox
+     * @param maxUsers  maximum number of the inboxes
+     * @param maxBytes  maximum size of all of the inboxes
+     * @throws IOException
+     */
+    public OfflineInbox(File directory, int limit, int maxUsers, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.limit = limit;
+        this.maxUsers = maxUsers;
+        this.maxBytes = maxBytes;
+        this.logger = Logger.getLogger(OfflineInbox.class.getName());
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException(String.format("%s is not usable!", directory.getAbsolutePath()));
+        File usersFile = new File(directory, USERS_FILE);
+        if (usersFile.isFile())
+            for (String userName : Files.readAllLines(usersFile.toPath(), StandardCharsets.UTF_8))
+                if (isUserName(userName))
+                    users.add(userName);
+
+        File[] files = directory.listFiles(File::isFile);
+        for (File file : (files == null) ? new File[0] : files) {
+            if (isUserName(file.getName()) && file.length() >= ENTRY) {
+                sizes.put(file.getName(), (int) (file.length() / ENTRY));
+                bytes += file.length() / ENTRY * ENTRY;
+            }
+        }
+        logger.debug(String.format("%d of %d known users have offline messages", sizes.size(), users.size()));
+    }
+
+    /**
+     * Remember a user which is logged in, so it's private messages are kept when it's offline.
+     *
+     * @param userName
+     */
+    public synchronized void addUser(String userName) {
+        if (!isUserName(userName) || users.contains(userName))
+            return;
+        try (Writer usersFile = new FileWriter(new File(directory, USERS_FILE), true)) {
+            usersFile.write(userName + System.lineSeparator());
+        } catch (IOException e) {
+            logger.error(String.format("Users of the inboxes are not writable: %s", e.getMessage()));
+            return;
+        }
+        users.add(userName);
+    }
+
+    /**
+     * Add a message to the inbox of the user, it returns false if the user is not known (see addUser), or the inbox
+     * is full (or it's not writable).
+     *
+     * @param userName
+     * @param sequence sequence number of the message in the history
+     * @return
+     */
+    public synchronized boolean store(String userName, long sequence) {
+        // Only the known users have an inbox, their names are valid file names (see ClientsManager).
+        if (!users.contains(userName))
+            return false;
+        int size = sizes.getOrDefault(userName, 0);
+        if (size >= limit || bytes + ENTRY > maxBytes || (size == 0 && sizes.size() >= maxUsers))
+            return false;
+
+        try (DataOutputStream inbox = new DataOutputStream(new FileOutputStream(new File(directory, userName),
+                true))) {
+            inbox.writeLong(sequence);
+        } catch (IOException e) {
+            logger.error(String.format("Inbox of %s is not writable: %s", userName, e.getMessage()));
+            return false;
+        }
+        sizes.put(userName, size + 1);
+        bytes += ENTRY;
+        return true;
+    }
+
+    /**
+     * Returns the sequence numbers of the messages of the user's inbox (in order). They are kept till they are
+     * removed (see remove), so they aren't lost if sending them fails.
+     *
+     * @param userName
+     * @return
+     */
+    public synchronized long[] read(String userName) {
+        Integer size = sizes.get(userName);
+        if (size == null)
+            return new long[0];
+        return readEntries(userName, size);
+    }
+
+    /**
+     * Remove the first count messages of the user's inbox (the ones which are read and sent), the messages which
+     * are stored after reading it are kept.
+     *
+     * @param userName
+     * @param count
+     */
+    public synchronized void remove(String userName, int count) {
+        Integer size = sizes.get(userName);
+        if (size == null || count <= 0)
+            return;
+
+        File file = new File(directory, userName);
+        int removed = Math.min(count, size);
+        if (removed < size) {
+            long[] sequences = readEntries(userName, size);
+            if (sequences.length < size)
+                return;
+            // The rest is written to another file first, so the inbox is never half written.
+            File rest = new File(directory, userName + ".rest");
+            try (DataOutputStream inbox = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(rest)))) {
+                for (int i = removed; i < size; i++)
+                    inbox.writeLong(sequences[i]);
+            } catch (IOException e) {
+                logger.error(String.format("Inbox of %s is not writable: %s", userName, e.getMessage()));
+                return;
+            }
+            try {
+                Files.move(rest.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.error(String.format("Inbox of %s is not removed: %s", userName, e.getMessage()));
+                return;
+            }
+            sizes.put(userName, size - removed);
+        } else {
+            if (!file.delete()) {
+                logger.error(String.format("Inbox of %s is not removed!", userName));
+                return;
+            }
+            sizes.remove(userName);
+        }
+        bytes -= (long) removed * ENTRY;
+    }
+
+    /**
+     * Returns the first count sequence numbers of the user's inbox, or the ones which are readable.
+     *
+     * @param userName
+     * @param count
+     * @return
+     */
+    private long[] readEntries(String userName, int count) {
+        long[] sequences = new long[count];
+        int read = 0;
+        try (DataInputStream inbox = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                new File(directory, userName))))) {
+            for (; read < count; read++)
+                sequences[read] = inbox.readLong();
+        } catch (IOException e) {
+            logger.error(String.format("Inbox of %s is not readable: %s", userName, e.getMessage()));
+        }
+        return (read == count) ? sequences : Arrays.copyOf(sequences, read);
+    }
+
+    private static boolean isUserName(String userName) {
+        return !userName.isEmpty() && userName.chars().allMatch(Character::isLetter);
+    }
+}
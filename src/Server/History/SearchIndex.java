@@ -0,0 +1,558 @@
+package Server.History;
+
+import Message.Message;
+import Message.MessageTypes;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inverted index of the words of the chat messages in the MessageLog, it gives the sequence numbers of the
+ * messages which have all of the words of a search (the newest ones first).
+ * The routed messages are given to the indexer thread (run), so routing a message doesn't wait for the index.
+ * At most PENDING_LIMIT messages wait for the indexer (e.g. while it indexes the history at startup). If more
+ * messages come, they are not queued : only their range of sequence numbers is kept, and the indexer reads
+ * them from the history later, so the memory is bounded and add never blocks.
+ * The indexer adds them to a small mutable part (delta), and it makes a compact part of the delta when it's
+ * large (COMPACT_THRESHOLD) or when no message is received for a while (COMPACT_IDLE). The compact parts keep
+ * the sequence numbers of each word sorted and delta-encoded as varints. They are tiered : a new part is merged
+ * with the newest ones while they don't have more deltas than it, so each part has more deltas than the newer
+ * ones (like the digits of a binary counter), there are only log2 of them, and a message is merged again only
+ * when it's part is doubled, not for every compaction.
+ * The list of the parts is replaced at once, so a search doesn't wait for a compaction.
+ * The words of a private message are indexed only for it's sender and receivers (word + "\0" + user name),
+ * so the others can't find it, and only if the private messages are searchable (see
+ * ServerConfiguration.isPrivateHistory).
+ * The index is in memory, it's built again from the history when the server starts.
+ */
+public class SearchIndex implements Runnable {
+
+    private static final int COMPACT_THRESHOLD = 65_536;
+    private static final long COMPACT_IDLE = 5_000;
+    private static final int REBUILD_BATCH = 1024;
+    private static final int PENDING_LIMIT = 16 * 1024;
+    private static final long REBUILD_TIMEOUT = 5_000;
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int MAX_WORD_LENGTH = 32;
+    private static final char USER_SEPARATOR = '\0';
+
+    private final MessageLog messageLog;
+    private final boolean privateMessages;
+    private final long rebuildTo;
+    private final BlockingQueue<LoggedMessage> pendingMessages = new LinkedBlockingQueue<>(PENDING_LIMIT);
+    private final Object missedLock = new Object();
+    private final Logger logger;
+
+    private List<CompactPostings> compacted = new ArrayList<>();
+    private Map<String, PostingList> delta = new HashMap<>();
+    private int deltaSize = 0;
+    private long missedFrom = 0;
+    private long missedTo = 0;
+    private volatile boolean isOpen = true;
+
+    /**
+     * Constructor. The messages which are already in the history are indexed by the indexer thread, it must be
+     * made before any new message is added to the history (the new ones are given with add).
+     *
+     * @param messageLog
+     * @param privateMessages true if the private messages are indexed too
+     */
+    public SearchIndex(MessageLog messageLog, boolean privateMessages) {
+        this.messageLog = messageLog;
+        this.privateMessages = privateMessages;
+        this.rebuildTo = messageLog.getLastSequence();
+        this.logger = Logger.getLogger(SearchIndex.class.getName());
+    }
+
+    /**
+     * Add a routed message to the index, it's indexed later by the indexer thread.
+     *
+     * @param sequence sequence number of the message in the history
+     * @param message  a PUBLIC or PRIVATE message
+     */
+    public void add(long sequence, Message message) {
+        if (sequence <= 0)
+            return;
+        synchronized (missedLock) {
+            // After a full queue, the next messages are read from the history too, so the missed range has
+            // only the missed messages.
+            if (missedFrom == 0 && pendingMessages.offer(new LoggedMessage(sequence, System.currentTimeMillis(),
+                    message)))
+                return;
+            if (missedFrom == 0) {
+                missedFrom = sequence;
+                logger.debug(String.format("Search indexer is behind, message %d is indexed from the history.",
+                        sequence));
+            }
+            missedTo = Math.max(missedTo, sequence);
+        }
+    }
+
+    /**
+     * Returns the sequence numbers of the last messages (at most max of them, the newest one first) which have
+     * all of the words of the query, and which the user can see.
+     *
+     * @param userName
+     * @param query
+     * @param max
+     * @return
+     */
+    public long[] search(String userName, String query, int max) {
+        Set<String> words = words(query);
+        if (words.isEmpty() || max <= 0)
+            return new long[0];
+
+        long[][] postings = new long[words.size()][];
+        int i = 0;
+        for (String word : words)
+            postings[i++] = union(postings(word), postings(word + USER_SEPARATOR + userName));
+        // Starting from the shortest list keeps the intersections small.
+        Arrays.sort(postings, (first, second) -> Integer.compare(first.length, second.length));
+        long[] found = postings[0];
+        for (i = 1; i < postings.length && found.length > 0; i++)
+            found = intersection(found, postings[i]);
+
+        long[] newest = new long[Math.min(max, found.length)];
+        for (i = 0; i < newest.length; i++)
+            newest[i] = found[found.length - 1 - i];
+        return newest;
+    }
+
+    /**
+     * Indexer thread, it indexes the history and then the added messages.
+     */
+    @Override
+    public void run() {
+        rebuild();
+        while (isOpen || !pendingMessages.isEmpty()) {
+            try {
+                LoggedMessage next = pendingMessages.poll(COMPACT_IDLE, TimeUnit.MILLISECONDS);
+                if (next != null)
+                    index(next.getSequence(), next.getMessage());
+                if (pendingMessages.isEmpty())
+                    indexMissed();
+                if (deltaSize >= COMPACT_THRESHOLD || (next == null && deltaSize > 0))
+                    compact();
+            } catch (InterruptedException e) {
+                isOpen = false;
+            }
+        }
+        logger.debug("Search index is closed.");
+    }
+
+    /**
+     * Stop the indexer thread, after indexing the added messages.
+     */
+    public void close() {
+        isOpen = false;
+    }
+
+    /**
+     * Index the messages which were in the history before starting the server.
+     */
+    private void rebuild() {
+        try {
+            if (!messageLog.await(rebuildTo, REBUILD_TIMEOUT))
+                logger.error("History is not written in time, some of the messages may not be searchable.");
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        long indexed = 0;
+        while (indexed < rebuildTo) {
+            List<LoggedMessage> batch = messageLog.read(indexed, REBUILD_BATCH);
+            if (batch.isEmpty())
+                break;
+            for (LoggedMessage loggedMessage : batch) {
+                if (loggedMessage.getSequence() > rebuildTo)
+                    break;
+                indexed = loggedMessage.getSequence();
+                index(indexed, loggedMessage.getMessage());
+            }
+            if (deltaSize >= COMPACT_THRESHOLD)
+                compact();
+        }
+        compact();
+        logger.debug(String.format("Search index has the messages till %d", indexed));
+    }
+
+    /**
+     * Index the messages which were not queued (see add) from the history, till the queue is used again.
+     *
+     * @throws InterruptedException
+     */
+    private void indexMissed() throws InterruptedException {
+        long from;
+        long to;
+        synchronized (missedLock) {
+            from = missedFrom;
+            to = missedTo;
+        }
+        while (from > 0) {
+            if (!messageLog.await(to, REBUILD_TIMEOUT))
+                logger.error("History is not written in time, some of the messages may not be searchable.");
+            long indexed = from - 1;
+            while (indexed < to) {
+                List<LoggedMessage> batch = messageLog.read(indexed, (int) Math.min(REBUILD_BATCH, to - indexed));
+                if (batch.isEmpty())
+                    break;
+                for (LoggedMessage loggedMessage : batch) {
+                    if (loggedMessage.getSequence() > to)
+                        break;
+                    indexed = loggedMessage.getSequence();
+                    index(indexed, loggedMessage.getMessage());
+                }
+                if (deltaSize >= COMPACT_THRESHOLD)
+                    compact();
+            }
+
+            synchronized (missedLock) {
+                // The messages which came meanwhile are missed too.
+                from = (missedTo > to) ? to + 1 : 0;
+                missedFrom = from;
+                to = missedTo;
+            }
+        }
+    }
+
+    /**
+     * Add the words of a message to the delta.
+     *
+     * @param sequence
+     * @param message
+     */
+    private void index(long sequence, Message message) {
+        if (message.getType() == MessageTypes.PRIVATE && !privateMessages)
+            return;
+        Set<String> words = words(message.getSafeBody());
+        if (words.isEmpty())
+            return;
+
+        Set<String> participants = new LinkedHashSet<>();
+        if (message.getType() == MessageTypes.PRIVATE) {
+            participants.add(message.getSender());
+            for (String receiver : message.getReceivers())
+                participants.add(receiver.trim());
+        }
+
+        synchronized (this) {
+            for (String word : words) {
+                if (participants.isEmpty())
+                    delta.computeIfAbsent(word, key -> new PostingList()).add(sequence);
+                else
+                    for (String participant : participants)
+                        delta.computeIfAbsent(word + USER_SEPARATOR + participant, key -> new PostingList())
+                                .add(sequence);
+            }
+            deltaSize += words.size() * Math.max(1, participants.size());
+        }
+    }
+
+    /**
+     * Make a compact part of the delta, and merge it with the newest parts which don't have more deltas than it.
+     * Only the indexer thread changes the delta and the parts, so they are read without
+     * locking here, and the searches see the old parts till all of them are replaced.
+     */
+    private void compact() {
+        if (deltaSize == 0)
+            return;
+        long start = System.currentTimeMillis();
+        List<CompactPostings> parts = new ArrayList<>(compacted);
+        CompactPostings merged = CompactPostings.of(new TreeMap<>(delta));
+        while (!parts.isEmpty() && parts.get(parts.size() - 1).deltas <= merged.deltas)
+            merged = parts.remove(parts.size() - 1).merge(merged);
+        parts.add(merged);
+        synchronized (this) {
+            compacted = parts;
+            delta = new HashMap<>();
+            deltaSize = 0;
+        }
+        logger.debug(String.format("Search index is compacted in %d ms (%d parts, the new one has %d words, %d bytes)",
+                System.currentTimeMillis() - start, parts.size(), merged.size(), merged.bytes()));
+    }
+
+    /**
+     * Returns the sorted sequence numbers of a word (or a word of a user).
+     *
+     * @param key
+     * @return
+     */
+    private long[] postings(String key) {
+        List<CompactPostings> parts;
+        long[] found;
+        synchronized (this) {
+            parts = compacted;
+            PostingList list = delta.get(key);
+            found = (list == null) ? new long[0] : list.sorted();
+        }
+        for (CompactPostings part : parts)
+            found = union(part.get(key), found);
+        return found;
+    }
+
+    /**
+     * Returns the words of a text : lower case runs of letters and digits, the short ones are skipped and the
+     * long ones are cut to MAX_WORD_LENGTH.
+     *
+     * @param text
+     * @return
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isWordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isWordChar && start == -1)
+                start = i;
+            else if (!isWordChar && start != -1) {
+                if (i - start >= MIN_WORD_LENGTH)
+                    words.add(text.substring(start, Math.min(i, start + MAX_WORD_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static long[] union(long[] first, long[] second) {
+        if (second.length == 0)
+            return first;
+        if (first.length == 0)
+            return second;
+        long[] result = new long[first.length + second.length];
+        int i = 0, j = 0, size = 0;
+        while (i < first.length || j < second.length) {
+            long next = (j == second.length || (i < first.length && first[i] <= second[j])) ? first[i++] : second[j++];
+            if (size == 0 || result[size - 1] != next)
+                result[size++] = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long[] intersection(long[] first, long[] second) {
+        long[] result = new long[Math.min(first.length, second.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j])
+                i++;
+            else if (first[i] > second[j])
+                j++;
+            else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Sequence numbers of a word in the delta, in the order which they are indexed (it's almost sorted,
+     * the messages of different clients may be indexed a bit out of order).
+     */
+    private static final class PostingList {
+
+        private long[] sequences = new long[4];
+        private int size = 0;
+
+        void add(long sequence) {
+            if (size == sequences.length)
+                sequences = Arrays.copyOf(sequences, size * 2);
+            sequences[size++] = sequence;
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(sequences, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * A compact part of the index, it's immutable. The words are sorted (found with a binary search), and
+     * the sequence numbers of each word are kept in one byte array : the first one and then the difference
+     * of each one with the previous one, as varints (7 bits per byte), so most of them take 1 or 2 bytes.
+     * The bytes of a word don't depend on the others, so merging two parts copies the bytes of the words
+     * which are only in one of them, and only the common words are encoded again.
+     */
+    private static final class CompactPostings {
+
+        private final String[] words;
+        private final int[] offsets;
+        private final int[] counts;
+        private final byte[] data;
+        private final int deltas;
+
+        private CompactPostings(String[] words, int[] offsets, int[] counts, byte[] data, int deltas) {
+            this.words = words;
+            this.offsets = offsets;
+            this.counts = counts;
+            this.data = data;
+            this.deltas = deltas;
+        }
+
+        long[] get(String word) {
+            int found = Arrays.binarySearch(words, word);
+            return (found >= 0) ? decode(found) : new long[0];
+        }
+
+        int size() {
+            return words.length;
+        }
+
+        int bytes() {
+            return offsets[words.length];
+        }
+
+        /**
+         * Returns a compact part of the delta.
+         *
+         * @param delta sorted by the words
+         * @return
+         */
+        static CompactPostings of(TreeMap<String, PostingList> delta) {
+            String[] words = new String[delta.size()];
+            int[] offsets = new int[delta.size() + 1];
+            int[] counts = new int[delta.size()];
+            Encoder encoder = new Encoder(delta.size() * 4 + 1024);
+            int i = 0;
+            for (Map.Entry<String, PostingList> entry : delta.entrySet()) {
+                long[] sequences = entry.getValue().sorted();
+                words[i] = entry.getKey();
+                counts[i] = sequences.length;
+                encoder.write(sequences);
+                offsets[++i] = encoder.size();
+            }
+            return new CompactPostings(words, offsets, counts, encoder.toByteArray(), 1);
+        }
+
+        /**
+         * Returns a new compact part which has the words of this one and the other one.
+         *
+         * @param other
+         * @return
+         */
+        CompactPostings merge(CompactPostings other) {
+            List<String> mergedWords = new ArrayList<>(words.length + other.words.length);
+            int[] mergedOffsets = new int[words.length + other.words.length + 1];
+            int[] mergedCounts = new int[words.length + other.words.length];
+            Encoder encoder = new Encoder(data.length + other.data.length + 1024);
+
+            int i = 0;
+            int j = 0;
+            while (i < words.length || j < other.words.length) {
+                int order = (j == other.words.length) ? -1 : (i == words.length) ? 1 :
+                        words[i].compareTo(other.words[j]);
+                int index = mergedWords.size();
+                if (order < 0) {
+                    mergedWords.add(words[i]);
+                    mergedCounts[index] = counts[i];
+                    encoder.write(data, offsets[i], offsets[++i]);
+                } else if (order > 0) {
+                    mergedWords.add(other.words[j]);
+                    mergedCounts[index] = other.counts[j];
+                    encoder.write(other.data, other.offsets[j], other.offsets[++j]);
+                } else {
+                    long[] sequences = union(decode(i++), other.decode(j++));
+                    mergedWords.add(other.words[j - 1]);
+                    mergedCounts[index] = sequences.length;
+                    encoder.write(sequences);
+                }
+                mergedOffsets[index + 1] = encoder.size();
+            }
+            return new CompactPostings(mergedWords.toArray(new String[0]),
+                    Arrays.copyOf(mergedOffsets, mergedWords.size() + 1),
+                    Arrays.copyOf(mergedCounts, mergedWords.size()), encoder.toByteArray(), deltas + other.deltas);
+        }
+
+        private long[] decode(int index) {
+            long[] sequences = new long[counts[index]];
+            int position = offsets[index];
+            long previous = 0;
+            for (int i = 0; i < sequences.length; i++) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous += value;
+                sequences[i] = previous;
+            }
+            return sequences;
+        }
+    }
+
+    /**
+     * Growable byte array of varints.
+     */
+    private static final class Encoder {
+
+        private byte[] bytes;
+        private int size = 0;
+
+        Encoder(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * Write the sorted sequence numbers of a word : the first one and the differences.
+         *
+         * @param sequences
+         */
+        void write(long[] sequences) {
+            long previous = 0;
+            for (long sequence : sequences) {
+                write(sequence - previous);
+                previous = sequence;
+            }
+        }
+
+        /**
+         * Copy the encoded bytes of a word from another part.
+         *
+         * @param source
+         * @param from
+         * @param to
+         */
+        void write(byte[] source, int from, int to) {
+            ensure(to - from);
+            System.arraycopy(source, from, bytes, size, to - from);
+            size += to - from;
+        }
+
+        void write(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length) + 10);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package Server.Network;
+
+import Message.Protocol.BinaryProtocol;
+import Server.Server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Non-blocking transport used by the NIO engine.
+ * It keeps the same framing as DataOutputStream.writeUTF (2 bytes length + modified UTF-8),
+ * or the binary protocol framing if the client asked for it (See BinaryProtocol),
+ * so the clients don't see any difference between the engines.
+ * Reading is done by it's EventLoop, writing can be done from any thread. Written frames
+ * are collected till flush, and then all of them are written with one gathering write.
+ * If the socket couldn't take all of them, the rest will be written by the EventLoop
+ * when the socket is writable again, and till then the writer of the client doesn't write
+ * more frames (see whenWritable), so the pending writes are at most one flushed batch.
+ */
+public class ChannelTransport implements Transport {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final int LENGTH_SIZE = 2;
+
+    private final SocketChannel channel;
+    private final ArrayDeque<ByteBuffer> pendingWrites;
+    private final FrameEncoder encoder;
+
+    private EventLoop eventLoop;
+    private SelectionKey key;
+    private ByteBuffer inbound;
+    private boolean reading = true;
+    private boolean suspended = false;
+    private boolean waitingForWritable = false;
+    private Runnable writableTask;
+    private int inboundProtocol = BinaryProtocol.TEXT_PROTOCOL;
+
+    /**
+     * Constructor. the channel must be in non-blocking mode.
+     *
+     * @param channel
+     */
+    public ChannelTransport(SocketChannel channel) {
+        this.channel = channel;
+        this.pendingWrites = new ArrayDeque<>();
+        this.encoder = new FrameEncoder();
+        this.inbound = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Add the frame to the pending writes, it will be written by the next flush.
+     *
+     * @param frame
+     * @throws IOException
+     */
+    @Override
+    public synchronized void write(Frame frame) throws IOException {
+        if (!channel.isOpen())
+            throw new ClosedChannelException();
+        byte[] prefix = encoder.prefix(frame);
+        if (Optional.ofNullable(prefix).isPresent())
+            pendingWrites.add(ByteBuffer.wrap(prefix).asReadOnlyBuffer());
+        // Frame bytes are shared between the clients, so each one gets it's own read-only view.
+        pendingWrites.add(ByteBuffer.wrap(encoder.encode(frame)).asReadOnlyBuffer());
+    }
+
+    /**
+     * It tries to write the pending frames directly, if the socket buffer was full
+     * the rest of them will be written later by the EventLoop.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (waitingForWritable || writeGathering())
+            return;
+
+        waitingForWritable = true;
+        if (Optional.ofNullable(key).isPresent())
+            eventLoop.execute(this::updateInterest);
+    }
+
+    /**
+     * Keep the task till the pending frames are written, if there are any.
+     *
+     * @param task
+     * @return
+     */
+    @Override
+    public synchronized boolean whenWritable(Runnable task) {
+        if (!waitingForWritable || !channel.isOpen())
+            return true;
+        writableTask = task;
+        return false;
+    }
+
+    @Override
+    public Packet receive() throws IOException {
+        throw new IOException("Messages of a non-blocking connection are received by it's event loop");
+    }
+
+    /**
+     * Only the EventLoop thread calls it (while handling a message of the client).
+     */
+    @Override
+    public synchronized void suspendReading() {
+        suspended = true;
+        updateInterest();
+    }
+
+    /**
+     * The EventLoop handles the messages which are already received, and then reads the next ones.
+     */
+    @Override
+    public synchronized void resumeReading() {
+        if (Optional.ofNullable(key).isPresent())
+            eventLoop.execute(() -> eventLoop.resumed(key));
+    }
+
+    /**
+     * Only the EventLoop thread calls it (while handling the handshake).
+     *
+     * @param protocol
+     */
+    @Override
+    public void upgradeInbound(int protocol) {
+        inboundProtocol = protocol;
+    }
+
+    /**
+     * Close the channel, and let the EventLoop know about it (closing a channel
+     * cancels it's key silently), so the worker of the client logs it out.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        synchronized (this) {
+            if (Optional.ofNullable(key).isPresent())
+                eventLoop.execute(() -> eventLoop.closed(key));
+        }
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    @Override
+    public String getInfo() {
+        return Server.getClientInfo(channel.socket());
+    }
+
+    /**
+     * Called by the EventLoop after registering the channel.
+     *
+     * @param eventLoop
+     * @param key
+     */
+    synchronized void registered(EventLoop eventLoop, SelectionKey key) {
+        this.eventLoop = eventLoop;
+        this.key = key;
+        updateInterest();
+    }
+
+    /**
+     * Read the available bytes from the socket into the inbound buffer.
+     * It returns -1 if the client closed the connection.
+     *
+     * @return
+     * @throws IOException
+     */
+    int read() throws IOException {
+        return channel.read(inbound);
+    }
+
+    /**
+     * Returns the next complete message of the read bytes, or null if
+     * the whole message is not received yet.
+     * The inbound buffer is always in write mode, and it's data starts from index 0.
+     *
+     * @return
+     * @throws IOException
+     */
+    Packet nextMessage() throws IOException {
+        if (inboundProtocol == BinaryProtocol.BINARY_PROTOCOL)
+            return nextFrame();
+
+        if (inbound.position() < LENGTH_SIZE)
+            return null;
+
+        int frameSize = LENGTH_SIZE + (inbound.getShort(0) & 0xFFFF);
+        if (!isReceived(frameSize))
+            return null;
+
+        String message = new DataInputStream(new ByteArrayInputStream(inbound.array(),
+                inbound.arrayOffset(), frameSize)).readUTF();
+        consume(frameSize);
+
+        return Packet.text(message);
+    }
+
+    /**
+     * Returns the next complete binary frame (type + payload) of the read bytes,
+     * or null if the whole frame is not received yet.
+     *
+     * @return
+     * @throws IOException
+     */
+    private Packet nextFrame() throws IOException {
+        int length = BinaryProtocol.readVarInt(inbound.array(), inbound.arrayOffset(),
+                inbound.arrayOffset() + inbound.position());
+        if (length == -1)
+            return null;
+        BinaryProtocol.checkLength(length);
+
+        int headerSize = BinaryProtocol.varIntSize(length);
+        if (!isReceived(headerSize + length))
+            return null;
+
+        int start = inbound.arrayOffset() + headerSize;
+        byte[] frame = Arrays.copyOfRange(inbound.array(), start, start + length);
+        consume(headerSize + length);
+
+        return Packet.binary(frame);
+    }
+
+    /**
+     * Returns true if the whole frame is in the inbound buffer, otherwise makes sure
+     * the buffer is big enough for it.
+     *
+     * @param frameSize
+     * @return
+     */
+    private boolean isReceived(int frameSize) {
+        if (inbound.position() >= frameSize)
+            return true;
+        if (inbound.capacity() < frameSize)
+            inbound = grow(inbound, frameSize);
+        return false;
+    }
+
+    /**
+     * Remove a handled frame from the inbound buffer.
+     *
+     * @param frameSize
+     */
+    private void consume(int frameSize) {
+        inbound.flip();
+        inbound.position(frameSize);
+        inbound.compact();
+        shrinkIfIdle();
+    }
+
+    /**
+     * Write the queued bytes, it's called by the EventLoop when the socket is writable.
+     *
+     * @throws IOException
+     */
+    void writePending() throws IOException {
+        Runnable task;
+        synchronized (this) {
+            if (!writeGathering())
+                return;
+            waitingForWritable = false;
+            updateInterest();
+            task = writableTask;
+            writableTask = null;
+        }
+        // The writer of the client continues with the next frames.
+        if (Optional.ofNullable(task).isPresent())
+            task.run();
+    }
+
+    /**
+     * Stop reading from the client (e.g. after logging out), the queued
+     * messages will be written till the connection is closed.
+     * Only the EventLoop thread calls it.
+     */
+    synchronized void stopReading() {
+        reading = false;
+        updateInterest();
+    }
+
+    /**
+     * Only the EventLoop thread calls it.
+     */
+    synchronized void resumed() {
+        suspended = false;
+        updateInterest();
+    }
+
+    /**
+     * Returns true if the worker of the client is handling a message on another thread (see suspendReading).
+     * Only the EventLoop thread calls it.
+     *
+     * @return
+     */
+    synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Write as much as possible of the pending frames with one system call.
+     * It returns true if all of them are written.
+     *
+     * @return
+     * @throws IOException
+     */
+    private boolean writeGathering() throws IOException {
+        if (pendingWrites.isEmpty())
+            return true;
+
+        channel.write(pendingWrites.toArray(new ByteBuffer[0]));
+        while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining())
+            pendingWrites.poll();
+
+        return pendingWrites.isEmpty();
+    }
+
+    /**
+     * Change the interest set of the selection key, only the EventLoop thread calls it.
+     */
+    private synchronized void updateInterest() {
+        if (key.isValid())
+            key.interestOps((reading && !suspended ? SelectionKey.OP_READ : 0) | (waitingForWritable ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * An idle connection only keeps a small buffer, so a lot of idle clients
+     * don't need a lot of memory.
+     */
+    private void shrinkIfIdle() {
+        if (inbound.position() == 0 && inbound.capacity() > INITIAL_BUFFER_SIZE)
+            inbound = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a bigger buffer (in write mode) which contains the data of the given buffer.
+     *
+     * @param buffer
+     * @param capacity
+     * @return
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,241 @@
+package Server.Network;
+
+import Server.Exceptions.ReceivingFromClientWasFailed;
+import Server.ServerWorker;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A selector thread of the NIO engine. It handles many client connections,
+ * reads their messages, and pass each complete message to the ServerWorker of
+ * that client. So the ServerWorker semantics are the same as the blocking engine,
+ * but we don't need a thread per client.
+ */
+public class EventLoop implements Runnable {
+
+    /**
+     * Maximum number of reads from a client in each select round,
+     * so a flooding client can't block the others.
+     */
+    private static final int READS_PER_ROUND = 16;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final Logger logger;
+
+    private volatile boolean isOnline = true;
+
+    /**
+     * Constructor.
+     *
+     * @throws IOException
+     */
+    public EventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.logger = LogManager.getLogger(EventLoop.class.getName());
+    }
+
+    /**
+     * Register a new client connection on this event loop.
+     * From now, it's messages will be passed to the worker.
+     *
+     * @param transport
+     * @param worker
+     */
+    public void register(ChannelTransport transport, ServerWorker worker) {
+        execute(() -> {
+            try {
+                SelectionKey key = transport.getChannel().register(selector, SelectionKey.OP_READ,
+                        new Connection(transport, worker));
+                transport.registered(this, key);
+            } catch (IOException e) {
+                logger.error(String.format("Registering client [%s] was not successful!", transport.getInfo()));
+                worker.connectionLost(new ReceivingFromClientWasFailed(e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Run a task on the event loop thread.
+     *
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (isOnline) {
+            try {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isWritable())
+                        write(key);
+                    if (key.isValid() && key.isReadable())
+                        read(key);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                logger.fatal("Event loop stopped!");
+                logger.fatal(e.toString());
+                isOnline = false;
+            }
+        }
+        logger.debug("Event loop is shut down!");
+    }
+
+    /**
+     * Stop the event loop and close all of it's connections.
+     */
+    public void shutDown() {
+        isOnline = false;
+        try {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Closing event loop was not successful!");
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+    }
+
+    /**
+     * Read the client bytes and pass the complete messages to it's worker.
+     * If the client closed the connection, the worker will logout the client.
+     *
+     * @param key
+     */
+    private void read(SelectionKey key) {
+        handle(key, true);
+    }
+
+    /**
+     * Called when the worker of a client has handled a message on another thread (see
+     * ChannelTransport.suspendReading), it passes the next received messages to the worker.
+     *
+     * @param key
+     */
+    void resumed(SelectionKey key) {
+        if (!key.isValid())
+            return;
+        ((Connection) key.attachment()).transport.resumed();
+        handle(key, false);
+    }
+
+    /**
+     * Pass the complete received messages of the client to it's worker, and read more bytes
+     * from the socket if read was true. It stops if the worker suspended the reading.
+     *
+     * @param key
+     * @param read
+     */
+    private void handle(SelectionKey key, boolean read) {
+        Connection connection = (Connection) key.attachment();
+        ChannelTransport transport = connection.transport;
+        ServerWorker worker = connection.worker;
+
+        try {
+            handleReceived(transport, worker);
+            int count;
+            int rounds = 0;
+            while (read && worker.isOnline() && !transport.isSuspended() && rounds++ < READS_PER_ROUND) {
+                count = transport.read();
+                if (count == -1)
+                    throw new IOException("Connection closed by the client");
+                handleReceived(transport, worker);
+                if (count == 0)
+                    break;
+            }
+
+        } catch (IOException e) {
+            key.cancel();
+            worker.connectionLost(new ReceivingFromClientWasFailed(String.format(
+                    "Receiving message from client [%s] was not successful!", transport.getInfo())));
+        } catch (RuntimeException e) {
+            // A broken message must not stop the other clients of this event loop.
+            logger.error(String.format("Handling message of client [%s] was not successful!", transport.getInfo()));
+            key.cancel();
+            worker.connectionLost(e);
+        }
+
+        // The connection will be closed by the client outbound queue, after sending the last messages.
+        if (!worker.isOnline() && key.isValid())
+            transport.stopReading();
+    }
+
+    private void handleReceived(ChannelTransport transport, ServerWorker worker) throws IOException {
+        Packet message;
+        while (worker.isOnline() && !transport.isSuspended() && (message = transport.nextMessage()) != null)
+            worker.handleMessage(message);
+    }
+
+    /**
+     * Write the queued bytes of a client.
+     *
+     * @param key
+     */
+    private void write(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            connection.transport.writePending();
+        } catch (IOException e) {
+            close(key, connection.transport);
+            connection.worker.connectionLost(new ReceivingFromClientWasFailed(String.format(
+                    "Sending message to client [%s] was not successful!", connection.transport.getInfo())));
+        }
+    }
+
+    /**
+     * Called when a connection was closed by another thread (e.g. a broken outbound queue),
+     * so the worker logs out the client.
+     *
+     * @param key
+     */
+    void closed(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        connection.worker.connectionLost(new ReceivingFromClientWasFailed(String.format(
+                "Connection of client [%s] is closed!", connection.transport.getInfo())));
+    }
+
+    private void close(SelectionKey key, ChannelTransport transport) {
+        key.cancel();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Attachment of each selection key.
+     */
+    private static class Connection {
+        private final ChannelTransport transport;
+        private final ServerWorker worker;
+
+        private Connection(ChannelTransport transport, ServerWorker worker) {
+            this.transport = transport;
+            this.worker = worker;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package Server.Network;
+
+import Message.Protocol.FrameBuilder;
+
+import java.util.Optional;
+
+import static Message.Protocol.BinaryProtocol.*;
+
+/**
+ * An encoded message, ready to be written to the client sockets.
+ * The text encoding is the same as DataOutputStream.writeUTF (2 bytes length + modified UTF-8),
+ * so a message which is longer than 65535 encoded bytes can't be sent to the text protocol clients.
+ * The binary encoding (see BinaryProtocol) is made the first time a binary client needs it,
+ * long messages are split into chunks.
+ * It's immutable, so a message can be encoded once and written to all of
+ * it's receivers (e.g. broad cast) without encoding or copying it again.
+ * Chat messages have their sequence number in the history (see MessageLog), the text encoding contains it,
+ * and binary clients get it in a SEQUENCE frame before the message (see FrameEncoder).
+ */
+public final class Frame {
+
+    private static final int MAX_LENGTH = 65535;
+
+    private final byte[] text;
+    private final String message;
+    private final byte type;
+    private final int senderId;
+    private final String sender;
+    private final String[] receivers;
+    private final String body;
+    private final long sequence;
+    private final int upgrade;
+    private final boolean sequences;
+
+    private volatile byte[] binary;
+    private volatile byte[] senderDefinition;
+    private volatile byte[] sequenceDefinition;
+
+    private Frame(byte[] text, String message, byte type, int senderId, String sender, String[] receivers,
+                  String body, long sequence, int upgrade, boolean sequences) {
+        this.text = text;
+        this.message = message;
+        this.type = type;
+        this.senderId = senderId;
+        this.sender = sender;
+        this.receivers = receivers;
+        this.body = body;
+        this.sequence = sequence;
+        this.upgrade = upgrade;
+        this.sequences = sequences;
+    }
+
+    /**
+     * Encode a message (Built by ServerMessageBuilder).
+     *
+     * @param message
+     * @return
+     */
+    public static Frame of(String message) {
+        return new Frame(encodeText(message), message, TEXT, -1, null, null, null, 0, 0, false);
+    }
+
+    /**
+     * Encode a public chat message, binary clients get it as a PUBLIC frame.
+     *
+     * @param message  the text protocol message (Built by ServerMessageBuilder)
+     * @param senderId interned id of the sender (see UserIds)
+     * @param sender
+     * @param body
+     * @param sequence sequence number of the message in the history, 0 if it's not in the history
+     * @return
+     */
+    public static Frame publicMessage(String message, int senderId, String sender, String body, long sequence) {
+        return new Frame(encodeText(message), message, PUBLIC, senderId, sender, null, body, sequence, 0, false);
+    }
+
+    /**
+     * Encode a private chat message, binary clients get it as a PRIVATE frame.
+     *
+     * @param message   the text protocol message (Built by ServerMessageBuilder)
+     * @param senderId  interned id of the sender (see UserIds)
+     * @param sender
+     * @param receivers
+     * @param body
+     * @param sequence  sequence number of the message in the history, 0 if it's not in the history
+     * @return
+     */
+    public static Frame privateMessage(String message, int senderId, String sender, String[] receivers,
+                                       String body, long sequence) {
+        return new Frame(encodeText(message), message, PRIVATE, senderId, sender, receivers, body, sequence, 0,
+                false);
+    }
+
+    /**
+     * Encode the handshake response which accepts a protocol, the frame itself is sent
+     * with the text protocol and the next frames will be sent with the accepted one.
+     *
+     * @param message
+     * @param protocol
+     * @param sequences true if the client wants the sequence numbers of the chat messages (SEQUENCE frames)
+     * @return
+     */
+    public static Frame upgrade(String message, int protocol, boolean sequences) {
+        return new Frame(encodeText(message), message, TEXT, -1, null, null, null, 0, protocol, sequences);
+    }
+
+    /**
+     * Returns true if the message can be sent with the text protocol.
+     *
+     * @return
+     */
+    public boolean hasText() {
+        return Optional.ofNullable(text).isPresent();
+    }
+
+    /**
+     * Returns the size of the message on the wire (of the text encoding, the binary one is
+     * about the same size).
+     *
+     * @return
+     */
+    public int size() {
+        return hasText() ? text.length : message.length();
+    }
+
+    /**
+     * Returns the text protocol encoding, or null if the message is too long for it.
+     *
+     * @return
+     */
+    byte[] getText() {
+        return text;
+    }
+
+    /**
+     * Returns the binary protocol encoding. Concurrent writers may encode it at the same time,
+     * but all of them make the same bytes, so it doesn't need locking.
+     *
+     * @return
+     */
+    byte[] getBinary() {
+        byte[] encoded = binary;
+        if (!Optional.ofNullable(encoded).isPresent())
+            binary = encoded = encodeBinary();
+        return encoded;
+    }
+
+    /**
+     * Returns the USER frame which defines the sender id.
+     *
+     * @return
+     */
+    byte[] getSenderDefinition() {
+        byte[] encoded = senderDefinition;
+        if (!Optional.ofNullable(encoded).isPresent())
+            senderDefinition = encoded = new FrameBuilder(USER).writeVarInt(senderId).writeText(sender).build();
+        return encoded;
+    }
+
+    /**
+     * Returns the SEQUENCE frame of the message.
+     *
+     * @return
+     */
+    byte[] getSequenceDefinition() {
+        byte[] encoded = sequenceDefinition;
+        if (!Optional.ofNullable(encoded).isPresent())
+            sequenceDefinition = encoded = new FrameBuilder(SEQUENCE).writeLong(sequence).build();
+        return encoded;
+    }
+
+    /**
+     * Returns the sequence number of the message in the history, or 0 if it's not in the history.
+     *
+     * @return
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the interned id of the sender, or -1 if it's not a chat message.
+     *
+     * @return
+     */
+    int getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns the protocol which will be used after this frame, or 0 if it doesn't change the protocol.
+     *
+     * @return
+     */
+    int getUpgrade() {
+        return upgrade;
+    }
+
+    /**
+     * Returns true if the client of the upgrade wants the SEQUENCE frames.
+     *
+     * @return
+     */
+    boolean isSequences() {
+        return sequences;
+    }
+
+    private byte[] encodeBinary() {
+        switch (type) {
+            case PUBLIC:
+                return new FrameBuilder(PUBLIC).writeVarInt(senderId).writeText(body).build();
+            case PRIVATE:
+                return new FrameBuilder(PRIVATE).writeVarInt(senderId).writeReceivers(receivers)
+                        .writeText(body).build();
+            default:
+                return new FrameBuilder(TEXT).writeText(message).build();
+        }
+    }
+
+    private static byte[] encodeText(String message) {
+        int length = message.length();
+        int encodedLength = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                encodedLength++;
+            else if (c > 0x07FF)
+                encodedLength += 3;
+            else
+                encodedLength += 2;
+        }
+
+        if (encodedLength > MAX_LENGTH)
+            return null;
+
+        byte[] bytes = new byte[encodedLength + 2];
+        int index = 0;
+        bytes[index++] = (byte) (encodedLength >>> 8);
+        bytes[index++] = (byte) encodedLength;
+
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                bytes[index++] = (byte) c;
+            } else if (c > 0x07FF) {
+                bytes[index++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytes[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[index++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+}
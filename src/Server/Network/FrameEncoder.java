@@ -0,0 +1,66 @@
+package Server.Network;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+
+import static Message.Protocol.BinaryProtocol.BINARY_PROTOCOL;
+import static Message.Protocol.BinaryProtocol.TEXT_PROTOCOL;
+
+/**
+ * Chooses the encoding of the frames of one connection. It starts with the text protocol,
+ * and switches after writing the frame which accepts another protocol (see Frame.upgrade).
+ * In binary protocol, it keeps the user ids which are defined for the client, so each id
+ * is defined once per connection, and it sends the sequence numbers of the chat messages if the client wants them.
+ * Only the writer of the connection uses it (transports serialize their writes).
+ */
+class FrameEncoder {
+
+    private final BitSet definedUsers = new BitSet();
+
+    private int protocol = TEXT_PROTOCOL;
+    private boolean sequences = false;
+
+    /**
+     * Returns the frames which must be written before the given frame (definition of
+     * the sender id, and the sequence number), or null if there is nothing to write.
+     *
+     * @param frame
+     * @return
+     */
+    byte[] prefix(Frame frame) {
+        if (protocol != BINARY_PROTOCOL || frame.getSenderId() < 0)
+            return null;
+
+        byte[] sequence = (sequences && frame.getSequence() > 0) ? frame.getSequenceDefinition() : null;
+        if (definedUsers.get(frame.getSenderId()))
+            return sequence;
+
+        definedUsers.set(frame.getSenderId());
+        byte[] senderDefinition = frame.getSenderDefinition();
+        if (!Optional.ofNullable(sequence).isPresent())
+            return senderDefinition;
+        byte[] both = Arrays.copyOf(senderDefinition, senderDefinition.length + sequence.length);
+        System.arraycopy(sequence, 0, both, senderDefinition.length, sequence.length);
+        return both;
+    }
+
+    /**
+     * Returns the bytes of the frame in the protocol of the connection.
+     *
+     * @param frame
+     * @return
+     * @throws IOException if the message is too long for the text protocol
+     */
+    byte[] encode(Frame frame) throws IOException {
+        byte[] bytes = (protocol == BINARY_PROTOCOL) ? frame.getBinary() : frame.getText();
+        if (!Optional.ofNullable(bytes).isPresent())
+            throw new IOException("Message is too long for the text protocol");
+        if (frame.getUpgrade() != 0) {
+            protocol = frame.getUpgrade();
+            sequences = frame.isSequences();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,270 @@
+package Server.Network;
+
+import Server.ServerConfiguration.OverflowPolicy;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded queue of the encoded messages which are waiting to be sent to a client.
+ * Senders only put their message in the queue, and a writer task (on the given executor)
+ * writes them to the client, so a slow client doesn't block the other clients
+ * (e.g. during a broad cast).
+ * The writer task is only scheduled when there is something to write, so an idle
+ * client doesn't need a thread. It writes all of the waiting messages and flushes them
+ * together, so the messages which pile up are sent with one flush.
+ * If the transport couldn't send a flushed batch yet (a slow client of the NIO engine), the writer
+ * stops till the transport is writable again, so the queue is the only buffer of the client and
+ * the overflow policy is applied when it's full.
+ */
+public class OutboundQueue {
+
+    /**
+     * Maximum number of messages in one flush.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final Transport transport;
+    private final BlockingQueue<Frame> queue;
+    private final Executor writerExecutor;
+    private final OverflowPolicy overflowPolicy;
+    private final long timeout;
+    private final long flushDelay;
+    private final Logger logger;
+
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+
+    /**
+     * Messages which are waiting for space in the full queue (BACKPRESSURE policy, see trySend).
+     */
+    private final Queue<Frame> waitingFrames = new ArrayDeque<>();
+    private final Object waitingLock = new Object();
+
+    private volatile boolean closeRequested = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param transport
+     * @param writerExecutor
+     * @param capacity
+     * @param overflowPolicy
+     * @param timeout        maximum waiting time of BACKPRESSURE policy (milliseconds)
+     * @param flushDelay     waiting time (microseconds) for more messages before flushing
+     */
+    public OutboundQueue(Transport transport, Executor writerExecutor, int capacity,
+                         OverflowPolicy overflowPolicy, long timeout, long flushDelay) {
+        this.transport = transport;
+        this.writerExecutor = writerExecutor;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.timeout = timeout;
+        this.flushDelay = flushDelay;
+        this.logger = LogManager.getLogger(OutboundQueue.class.getName());
+    }
+
+    /**
+     * Put a message in the queue. if the queue was full, it acts based on
+     * the overflow policy. it throws IOException if the client is (or got) disconnected.
+     *
+     * @param frame
+     * @throws IOException
+     */
+    public void send(Frame frame) throws IOException {
+        if (!trySend(frame))
+            awaitSpace();
+    }
+
+    /**
+     * Same as send, but it doesn't wait for space in the queue : if the queue was full and the overflow policy is
+     * BACKPRESSURE, the message is kept (after the other waiting ones) and it returns false, then the sender
+     * has to call awaitSpace. So a sender can put a message in the queues of many clients while it holds a lock,
+     * and wait for the slow ones after releasing it.
+     *
+     * @param frame
+     * @return
+     * @throws IOException
+     */
+    public boolean trySend(Frame frame) throws IOException {
+        if (closeRequested || closed)
+            throw new IOException("Connection is closed");
+
+        synchronized (waitingFrames) {
+            // The waiting messages go first, so the messages are sent in order.
+            if (waitingFrames.isEmpty() && queue.offer(frame)) {
+                scheduleWriter();
+                return true;
+            }
+            switch (overflowPolicy) {
+                case DROP:
+                    logger.debug(String.format("Outbound queue of [%s] is full, message dropped!",
+                            transport.getInfo()));
+                    return true;
+                case BACKPRESSURE:
+                    waitingFrames.add(frame);
+                    return false;
+            }
+        }
+        throw disconnect();
+    }
+
+    /**
+     * Wait till the messages which are kept by trySend are in the queue, at most for the timeout for each of them.
+     * If the client was too slow, it will be disconnected and it throws IOException.
+     *
+     * @throws IOException
+     */
+    public void awaitSpace() throws IOException {
+        synchronized (waitingLock) {
+            while (true) {
+                Frame frame;
+                synchronized (waitingFrames) {
+                    frame = waitingFrames.peek();
+                }
+                if (frame == null)
+                    return;
+                if (!offer(frame)) {
+                    synchronized (waitingFrames) {
+                        waitingFrames.clear();
+                    }
+                    // Client was too slow, so it will be disconnected.
+                    throw disconnect();
+                }
+                synchronized (waitingFrames) {
+                    waitingFrames.poll();
+                }
+                scheduleWriter();
+            }
+        }
+    }
+
+    /**
+     * Close the connection after writing the queued messages.
+     */
+    public void close() {
+        closeRequested = true;
+        scheduleWriter();
+    }
+
+    /**
+     * Disconnect the client which couldn't take the message, it returns the exception of the sender.
+     *
+     * @return
+     */
+    private IOException disconnect() {
+        fail(new IOException(String.format("Outbound queue of [%s] is full, client disconnected!",
+                transport.getInfo())));
+        return new IOException("Connection is closed");
+    }
+
+    /**
+     * Wait for space in the queue, at most for the timeout.
+     *
+     * @param frame
+     * @return
+     */
+    private boolean offer(Frame frame) {
+        try {
+            return queue.offer(frame, timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void scheduleWriter() {
+        if (writerScheduled.compareAndSet(false, true))
+            writerExecutor.execute(this::write);
+    }
+
+    /**
+     * The writer task, it writes all of the queued messages. the messages are flushed
+     * in batches, when the queue is empty (and no more message received during the flush delay)
+     * or the batch is full.
+     */
+    private void write() {
+        boolean paused = false;
+        try {
+            int batchSize = 0;
+            Frame frame;
+            while (!closed && !(paused = isPaused()) && (frame = nextFrame(batchSize > 0)) != null) {
+                transport.write(frame);
+                if (++batchSize == MAX_BATCH_SIZE) {
+                    transport.flush();
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0)
+                transport.flush();
+
+            if (closeRequested && !closed && !paused) {
+                closed = true;
+                transport.close();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            writerScheduled.set(false);
+            // A message may be queued after the last poll and before clearing the flag.
+            // A paused writer is scheduled by the transport when it's writable.
+            if (!paused && !closed && (!queue.isEmpty() || closeRequested))
+                scheduleWriter();
+        }
+    }
+
+    /**
+     * Returns true if the transport is still sending the previous batch, then the writer
+     * will be scheduled again when it's done.
+     *
+     * @return
+     */
+    private boolean isPaused() {
+        return !transport.whenWritable(this::scheduleWriter);
+    }
+
+    /**
+     * Returns the next queued frame, if the queue was empty and there are written messages
+     * which are not flushed yet, it waits for the flush delay to collect more messages.
+     *
+     * @param hasUnflushedMessages
+     * @return
+     */
+    private Frame nextFrame(boolean hasUnflushedMessages) {
+        Frame frame = queue.poll();
+        if (frame != null || !hasUnflushedMessages || flushDelay == 0 || closeRequested)
+            return frame;
+
+        try {
+            return queue.poll(flushDelay, TimeUnit.MICROSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Close the broken (or too slow) connection, so the ServerWorker of the client
+     * logs it out.
+     *
+     * @param e
+     */
+    private void fail(IOException e) {
+        logger.error(e.getMessage());
+        closed = true;
+        queue.clear();
+        try {
+            transport.close();
+        } catch (IOException ex) {
+            logger.error(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package Server.Network;
+
+/**
+ * A message received from a client. In text protocol it's the received string, and in
+ * binary protocol it's the received frame (type + payload), which is decoded by the ServerWorker.
+ */
+public final class Packet {
+
+    private final String text;
+    private final byte[] frame;
+
+    private Packet(String text, byte[] frame) {
+        this.text = text;
+        this.frame = frame;
+    }
+
+    public static Packet text(String text) {
+        return new Packet(text, null);
+    }
+
+    public static Packet binary(byte[] frame) {
+        return new Packet(null, frame);
+    }
+
+    public boolean isText() {
+        return frame == null;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public byte[] getFrame() {
+        return frame;
+    }
+}
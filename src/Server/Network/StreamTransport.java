@@ -0,0 +1,83 @@
+package Server.Network;
+
+import Message.Protocol.BinaryProtocol;
+import Server.Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Optional;
+
+/**
+ * Blocking transport, it uses the socket streams (writeUTF/readUTF)
+ * and used by the thread per client (BLOCKING) engine.
+ * Written frames are buffered, so a batch of messages is sent with one flush.
+ */
+public class StreamTransport implements Transport {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Socket clientSocket;
+    private final OutputStream toClient;
+    private final DataInputStream fromClient;
+    private final FrameEncoder encoder;
+
+    private volatile int inboundProtocol = BinaryProtocol.TEXT_PROTOCOL;
+
+    /**
+     * Constructor.
+     *
+     * @param clientSocket
+     * @throws IOException
+     */
+    public StreamTransport(Socket clientSocket) throws IOException {
+        this.clientSocket = clientSocket;
+        this.toClient = new BufferedOutputStream(clientSocket.getOutputStream(), BUFFER_SIZE);
+        this.fromClient = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream(), BUFFER_SIZE));
+        this.encoder = new FrameEncoder();
+    }
+
+    @Override
+    public synchronized void write(Frame frame) throws IOException {
+        byte[] prefix = encoder.prefix(frame);
+        if (Optional.ofNullable(prefix).isPresent())
+            toClient.write(prefix);
+        toClient.write(encoder.encode(frame));
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        toClient.flush();
+    }
+
+    @Override
+    public Packet receive() throws IOException {
+        if (inboundProtocol == BinaryProtocol.BINARY_PROTOCOL)
+            return Packet.binary(BinaryProtocol.readFrame(fromClient));
+        return Packet.text(fromClient.readUTF());
+    }
+
+    @Override
+    public void upgradeInbound(int protocol) {
+        inboundProtocol = protocol;
+    }
+
+    @Override
+    public void close() throws IOException {
+        clientSocket.close();
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return clientSocket.getInetAddress();
+    }
+
+    @Override
+    public String getInfo() {
+        return Server.getClientInfo(clientSocket);
+    }
+}
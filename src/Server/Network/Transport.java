@@ -0,0 +1,98 @@
+package Server.Network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * The connection between the server and a client.
+ * Server.Client sends (and in blocking mode receives) it's messages through it,
+ * so ServerWorker doesn't care about the way the server handles the sockets.
+ */
+public interface Transport {
+
+    /**
+     * Write an encoded message to the client. The written messages may be buffered
+     * till the next flush, so a batch of messages needs only one flush.
+     * Implementations serialize the writes, so frames are never interleaved.
+     *
+     * @param frame
+     * @throws IOException
+     */
+    void write(Frame frame) throws IOException;
+
+    /**
+     * Send the written messages to the client.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * Returns true if the flushed messages are sent (or handed to the socket), so more messages can be written.
+     * A non-blocking transport returns false while the client is too slow to take them, and runs the task
+     * when they are sent, so the writer stops till then and the next messages stay in the (bounded)
+     * outbound queue of the client.
+     * Blocking transports always return true, their flush blocks till the client takes the messages.
+     *
+     * @param task
+     * @return
+     */
+    default boolean whenWritable(Runnable task) {
+        return true;
+    }
+
+    /**
+     * Wait for the next message of the client.
+     * Only blocking transports support it, event loop based transports
+     * pass the received messages to the ServerWorker by them self.
+     *
+     * @return
+     * @throws IOException
+     */
+    Packet receive() throws IOException;
+
+    /**
+     * Stop passing the received messages of the client to it's worker till resumeReading, so the worker can
+     * handle a message which may block (e.g. reading the history) on another thread, and the next messages
+     * are handled after it. Only event loop based transports need it, the reader thread of a blocking
+     * transport handles each message before receiving the next one.
+     */
+    default void suspendReading() {
+    }
+
+    /**
+     * Continue passing the received messages to the worker (see suspendReading), it can be called by any thread.
+     */
+    default void resumeReading() {
+    }
+
+    /**
+     * Read the next messages of the client with the given protocol (see BinaryProtocol).
+     * It's called by the reader of the connection, after handling the handshake.
+     *
+     * @param protocol
+     */
+    void upgradeInbound(int protocol);
+
+    /**
+     * Close the connection.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * Return the client address.
+     *
+     * @return
+     */
+    InetAddress getAddress();
+
+    /**
+     * Return client info with this format:
+     * [HOST IP ADDRESS:PORT]
+     *
+     * @return
+     */
+    String getInfo();
+}
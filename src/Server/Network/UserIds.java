@@ -0,0 +1,26 @@
+package Server.Network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interned ids of the user names, which are used by the binary protocol instead of the names.
+ * The ids are never reused, so a client can keep the defined ids for the whole connection
+ * (and a user who logs in again gets the same id).
+ * Only the names of the logged in users (and "Server") are interned.
+ */
+public class UserIds {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Returns the id of the user, a new id will be assigned if it doesn't have any.
+     *
+     * @param userName
+     * @return
+     */
+    public int idOf(String userName) {
+        return ids.computeIfAbsent(userName, name -> nextId.getAndIncrement());
+    }
+}
@@ -1,14 +1,38 @@
 package Server;
 
 import Server.Exceptions.SendingToClientWasFailed;
+import Server.FileSharing.BandwidthScheduler;
+import Server.FileSharing.FileStore;
+import Server.FileSharing.TransferRegistry;
+import Server.FileSharing.Utils;
+import Server.History.LoggedMessage;
+import Server.History.MessageLog;
+import Server.History.OfflineInbox;
+import Server.History.SearchIndex;
+import Server.Network.ChannelTransport;
+import Server.Network.EventLoop;
+import Server.Network.Frame;
+import Server.Network.StreamTransport;
+import Server.Network.Transport;
+import Server.Network.UserIds;
+import Message.Message;
+import Message.MessageTypes;
+import Message.Query;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
@@ -16,36 +40,81 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static Message.StaticMessages.SERVER_IS_OFFLINE;
+import static Message.StaticMessages.BEFORE;
+import static Message.Status.Status.HISTORY_PASSED;
+import static Message.Status.Status.SEARCH_PASSED;
 import static Message.Status.Status.SERVER_ERROR;
 
 public class Server {
 
+    private static final int CATCH_UP_BATCH = 256;
+    private static final long CATCH_UP_TIMEOUT = 5_000;
+    private static final int HISTORY_SCAN_LIMIT = 10_000;
+
     private final int MAIN_PORT;
     private final int FILE_SHARING_PORT;
     private final int CAPACITY;
 
     private final ExecutorService CLIENT_EXECUTOR;
+    private final ExecutorService FILE_SHARING_EXECUTOR;
+    private final ExecutorService OUTBOUND_EXECUTOR;
+    private final ExecutorService STREAM_EXECUTOR;
     private final ClientsManager clientsManager;
+    private final UserIds userIds;
+    private final ServerConfiguration configuration;
+    private final FileStore fileStore;
+    private final BandwidthScheduler bandwidthScheduler;
     private final Logger logger;
+    //The chat messages get their sequence number and are put in the outbound queues under it, so every client gets
+    //them in order. Nothing waits under it (see Client.deliver), the slow clients are waited for after it.
+    private final Object routingLock = new Object();
 
     private int connectedClients = 0;
+    private EventLoop[] eventLoops = new EventLoop[0];
+    private int nextEventLoop = 0;
 
     private ServerSocket serverSocket;
     private boolean isOnline;
     private ServerSocket fileSharingSocket;
+    private TransferRegistry transferRegistry;
+    private MessageLog messageLog;
+    private OfflineInbox offlineInbox;
+    private SearchIndex searchIndex;
 
 
     public Server(int port, int capacity) {
+        this(port, capacity, ServerConfiguration.defaults());
+    }
+
+    public Server(int port, int capacity, ServerConfiguration configuration) {
         BasicConfigurator.configure();
 
         this.MAIN_PORT = port;
         this.FILE_SHARING_PORT = MAIN_PORT + 1;
         this.CAPACITY = capacity;
-        this.CLIENT_EXECUTOR = Executors.newFixedThreadPool(CAPACITY);
+        this.configuration = configuration;
+
+        if (configuration.getThreads() == ServerConfiguration.Threads.VIRTUAL) {
+            this.CLIENT_EXECUTOR = TaskExecutors.newVirtualThreadExecutor(CAPACITY);
+            this.FILE_SHARING_EXECUTOR = TaskExecutors.newVirtualThreadExecutor(
+                    (configuration.getFileSharingTasks() > 0) ? configuration.getFileSharingTasks() : CAPACITY);
+            this.OUTBOUND_EXECUTOR = TaskExecutors.newVirtualThreadExecutor(CAPACITY);
+            this.STREAM_EXECUTOR = TaskExecutors.newVirtualThreadExecutor(CAPACITY * configuration.getUserStreams());
+        } else {
+            this.CLIENT_EXECUTOR = Executors.newFixedThreadPool(CAPACITY);
+            this.FILE_SHARING_EXECUTOR = null; // Each ServerWorker makes it's own pools.
+            this.OUTBOUND_EXECUTOR = Executors.newCachedThreadPool();
+            this.STREAM_EXECUTOR = Executors.newCachedThreadPool();
+        }
 
         this.isOnline = true;
         this.logger = LogManager.getLogger(Server.class.getName());
         this.clientsManager = new ClientsManager(CAPACITY);
+        this.userIds = new UserIds();
+        this.fileStore = new FileStore(new File(Utils.rebuildPath(String.format("%s\\DownloadedFiles",
+                System.getProperty("user.dir")))));
+        this.bandwidthScheduler = new BandwidthScheduler(configuration.getGlobalRate() * 1024L,
+                configuration.getUserRate() * 1024L);
     }
 
     /**
@@ -68,30 +137,36 @@ public class Server {
      * if port was valid, and server had enough capacity for new client
      * it will wait for connection request from a client after connecting a client
      * run a new thread (ServerWorker class) to a thread handle all of the client requests.
+     * In NIO engine, instead of a new thread, the client will be registered on one of the
+     * event loops.
      *
      * @return
      */
     public void runServer() {
         initializeSocket();
+        startEventLoops();
+        startTransferRegistry();
+        startMessageLog();
         showCurrentState();
 
         while (isOnline) {
 
             try {
 
-                Socket connectedClient = serverSocket.accept();
+                Transport connectedClient = acceptClient();
 
                 if (connectedClients < CAPACITY) {
 
-                    logger.debug(String.format("Client [%s] accepted", getClientInfo(connectedClient)));
+                    logger.debug(String.format("Client [%s] accepted", connectedClient.getInfo()));
 
-                    CLIENT_EXECUTOR.execute(new ServerWorker(
-                            new Client(this, connectedClient, fileSharingSocket)));
+                    runWorker(new ServerWorker(new Client(this, connectedClient)),
+                            connectedClient);
 
                     connectedClients++;
 
                     showCurrentState();
-                }
+                } else
+                    connectedClient.close();
 
             } catch (IOException e) {
                 logger.error(String.format("There was a problem with connecting to the Client"));
@@ -102,19 +177,132 @@ public class Server {
         logger.debug("Server is ShutDown!");
     }
 
+    /**
+     * Wait for the next client and return it's connection
+     * based on the server engine.
+     *
+     * @return
+     * @throws IOException
+     */
+    private Transport acceptClient() throws IOException {
+        if (configuration.getEngine() == ServerConfiguration.Engine.NIO) {
+            SocketChannel channel = serverSocket.getChannel().accept();
+            channel.configureBlocking(false);
+            return new ChannelTransport(channel);
+        }
+        return new StreamTransport(serverSocket.accept());
+    }
+
+    /**
+     * Run the worker of a new client, on a new thread (BLOCKING engine)
+     * or on one of the event loops (NIO engine, round-robin).
+     *
+     * @param worker
+     * @param transport
+     */
+    private void runWorker(ServerWorker worker, Transport transport) {
+        if (transport instanceof ChannelTransport) {
+            eventLoops[nextEventLoop].register((ChannelTransport) transport, worker);
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+        } else
+            CLIENT_EXECUTOR.execute(worker);
+    }
+
     /**
      * Initializing server socket.
      */
     private void initializeSocket() {
         try {
-            serverSocket = new ServerSocket(MAIN_PORT);
-            fileSharingSocket = new ServerSocket(FILE_SHARING_PORT);
+            if (configuration.getEngine() == ServerConfiguration.Engine.NIO) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.bind(new InetSocketAddress(MAIN_PORT));
+                serverSocket = channel.socket();
+            } else
+                serverSocket = new ServerSocket(MAIN_PORT);
+            // File sharing sockets need channels for zero-copy transfers (see Transfer.FileTransfer).
+            fileSharingSocket = ServerSocketChannel.open().bind(new InetSocketAddress(FILE_SHARING_PORT)).socket();
         } catch (IOException e) {
             logger.fatal(String.format("Port %d is not usable!", MAIN_PORT));
             isOnline = false;
         }
     }
 
+    /**
+     * In NIO engine, it starts the event loop threads.
+     */
+    private void startEventLoops() {
+        if (!isOnline || configuration.getEngine() != ServerConfiguration.Engine.NIO)
+            return;
+
+        try {
+            eventLoops = new EventLoop[configuration.getEventLoops()];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                new Thread(eventLoops[i], String.format("EventLoop-%d", i)).start();
+            }
+            logger.debug(String.format("Server is running with %d event loops.", eventLoops.length));
+        } catch (IOException e) {
+            logger.fatal("Starting event loops was not successful!");
+            isOnline = false;
+        }
+    }
+
+    /**
+     * It starts accepting the data connections of the file transfers (see TransferRegistry).
+     */
+    private void startTransferRegistry() {
+        if (!isOnline)
+            return;
+
+        transferRegistry = new TransferRegistry(fileSharingSocket, configuration.getTransferTimeout());
+        new Thread(transferRegistry, "FileSharingAcceptor").start();
+    }
+
+    /**
+     * It opens the history (see MessageLog) and starts it's writer thread, the search index of the history
+     * (see SearchIndex) and the inboxes of the offline users (see OfflineInbox) which are kept in the history.
+     * If the history is not usable, the server works without them.
+     */
+    private void startMessageLog() {
+        if (!isOnline || !configuration.isHistory())
+            return;
+
+        try {
+            long segmentSize = configuration.getHistorySegmentSize() * 1024L * 1024L;
+            messageLog = new MessageLog(new File(Utils.rebuildPath(String.format("%s\\History",
+                    System.getProperty("user.dir")))), (int) Math.min(segmentSize, Integer.MAX_VALUE));
+            new Thread(messageLog, "MessageLogWriter").start();
+        } catch (IOException e) {
+            logger.error(String.format("History is not usable: %s", e.getMessage()));
+            return;
+        }
+
+        if (configuration.getSearchLimit() > 0) {
+            // Anyone who logs in with a name can search it's private messages, like the private history.
+            if (!configuration.isPrivateHistory())
+                logger.debug("Private messages are not searchable, they need server.privateHistory.");
+            searchIndex = new SearchIndex(messageLog, configuration.isPrivateHistory());
+            new Thread(searchIndex, "SearchIndexer").start();
+        }
+
+        if (configuration.getInboxLimit() <= 0)
+            return;
+        // The offline messages are given to anyone who logs in with the name (like the private history), and the
+        // ones in the range of the missed messages are sent by the catch-up (see ServerWorker.welcomeMessages),
+        // so the inboxes need it.
+        if (!configuration.isPrivateHistory()) {
+            logger.debug("Offline inboxes are disabled, they need server.privateHistory.");
+            return;
+        }
+        try {
+            offlineInbox = new OfflineInbox(new File(Utils.rebuildPath(String.format("%s\\Inbox",
+                    System.getProperty("user.dir")))), configuration.getInboxLimit(), configuration.getInboxUsers(),
+                    configuration.getInboxSize() * 1024L * 1024L);
+        } catch (IOException e) {
+            logger.error(String.format("Inbox is not usable: %s", e.getMessage()));
+        }
+    }
+
     private void showCurrentState() {
         int cap = CAPACITY - connectedClients;
         if (cap > 0)
@@ -135,7 +323,16 @@ public class Server {
         connectedClients = CAPACITY + 1;
         try {
             disconnectAllClients();
+            for (EventLoop eventLoop : eventLoops)
+                eventLoop.shutDown();
+            CLIENT_EXECUTOR.shutdown();
+            OUTBOUND_EXECUTOR.shutdown();
+            STREAM_EXECUTOR.shutdown();
+            Optional.ofNullable(FILE_SHARING_EXECUTOR).ifPresent(ExecutorService::shutdown);
+            Optional.ofNullable(messageLog).ifPresent(MessageLog::close);
+            Optional.ofNullable(searchIndex).ifPresent(SearchIndex::close);
             serverSocket.close();
+            fileSharingSocket.close();
         } catch (IOException e) {
             logger.fatal("Closing Server Socket was not successful");
         }
@@ -148,10 +345,9 @@ public class Server {
      * @return
      */
     private void disconnectAllClients() {
-        for (String userName : getOnlineUsers()) {
-            sendMessageToClient(ServerMessageBuilder.responseBuilder(SERVER_ERROR, SERVER_IS_OFFLINE), userName);
+        broadCastMessage(ServerMessageBuilder.responseBuilder(SERVER_ERROR, SERVER_IS_OFFLINE));
+        for (String userName : getOnlineUsers())
             disconnectClient(userName);
-        }
     }
 
     /**
@@ -167,36 +363,404 @@ public class Server {
         return clientsManager.addClient(client, userName);
     }
 
+    /**
+     * Same as addClient, the live messages of the client are held (see Client.holdLiveMessages) and it returns
+     * the sequence number of the last logged message, or -1 if the client is not added.
+     * It's done under the routing lock, so each chat message is either logged before it (its sequence number is
+     * at most the returned one) or held for the client.
+     *
+     * @param client
+     * @param userName
+     * @return
+     */
+    protected long addHeldClient(Client client, String userName) {
+        synchronized (routingLock) {
+            client.holdLiveMessages();
+            if (!addClient(client, userName))
+                return -1;
+            return Optional.ofNullable(messageLog).isPresent() ? messageLog.getLastSequence() : 0;
+        }
+    }
+
     /**
      * Get a message and send it for all client
      * clients list will be given from clientManager.
+     * The message will be encoded once for all of the clients.
      *
      * @param message
      */
     public void broadCastMessage(String message) {
-        for (String userName : clientsManager.getUserNameList())
-            sendMessageToClient(message, userName);
+        broadCastMessage(Frame.of(message));
+    }
+
+    /**
+     * Build a public chat message and send it for all client.
+     * Text protocol clients get the message built by ServerMessageBuilder, and the binary
+     * protocol clients get a PUBLIC frame.
+     *
+     * @param body
+     * @param length
+     * @param sender
+     */
+    public void broadCastPublicMessage(String body, long length, String sender) {
+        Map<String, Client> waiting = new LinkedHashMap<>();
+        synchronized (routingLock) {
+            long sequence = log(new Message(sender, null, body, length, MessageTypes.PUBLIC));
+            broadCastMessage(Frame.publicMessage(ServerMessageBuilder.publicMessage(body, length, sender, sequence),
+                    userIds.idOf(sender), sender, body, sequence), waiting);
+        }
+        awaitDelivery(waiting);
     }
 
     /**
      * Get a message form a client and will try to send it to
      * the list of clients. and returns a list from clients which
      * couldn't receive message (or didn't save)
+     * The message will be encoded once for all of the receivers.
      *
      * @param message
      * @param receivers
      * @return
      */
     public String[] sendPrivateMessage(String message, String[] receivers) {
+        return sendPrivateMessage(Frame.of(message), receivers);
+    }
+
+    /**
+     * Build a private chat message and send it to the list of receivers, it returns
+     * the receivers which couldn't receive the message.
+     * Text protocol clients get the message built by ServerMessageBuilder, and the binary
+     * protocol clients get a PRIVATE frame.
+     * The message is kept in the inbox of the receivers which are not online (see OfflineInbox), they are added
+     * to storedReceivers instead of the returned ones. The online receivers which couldn't get it are returned.
+     *
+     * @param body
+     * @param length
+     * @param sender
+     * @param receivers
+     * @param storedReceivers the receivers which get the message at their next login are added to it
+     * @return
+     */
+    public String[] sendPrivateMessage(String body, long length, String sender, String[] receivers,
+                                       List<String> storedReceivers) {
+        long sequence;
+        List<String> rejectedList;
+        List<String> offline = new LinkedList<>();
+        Map<String, Client> waiting = new LinkedHashMap<>();
+        synchronized (routingLock) {
+            sequence = log(new Message(sender, receivers, body, length, MessageTypes.PRIVATE));
+            rejectedList = sendPrivateMessage(Frame.privateMessage(ServerMessageBuilder.privateMessage(body, length,
+                    sender, receivers, sequence), userIds.idOf(sender), sender, receivers, body, sequence), receivers,
+                    waiting, offline);
+        }
+        rejectedList.addAll(awaitDelivery(waiting));
+        //A message which is not logged (see MessageLog.append) can't be kept in an inbox.
+        if (offline.isEmpty() || sequence == 0 || !Optional.ofNullable(offlineInbox).isPresent()) {
+            rejectedList.addAll(offline);
+            return rejectedList.toArray(new String[0]);
+        }
+
+        // Only the receivers which are not online are kept, a message which an online receiver couldn't get
+        // (e.g. it's too slow) would fail the same way at it's next login.
+        for (String receiver : offline) {
+            if (offlineInbox.store(receiver.trim(), sequence))
+                storedReceivers.add(receiver);
+            else
+                rejectedList.add(receiver);
+        }
+        return rejectedList.toArray(new String[0]);
+    }
+
+    /**
+     * Add a chat message to the history (and the search index), it returns it's sequence number
+     * (or 0 without history, or if the message is too large for it).
+     *
+     * @param message
+     * @return
+     */
+    private long log(Message message) {
+        if (!Optional.ofNullable(messageLog).isPresent())
+            return 0;
+        long sequence = messageLog.append(message);
+        if (sequence > 0 && Optional.ofNullable(searchIndex).isPresent())
+            searchIndex.add(sequence, message);
+        return sequence;
+    }
+
+    /**
+     * Send the chat messages of the history which the client missed (after afterSequence, till toSequence),
+     * in batches of CATCH_UP_BATCH. Private messages are sent only to their sender and receivers, and the messages
+     * which are too long for the client are skipped (see sendHistoryFrame).
+     * It returns the sequence number of the last sent message.
+     *
+     * @param client
+     * @param afterSequence last seen sequence number of the client (see ServerWorker.welcomeMessages)
+     * @param toSequence    last message which the client didn't get live
+     * @return
+     * @throws SendingToClientWasFailed
+     */
+    protected long catchUp(Client client, long afterSequence, long toSequence) throws SendingToClientWasFailed {
+        long sent = afterSequence;
+        try {
+            if (!messageLog.await(toSequence, CATCH_UP_TIMEOUT))
+                logger.error("History is not written in time, some of the missed messages may not be sent.");
+        } catch (InterruptedException e) {
+            return sent;
+        }
+
+        while (sent < toSequence) {
+            List<LoggedMessage> batch = messageLog.read(sent, CATCH_UP_BATCH);
+            if (batch.isEmpty())
+                break;
+            for (LoggedMessage loggedMessage : batch) {
+                if (loggedMessage.getSequence() > toSequence)
+                    return sent;
+                sent = loggedMessage.getSequence();
+                if (isVisible(loggedMessage.getMessage(), client.getUserName()))
+                    sendHistoryFrame(client, loggedMessage);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Returns the sequence numbers of the messages of the client's inbox (see OfflineInbox), they are kept till
+     * removeInbox. The client is a known user of the inboxes after this.
+     *
+     * @param client
+     * @return
+     */
+    protected long[] readInbox(Client client) {
+        if (!Optional.ofNullable(offlineInbox).isPresent())
+            return new long[0];
+        offlineInbox.addUser(client.getUserName());
+        return offlineInbox.read(client.getUserName());
+    }
+
+    /**
+     * Remove the messages of the client's inbox which are read (see readInbox), it's called when they are sent.
+     *
+     * @param client
+     * @param sequences
+     */
+    protected void removeInbox(Client client, long[] sequences) {
+        if (Optional.ofNullable(offlineInbox).isPresent())
+            offlineInbox.remove(client.getUserName(), sequences.length);
+    }
+
+    /**
+     * Send the messages of the client's inbox (see readInbox) which are after afterSequence and till toSequence,
+     * they are the private messages which are sent to the client when it was offline. They are sent like the
+     * catch-up ones with their sequence number, so the client can skip the ones which it has already seen.
+     * It returns false if the history is not written in time, then some of the messages may not be sent and the
+     * inbox must be kept (see removeInbox).
+     *
+     * @param client
+     * @param sequences
+     * @param afterSequence
+     * @param toSequence
+     * @return
+     * @throws SendingToClientWasFailed
+     */
+    protected boolean flushInbox(Client client, long[] sequences, long afterSequence, long toSequence)
+            throws SendingToClientWasFailed {
+        if (sequences.length == 0 || sequences[0] > toSequence || sequences[sequences.length - 1] <= afterSequence)
+            return true;
+        boolean written;
+        try {
+            written = messageLog.await(Math.min(toSequence, sequences[sequences.length - 1]), CATCH_UP_TIMEOUT);
+            if (!written)
+                logger.error("History is not written in time, some of the offline messages may not be sent.");
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        int sent = 0;
+        for (long sequence : sequences) {
+            if (sequence <= afterSequence || sequence > toSequence)
+                continue;
+            List<LoggedMessage> found = messageLog.read(sequence - 1, 1);
+            if (found.isEmpty() || found.get(0).getSequence() != sequence)
+                continue;
+            if (sendHistoryFrame(client, found.get(0)))
+                sent++;
+        }
+        logger.debug(String.format("%s got %d offline messages", client.getUserName(), sent));
+        return written;
+    }
+
+    /**
+     * Send a page of the history to the client (the history command), the last messages which are before the
+     * sequence number and the time, and which the client can see (see isVisible). At most server.historyPage
+     * messages are sent, each one in a HISTORY_PASSED response (the same text as it was sent live, with it's
+     * sequence number), from the oldest one. The page ends with "before<SEQUENCE>", the sequence number which
+     * the next (older) page is before, or 0 if there isn't any older message.
+     * A time is found with the index of the history, and at most HISTORY_SCAN_LIMIT messages are read for
+     * a page, so a page doesn't read the whole history.
+     *
+     * @param client
+     * @param query the sequence number, time and limit of the page
+     * @throws SendingToClientWasFailed
+     */
+    protected void sendHistory(Client client, Query query) throws SendingToClientWasFailed {
+        long beforeTime = query.getBeforeTime();
+        long beforeSequence = query.getBeforeSequence();
+        long limit = query.getLimit();
+        long next = 0;
+        if (Optional.ofNullable(messageLog).isPresent()) {
+            long before = beforeSequence;
+            if (beforeTime != Long.MAX_VALUE)
+                before = Math.min(before, messageLog.sequenceAt(beforeTime));
+
+            List<LoggedMessage> page = new LinkedList<>();
+            next = messageLog.readBefore(before, (int) Math.min(limit, configuration.getHistoryPage()),
+                    HISTORY_SCAN_LIMIT, message -> isVisible(message, client.getUserName()), page);
+            for (LoggedMessage loggedMessage : page) {
+                Frame frame = Frame.of(ServerMessageBuilder.responseBuilder(HISTORY_PASSED,
+                        historyText(loggedMessage)));
+                // A message which is too long for the client is skipped, so the rest of the page is still sent.
+                if (client.canReceive(frame))
+                    client.sendMessageToClient(frame);
+            }
+        }
+        client.sendMessageToClient(ServerMessageBuilder.responseBuilder(HISTORY_PASSED,
+                String.format("%s%d>", BEFORE, next)));
+    }
+
+    /**
+     * Send the result of a search (the search command) to the client, the sequence numbers of the last messages
+     * which have all of the words of the query and which the client can see, the newest one first. At most
+     * server.searchLimit of them are sent in a SEARCH_PASSED response. e.g :
+     * Server message,206,<120>,<97>,<12>
+     * The messages can be read with the history command (e.g "History, before<121>, limit<1>").
+     *
+     * @param client
+     * @param query
+     * @throws SendingToClientWasFailed
+     */
+    protected void sendSearchResults(Client client, String query) throws SendingToClientWasFailed {
+        long[] found = Optional.ofNullable(searchIndex).isPresent() ?
+                searchIndex.search(client.getUserName(), query, configuration.getSearchLimit()) : new long[0];
+        StringBuilder results = new StringBuilder();
+        for (long sequence : found)
+            results.append((results.length() == 0) ? "" : ",").append('<').append(sequence).append('>');
+        client.sendMessageToClient(ServerMessageBuilder.responseBuilder(SEARCH_PASSED, results.toString()));
+    }
+
+    /**
+     * Returns true if the user can see the message : public messages, and the private messages which the user
+     * sent or received if the private history is enabled (see ServerConfiguration.isPrivateHistory).
+     *
+     * @param message
+     * @param userName
+     * @return
+     */
+    private boolean isVisible(Message message, String userName) {
+        if (message.getType() != MessageTypes.PRIVATE)
+            return true;
+        if (!configuration.isPrivateHistory())
+            return false;
+        if (message.getSender().equals(userName))
+            return true;
+        for (String receiver : message.getReceivers())
+            if (receiver.trim().equals(userName))
+                return true;
+        return false;
+    }
+
+    /**
+     * Send a message of the history (see catchUp and flushInbox), it returns false if it's not sent. A message
+     * which is too long for the text protocol (sent by a binary protocol client) is skipped for a text protocol
+     * client, so it doesn't fail it's login.
+     *
+     * @param client
+     * @param loggedMessage
+     * @return
+     * @throws SendingToClientWasFailed
+     */
+    private boolean sendHistoryFrame(Client client, LoggedMessage loggedMessage) throws SendingToClientWasFailed {
+        Frame frame = historyFrame(loggedMessage);
+        if (!client.canReceive(frame)) {
+            logger.debug(String.format("Message %d is too long for the text protocol of %s, it's skipped.",
+                    loggedMessage.getSequence(), client.getUserName()));
+            return false;
+        }
+        client.sendMessageToClient(frame);
+        return true;
+    }
+
+    /**
+     * Encode a message of the history, the same as it was sent live.
+     *
+     * @param loggedMessage
+     * @return
+     */
+    private Frame historyFrame(LoggedMessage loggedMessage) {
+        Message message = loggedMessage.getMessage();
+        long sequence = loggedMessage.getSequence();
+        if (message.getType() == MessageTypes.PRIVATE)
+            return Frame.privateMessage(historyText(loggedMessage), userIds.idOf(message.getSender()),
+                    message.getSender(), message.getReceivers(), message.getBody(), sequence);
+        return Frame.publicMessage(historyText(loggedMessage), userIds.idOf(message.getSender()),
+                message.getSender(), message.getBody(), sequence);
+    }
+
+    /**
+     * Returns the text of a message of the history (text protocol).
+     *
+     * @param loggedMessage
+     * @return
+     */
+    private static String historyText(LoggedMessage loggedMessage) {
+        Message message = loggedMessage.getMessage();
+        if (message.getType() == MessageTypes.PRIVATE)
+            return ServerMessageBuilder.privateMessage(message.getBody(), message.getLength(), message.getSender(),
+                    message.getReceivers(), loggedMessage.getSequence());
+        return ServerMessageBuilder.publicMessage(message.getBody(), message.getLength(), message.getSender(),
+                loggedMessage.getSequence());
+    }
+
+    private void broadCastMessage(Frame frame) {
+        Map<String, Client> waiting = new LinkedHashMap<>();
+        broadCastMessage(frame, waiting);
+        awaitDelivery(waiting);
+    }
+
+    private void broadCastMessage(Frame frame, Map<String, Client> waiting) {
+        for (String userName : clientsManager.getUserNameList())
+            sendMessageToClient(frame, userName, waiting);
+    }
+
+    private String[] sendPrivateMessage(Frame frame, String[] receivers) {
+        Map<String, Client> waiting = new LinkedHashMap<>();
+        List<String> offline = new LinkedList<>();
+        List<String> rejectedList = sendPrivateMessage(frame, receivers, waiting, offline);
+        rejectedList.addAll(awaitDelivery(waiting));
+        rejectedList.addAll(offline);
+        return rejectedList.toArray(new String[0]);
+    }
+
+    /**
+     * Send the message to the online receivers (see sendMessageToClient), the ones which are not online are added
+     * to offline instead of the returned ones.
+     *
+     * @param frame
+     * @param receivers
+     * @param waiting
+     * @param offline
+     * @return
+     */
+    private List<String> sendPrivateMessage(Frame frame, String[] receivers, Map<String, Client> waiting,
+                                            List<String> offline) {
         LinkedList<String> rejectedList = new LinkedList<>();
 
         for (String receiver : receivers) {
-            if (!sendMessageToClient(message, receiver))
+            if (!Optional.ofNullable(clientsManager.getUser(receiver)).isPresent())
+                offline.add(receiver);
+            else if (!sendMessageToClient(frame, receiver, waiting))
                 rejectedList.add(receiver);
         }
-        String[] rejectedArray = new String[rejectedList.size()];
-        rejectedList.toArray(rejectedArray);
-        return rejectedArray;
+        return rejectedList;
     }
 
     /**
@@ -204,14 +768,19 @@ public class Server {
      * for sending their message. it takes a message and a user name
      * and send this message to that user userName.
      * If couldn't send this message, it will return false otherwise it returns true.
+     * It doesn't wait for a client which it's outbound queue is full, the client is added to waiting
+     * instead (see awaitDelivery), so it can be called by the routing lock.
      *
-     * @param message
+     * @param frame
      * @param userName
+     * @param waiting
      * @return
      */
-    private boolean sendMessageToClient(String message, String userName) {
+    private boolean sendMessageToClient(Frame frame, String userName, Map<String, Client> waiting) {
         try {
-            Optional.ofNullable(clientsManager.getUser(userName)).get().sendMessageToClient(message);
+            Client client = Optional.ofNullable(clientsManager.getUser(userName)).get();
+            if (!client.deliver(frame))
+                waiting.put(userName, client);
         } catch (SendingToClientWasFailed | NoSuchElementException e) {
             logger.error(e.getMessage());
             return false;
@@ -219,6 +788,27 @@ public class Server {
         return true;
     }
 
+    /**
+     * Wait for the clients which their outbound queue was full (BACKPRESSURE policy, see sendMessageToClient),
+     * it must be called without the routing lock, so a slow client doesn't stop the other messages.
+     * It returns the user names of the clients which didn't get the message in time.
+     *
+     * @param waiting
+     * @return
+     */
+    private List<String> awaitDelivery(Map<String, Client> waiting) {
+        LinkedList<String> rejectedList = new LinkedList<>();
+        for (Map.Entry<String, Client> entry : waiting.entrySet()) {
+            try {
+                entry.getValue().awaitDelivery();
+            } catch (SendingToClientWasFailed e) {
+                logger.error(e.getMessage());
+                rejectedList.add(entry.getKey());
+            }
+        }
+        return rejectedList;
+    }
+
     /**
      * Get a username and removes it from client manager hashmap
      * by calling removeClient from ClientManager class.
@@ -255,6 +845,86 @@ public class Server {
         showCurrentState();
     }
 
+    /**
+     * Return the shared executor of file sharing tasks, or null if
+     * each ServerWorker should use it's own thread pools (PLATFORM threads).
+     *
+     * @return
+     */
+    protected ExecutorService getFileSharingExecutor() {
+        return FILE_SHARING_EXECUTOR;
+    }
+
+    /**
+     * Return the executor which runs the client tasks. In NIO engine, the workers run the client tasks
+     * which may block (see ServerWorker.runBlocking) on it, instead of the event loops.
+     *
+     * @return
+     */
+    protected ExecutorService getClientExecutor() {
+        return CLIENT_EXECUTOR;
+    }
+
+    /**
+     * Return the executor which runs the outbound queue writers of the clients.
+     *
+     * @return
+     */
+    protected ExecutorService getOutboundExecutor() {
+        return OUTBOUND_EXECUTOR;
+    }
+
+    /**
+     * Return the executor which runs the extra data connections of the parallel
+     * file transfers (see ParallelTransfer).
+     *
+     * @return
+     */
+    public ExecutorService getStreamExecutor() {
+        return STREAM_EXECUTOR;
+    }
+
+    /**
+     * Return the registry which issues the file transfer tokens, and
+     * gives the data connections to the transfers.
+     *
+     * @return
+     */
+    public TransferRegistry getTransferRegistry() {
+        return transferRegistry;
+    }
+
+    /**
+     * Return the store of the shared files (see FileStore).
+     *
+     * @return
+     */
+    public FileStore getFileStore() {
+        return fileStore;
+    }
+
+    /**
+     * Return the scheduler which limits the rate of the file transfers (see BandwidthScheduler).
+     *
+     * @return
+     */
+    public BandwidthScheduler getBandwidthScheduler() {
+        return bandwidthScheduler;
+    }
+
+    /**
+     * Return the history of the chat messages, or null if it's disabled (see MessageLog).
+     *
+     * @return
+     */
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    public ServerConfiguration getConfiguration() {
+        return configuration;
+    }
+
     /**
      * Return the server capacity
      *
@@ -0,0 +1,429 @@
+package Server;
+
+import Message.Protocol.BinaryProtocol;
+import Transfer.Compression;
+import Transfer.FileSync;
+
+import java.util.Properties;
+
+/**
+ * Holds the optional server settings. Each setting can be changed using
+ * a system property when running the server. e.g :
+ * java -Dserver.engine=nio ServerRunner 15000 10000
+ */
+public class ServerConfiguration {
+
+    /**
+     * Largest size (MB) of a history segment, a segment is mapped in one buffer which can't be 2GB.
+     */
+    public static final int MAX_HISTORY_SEGMENT_SIZE = 2047;
+
+    /**
+     * How the server handles the client connections.
+     * BLOCKING : one ServerWorker thread per client (default)
+     * NIO : a few selector based event loops for all of the clients
+     */
+    public enum Engine {
+        BLOCKING,
+        NIO,
+    }
+
+    /**
+     * Which threads run the ServerWorker, ServerFileDownloader and ServerFileUploader tasks.
+     * PLATFORM : fixed thread pools (default)
+     * VIRTUAL : a shared virtual-thread-per-task executor (java 21+)
+     */
+    public enum Threads {
+        PLATFORM,
+        VIRTUAL,
+    }
+
+    /**
+     * What to do when the outbound queue of a client is full.
+     * DROP : the new message will be dropped for that client
+     * DISCONNECT : the slow client will be disconnected
+     * BACKPRESSURE : the sender waits till the queue has space (at most server.outboundTimeout),
+     * after that the client will be disconnected (default)
+     */
+    public enum OverflowPolicy {
+        DROP,
+        DISCONNECT,
+        BACKPRESSURE,
+    }
+
+    private final Engine engine;
+    private final int eventLoops;
+    private final Threads threads;
+    private final int fileSharingTasks;
+    private final int outboundQueueSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int outboundTimeout;
+    private final int flushDelay;
+    private final int protocol;
+    private final int maxMessageSize;
+    private final FileSync fileSync;
+    private final int transferTimeout;
+    private final int transferStreams;
+    private final int userStreams;
+    private final Compression compression;
+    private final boolean relay;
+    private final int globalRate;
+    private final int userRate;
+    private final boolean history;
+    private final boolean privateHistory;
+    private final int historySegmentSize;
+    private final int catchUpLimit;
+    private final int historyPage;
+    private final int inboxLimit;
+    private final int inboxUsers;
+    private final int inboxSize;
+    private final int searchLimit;
+
+    /**
+     * Constructor. It reads the settings from the given properties and
+     * uses the default value for the missing ones.
+     *
+     * @param properties
+     */
+    private ServerConfiguration(Properties properties) {
+        this.engine = enumProperty(properties, "server.engine", Engine.BLOCKING);
+        this.eventLoops = intProperty(properties, "server.eventLoops",
+                Runtime.getRuntime().availableProcessors());
+        this.threads = enumProperty(properties, "server.threads", Threads.PLATFORM);
+        this.fileSharingTasks = intProperty(properties, "server.fileSharingTasks", 0);
+        this.outboundQueueSize = intProperty(properties, "server.outboundQueue", 1024);
+        this.overflowPolicy = enumProperty(properties, "server.outboundOverflow", OverflowPolicy.BACKPRESSURE);
+        this.outboundTimeout = intProperty(properties, "server.outboundTimeout", 10_000);
+        this.flushDelay = intProperty(properties, "server.flushDelay", 0);
+        this.protocol = Math.min(intProperty(properties, "server.protocol", BinaryProtocol.BINARY_PROTOCOL),
+                BinaryProtocol.BINARY_PROTOCOL);
+        this.maxMessageSize = intProperty(properties, "server.maxMessageSize", BinaryProtocol.MAX_MESSAGE_LENGTH);
+        this.fileSync = enumProperty(properties, "server.fileSync", FileSync.COMPLETION);
+        this.transferTimeout = intProperty(properties, "server.transferTimeout", 30_000);
+        this.transferStreams = intProperty(properties, "server.transferStreams", 1);
+        this.userStreams = intProperty(properties, "server.userStreams", 16);
+        this.compression = enumProperty(properties, "server.compression", Compression.NONE);
+        this.relay = Boolean.parseBoolean(properties.getProperty("server.relay", "false").trim());
+        this.globalRate = intProperty(properties, "server.globalRate", 0);
+        this.userRate = intProperty(properties, "server.userRate", 0);
+        this.history = Boolean.parseBoolean(properties.getProperty("server.history", "true").trim());
+        this.privateHistory = Boolean.parseBoolean(properties.getProperty("server.privateHistory", "false").trim());
+        this.historySegmentSize = Math.min(intProperty(properties, "server.historySegmentSize", 64),
+                MAX_HISTORY_SEGMENT_SIZE);
+        this.catchUpLimit = intProperty(properties, "server.catchUpLimit", 1000);
+        this.historyPage = intProperty(properties, "server.historyPage", 50);
+        this.inboxLimit = nonNegativeIntProperty(properties, "server.inboxLimit", 100);
+        this.inboxUsers = intProperty(properties, "server.inboxUsers", 10_000);
+        this.inboxSize = intProperty(properties, "server.inboxSize", 16);
+        this.searchLimit = nonNegativeIntProperty(properties, "server.searchLimit", 20);
+    }
+
+    /**
+     * Returns the default configuration.
+     *
+     * @return
+     */
+    public static ServerConfiguration defaults() {
+        return new ServerConfiguration(new Properties());
+    }
+
+    /**
+     * Returns a configuration based on the JVM system properties.
+     *
+     * @return
+     */
+    public static ServerConfiguration fromSystemProperties() {
+        return new ServerConfiguration(System.getProperties());
+    }
+
+    /**
+     * Read a non-negative integer property (0 disables a feature), if it was missing or not valid
+     * it returns the default value.
+     *
+     * @param properties
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private static int nonNegativeIntProperty(Properties properties, String key, int defaultValue) {
+        try {
+            int value = Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+            return (value >= 0) ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Read a positive integer property, if it was missing or not valid
+     * it returns the default value.
+     *
+     * @param properties
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        try {
+            int value = Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+            return (value > 0) ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Read an enum property (case insensitive), if it was missing or not valid
+     * it returns the default value.
+     *
+     * @param properties
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private static <T extends Enum<T>> T enumProperty(Properties properties, String key, T defaultValue) {
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(),
+                    properties.getProperty(key, defaultValue.name()).trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public Threads getThreads() {
+        return threads;
+    }
+
+    /**
+     * Maximum number of file transfers running at the same time on virtual threads,
+     * 0 means the server capacity.
+     *
+     * @return
+     */
+    public int getFileSharingTasks() {
+        return fileSharingTasks;
+    }
+
+    /**
+     * Maximum number of waiting messages for each client.
+     *
+     * @return
+     */
+    public int getOutboundQueueSize() {
+        return outboundQueueSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Maximum waiting time (milliseconds) of the BACKPRESSURE policy.
+     *
+     * @return
+     */
+    public int getOutboundTimeout() {
+        return outboundTimeout;
+    }
+
+    /**
+     * Waiting time (microseconds) of a client writer for more messages, before flushing
+     * the written ones. 0 means flushing as soon as the queue is empty.
+     *
+     * @return
+     */
+    public int getFlushDelay() {
+        return flushDelay;
+    }
+
+    /**
+     * The newest protocol which the server accepts (see BinaryProtocol),
+     * 1 keeps all of the clients on the text protocol.
+     *
+     * @return
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Maximum size (bytes) of a chunked message of a binary protocol client,
+     * so each connection holds at most this much memory for an incomplete message.
+     *
+     * @return
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * How the uploaded files are written to the disk (see FileSync).
+     *
+     * @return
+     */
+    public FileSync getFileSync() {
+        return fileSync;
+    }
+
+    /**
+     * Maximum waiting time (milliseconds) for the data connection of a file transfer,
+     * after sending it's token to the client.
+     *
+     * @return
+     */
+    public int getTransferTimeout() {
+        return transferTimeout;
+    }
+
+    /**
+     * Maximum number of parallel data connections of a large file transfer (see ParallelTransfer),
+     * 1 moves each file over one connection.
+     *
+     * @return
+     */
+    public int getTransferStreams() {
+        return transferStreams;
+    }
+
+    /**
+     * Maximum number of data connections of all of the transfers of a user at the same time.
+     * Each transfer has at least one connection anyway.
+     *
+     * @return
+     */
+    public int getUserStreams() {
+        return userStreams;
+    }
+
+    /**
+     * Compression of the file data connections, it's used only if the client wants it too (see Compression).
+     * NONE keeps the zero-copy transfers.
+     *
+     * @return
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * If it's true, the uploaded files are announced as soon as their upload starts, and the receivers
+     * get the bytes while they are being received (see LiveFile). Otherwise the files are announced
+     * after they are stored.
+     *
+     * @return
+     */
+    public boolean isRelay() {
+        return relay;
+    }
+
+    /**
+     * Maximum rate (KB per second) of all of the file transfers, 0 means unlimited (see BandwidthScheduler).
+     *
+     * @return
+     */
+    public int getGlobalRate() {
+        return globalRate;
+    }
+
+    /**
+     * Maximum rate (KB per second) of the file transfers of each user, 0 means unlimited.
+     *
+     * @return
+     */
+    public int getUserRate() {
+        return userRate;
+    }
+
+    /**
+     * Returns true if the chat messages are stored in the history (see MessageLog).
+     *
+     * @return
+     */
+    public boolean isHistory() {
+        return history;
+    }
+
+    /**
+     * Returns true if the private messages of the history are sent to their sender and receivers again (catch-up,
+     * history command, search and the offline inboxes). Users are only known by their names, so anyone who logs in
+     * with a name gets the private messages of that name.
+     *
+     * @return
+     */
+    public boolean isPrivateHistory() {
+        return privateHistory;
+    }
+
+    /**
+     * Size (MB) of each segment file of the history, at most MAX_HISTORY_SEGMENT_SIZE.
+     *
+     * @return
+     */
+    public int getHistorySegmentSize() {
+        return historySegmentSize;
+    }
+
+    /**
+     * Maximum number of the missed messages which are sent to a reconnecting client.
+     *
+     * @return
+     */
+    public int getCatchUpLimit() {
+        return catchUpLimit;
+    }
+
+    /**
+     * Maximum number of the messages in a page of the history command.
+     *
+     * @return
+     */
+    public int getHistoryPage() {
+        return historyPage;
+    }
+
+    /**
+     * Maximum number of the private messages which are kept for an offline user, 0 means they are not kept.
+     * They are only kept with the private history (see isPrivateHistory).
+     *
+     * @return
+     */
+    public int getInboxLimit() {
+        return inboxLimit;
+    }
+
+    /**
+     * Maximum number of the offline users which have an inbox.
+     *
+     * @return
+     */
+    public int getInboxUsers() {
+        return inboxUsers;
+    }
+
+    /**
+     * Maximum size (MB) of all of the inboxes.
+     *
+     * @return
+     */
+    public int getInboxSize() {
+        return inboxSize;
+    }
+
+    /**
+     * Maximum number of the messages which a search returns, 0 means the search is disabled.
+     * The private messages are only searchable with the private history (see isPrivateHistory).
+     *
+     * @return
+     */
+    public int getSearchLimit() {
+        return searchLimit;
+    }
+}
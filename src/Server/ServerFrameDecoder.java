@@ -0,0 +1,69 @@
+package Server;
+
+import Message.Message;
+import Message.MessageTypes;
+import Message.Parser.Exceptions.*;
+import Message.Protocol.FrameAssembler;
+import Message.Protocol.FrameReader;
+
+import java.util.Optional;
+
+import static Message.Protocol.BinaryProtocol.*;
+
+/**
+ * Decodes the binary protocol frames of a client (see BinaryProtocol).
+ * Chat messages are decoded directly, and TEXT frames are parsed by the ServerMessageParser.
+ * Chunks of long messages are put together before decoding.
+ */
+public class ServerFrameDecoder {
+
+    private final String userName;
+    private final ServerMessageParser parser;
+    private final FrameAssembler assembler;
+
+    /**
+     * Constructor
+     *
+     * @param userName
+     * @param parser
+     * @param maxMessageSize maximum size of a chunked message
+     */
+    public ServerFrameDecoder(String userName, ServerMessageParser parser, int maxMessageSize) {
+        this.userName = userName;
+        this.parser = parser;
+        this.assembler = new FrameAssembler(maxMessageSize);
+    }
+
+    /**
+     * Decode a received frame (type + payload). it returns null if the frame is a chunk
+     * and the message is not complete yet.
+     *
+     * @param frame
+     * @return
+     */
+    public Message decode(byte[] frame) throws MessageIsNotValid, MessageTypeIsNotValid,
+            MessageLengthDoesNotExists, MessageIsTooLong, ReceiverDoesNotExists {
+        byte[] message = assembler.add(frame);
+        if (!Optional.ofNullable(message).isPresent())
+            return null;
+        FrameReader reader = new FrameReader(message);
+
+        switch (reader.getType()) {
+            case TEXT:
+                return parser.parse(reader.readText());
+            case PUBLIC: {
+                String body = reader.readText();
+                return new Message(userName, new String[]{"All"}, body, body.length(), MessageTypes.PUBLIC);
+            }
+            case PRIVATE: {
+                String[] receivers = reader.readReceivers();
+                if (receivers.length == 0)
+                    throw new ReceiverDoesNotExists("Private message without receiver");
+                String body = reader.readText();
+                return new Message(userName, receivers, body, body.length(), MessageTypes.PRIVATE);
+            }
+            default:
+                throw new MessageTypeIsNotValid(String.format("Frame type is not valid: %d", reader.getType()));
+        }
+    }
+}
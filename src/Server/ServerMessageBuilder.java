@@ -4,12 +4,27 @@ import java.util.Set;
 
 import static Message.Parser.Parser.*;
 import static Message.StaticMessages.*;
+import static Message.Status.Status.FILE_PROOF_REQUIRED;
+import static Message.Status.Status.READY_TO_GET_FILE;
 
 /**
  * This class with it's static methods, responsible for building messages.
+ * Messages are appended to a reusable buffer of the calling thread (instead of String.format),
+ * so building a message only makes the result string.
  */
 public class ServerMessageBuilder {
 
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /**
+     * Bigger buffers are not kept, so a thread which built a huge message
+     * doesn't hold it's memory.
+     */
+    private static final int MAX_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_BUFFER_SIZE));
+
     /**
      * Takes a username and build the welcome message. e.g:
      * "Hi Alireza, welcome to the chat room."
@@ -18,7 +33,7 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String handshakeAcceptResponse(String userName) {
-        return String.format("Hi %s, welcome to the chat room.", userName);
+        return buffer().append("Hi ").append(userName).append(", welcome to the chat room.").toString();
     }
 
     /**
@@ -29,7 +44,7 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String userJoiningInChatRoom(String userName) {
-        return String.format("%s join the chat room.", userName);
+        return buffer().append(userName).append(" join the chat room.").toString();
     }
 
     /**
@@ -41,11 +56,12 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String sendUsersList(Set<String> onlineUsersList) {
-        StringBuilder list = new StringBuilder();
+        StringBuilder message = buffer().append(GET_USER_LIST_RESPONSE).append(BODY_SEPARATOR).append('<');
         for (String user : onlineUsersList)
-            list.append(user).append(USERNAMES_SEPARATOR);
-        return String.format("%s%s<%s>", GET_USER_LIST_RESPONSE, BODY_SEPARATOR,
-                list.subSequence(0, list.length() - 1).toString());
+            message.append(user).append(USERNAMES_SEPARATOR);
+        if (!onlineUsersList.isEmpty())
+            message.setLength(message.length() - USERNAMES_SEPARATOR.length());
+        return message.append('>').toString();
     }
 
     /**
@@ -58,8 +74,23 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String publicMessage(String body, long length, String sender) {
-        return String.format("Public message, length=<%d> from <%s>%s" +
-                "<%s>", length, sender, BODY_SEPARATOR, body);
+        return publicMessage(body, length, sender, 0);
+    }
+
+    /**
+     * Build public message with it's sequence number in the history (see MessageLog). e.g :
+     * "Public message, length=<5> seq=<12> from <Alireza>\n\r<Hello>"
+     *
+     * @param body
+     * @param length
+     * @param sender
+     * @param sequence 0 if it's not in the history
+     * @return
+     */
+    public static String publicMessage(String body, long length, String sender, long sequence) {
+        StringBuilder message = buffer().append(PUBLIC_MESSAGE).append(", length=<").append(length).append('>');
+        return appendSequence(message, sequence).append(" from <").append(sender).append('>')
+                .append(BODY_SEPARATOR).append('<').append(body).append('>').toString();
     }
 
     /**
@@ -73,9 +104,26 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String privateMessage(String safeBody, long length, String userName, String[] receivers) {
-        return String.format("Private message, length=<%d> from <%s> to %s%s<%s>",
-                length, userName, convertListToString(receivers),
-                BODY_SEPARATOR, safeBody);
+        return privateMessage(safeBody, length, userName, receivers, 0);
+    }
+
+    /**
+     * Build private message with it's sequence number in the history (see MessageLog). e.g :
+     * "Private message, length=<5> seq=<12> from <Alireza> to <A>,<B>\n\r<Hello>"
+     *
+     * @param safeBody
+     * @param length
+     * @param userName
+     * @param receivers
+     * @param sequence  0 if it's not in the history
+     * @return
+     */
+    public static String privateMessage(String safeBody, long length, String userName, String[] receivers,
+                                        long sequence) {
+        StringBuilder message = buffer().append(PRIVATE_MESSAGE).append(", length=<").append(length).append('>');
+        appendSequence(message, sequence).append(" from <").append(userName).append('>').append(RECEIVERS_SEPARATOR);
+        return appendList(message, receivers).append(BODY_SEPARATOR).append('<').append(safeBody).append('>')
+                .toString();
     }
 
     /**
@@ -86,14 +134,40 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String convertListToString(String[] receivers) {
-        if (receivers.length == 0)
-            return "<>";
+        return appendList(buffer(), receivers).toString();
+    }
 
-        StringBuilder list = new StringBuilder();
+    /**
+     * Append the sequence number of a chat message, if it has one. e.g : 12 -> " seq=<12>"
+     *
+     * @param message
+     * @param sequence
+     * @return
+     */
+    private static StringBuilder appendSequence(StringBuilder message, long sequence) {
+        if (sequence > 0)
+            message.append(' ').append(SEQUENCE).append('<').append(sequence).append('>');
+        return message;
+    }
+
+    /**
+     * Append a list of string (users) to the message with this format:
+     * ["A","B"] -> "<A>,<B>"
+     *
+     * @param message
+     * @param receivers
+     * @return
+     */
+    private static StringBuilder appendList(StringBuilder message, String[] receivers) {
+        if (receivers.length == 0)
+            return message.append("<>");
 
-        for (String receiver : receivers)
-            list.append(String.format("<%s>%s", receiver.trim(), RECEIVERS_LIST_SEPARATOR));
-        return list.substring(0, list.length() - RECEIVERS_LIST_SEPARATOR.length());
+        for (int i = 0; i < receivers.length; i++) {
+            if (i > 0)
+                message.append(RECEIVERS_LIST_SEPARATOR);
+            message.append('<').append(receivers[i].trim()).append('>');
+        }
+        return message;
     }
 
 
@@ -105,7 +179,7 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String logoutMessage(String userName) {
-        return String.format("<%s> left the chat room.", userName);
+        return buffer().append('<').append(userName).append("> left the chat room.").toString();
     }
 
     /**
@@ -117,7 +191,39 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String responseBuilder(String status, String response) {
-        return String.format("%s,%s,%s", SERVER_MESSAGE, status, response);
+        return buffer().append(SERVER_MESSAGE).append(',').append(status).append(',').append(response).toString();
+    }
+
+    /**
+     * Build the response which gives the token of a file transfer to the client (see TransferRegistry),
+     * and the range of the file which is going to be transferred with it. e.g:
+     * Server message,203,9f86d081884c7d659a2feaa0c55ad015,0,4096,report.pdf
+     *
+     * @param token
+     * @param offset
+     * @param length
+     * @param fileName
+     * @return
+     */
+    public static String transferReadyMessage(String token, long offset, long length, String fileName) {
+        return buffer().append(SERVER_MESSAGE).append(',').append(READY_TO_GET_FILE).append(',').append(token)
+                .append(',').append(offset).append(',').append(length).append(',').append(fileName).toString();
+    }
+
+    /**
+     * Build the response which asks the client for a range of a file which the server already has, to prove that
+     * the client has it's content (see FileStore.proofRange), it's sent with the token of the transfer. e.g:
+     * Server message,208,9f86d081884c7d659a2feaa0c55ad015,81920,65536,report.pdf
+     *
+     * @param token
+     * @param offset
+     * @param length
+     * @param fileName
+     * @return
+     */
+    public static String proofRequestMessage(String token, long offset, long length, String fileName) {
+        return buffer().append(SERVER_MESSAGE).append(',').append(FILE_PROOF_REQUIRED).append(',').append(token)
+                .append(',').append(offset).append(',').append(length).append(',').append(fileName).toString();
     }
 
     /**
@@ -130,8 +236,9 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String privateFileSendMessage(String sender, String fileName, long fileSize, String[] receivers) {
-        return String.format("%s, from<%s>, name<%s>, length<%d>, %s", PRIVATE_FILE_MESSAGE, sender, fileName, fileSize,
-                convertListToString(receivers));
+        StringBuilder message = appendFileMessage(buffer().append(PRIVATE_FILE_MESSAGE), sender, fileName, fileSize)
+                .append(", ");
+        return appendList(message, receivers).toString();
     }
 
     /**
@@ -143,7 +250,38 @@ public class ServerMessageBuilder {
      * @return
      */
     public static String publicFileSendMessage(String sender, String fileName, long fileSize) {
-        return String.format("%s, from<%s>, name<%s>, length<%d>", PUBLIC_FILE_MESSAGE, sender, fileName, fileSize);
+        return appendFileMessage(buffer().append(PUBLIC_FILE_MESSAGE), sender, fileName, fileSize).toString();
+    }
+
+    /**
+     * Append the common part of file messages. e.g :
+     * ", from<Alireza>, name<a.txt>, length<4096>"
+     *
+     * @param message
+     * @param sender
+     * @param fileName
+     * @param fileSize
+     * @return
+     */
+    private static StringBuilder appendFileMessage(StringBuilder message, String sender, String fileName,
+                                                   long fileSize) {
+        return message.append(", from<").append(sender).append(">, name<").append(fileName)
+                .append(">, length<").append(fileSize).append('>');
+    }
+
+    /**
+     * Returns the empty buffer of the current thread.
+     *
+     * @return
+     */
+    private static StringBuilder buffer() {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_BUFFER_SIZE) {
+            buffer = new StringBuilder(INITIAL_BUFFER_SIZE);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
     }
 
 }
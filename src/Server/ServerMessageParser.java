@@ -4,14 +4,34 @@ import Message.Message;
 import Message.MessageTypes;
 import Message.Parser.Exceptions.*;
 import Message.Parser.Parser;
+import Message.Query;
+import Transfer.FileHash;
+
+import java.util.Arrays;
 
 import static Message.MessageTypes.*;
 import static Message.StaticMessages.*;
 
+/**
+ * Parses the client messages in one pass, with a cursor (index) over the raw message.
+ * It doesn't split the message or make substrings of it's parts, only the fields of the
+ * result (body, receivers, ...) are made. Each connection has it's own parser, so the
+ * scratch state (receivers bounds) is reused for all of the messages of the client.
+ * Results are the same as the split based parser of the text protocol.
+ */
 public class ServerMessageParser implements Parser {
 
+    private static final String[] ALL = {"All"};
+    private static final String[] SERVER = {"Server"};
+    private static final String[] NONE_RECEIVER = {"None"};
+
     private final String userName;
 
+    /**
+     * Start and end index of each receiver, it grows if a message has more receivers.
+     */
+    private int[] receiverBounds = new int[16];
+
     /**
      * Constructor
      *
@@ -44,49 +64,47 @@ public class ServerMessageParser implements Parser {
             MessageIsTooLong, ReceiverDoesNotExists {
 
         if (message.equals(GET_USERS_LIST))
-            return new Message(userName, new String[]{"Server"}, message, message.length(),
-                    MessageTypes.COMMAND);
+            return new Message(userName, SERVER, message, message.length(), MessageTypes.COMMAND);
 
         if (message.equals(SIGN_OUT))
-            return new Message(userName, new String[]{"Server"}, message, message.length(),
-                    MessageTypes.COMMAND);
+            return new Message(userName, SERVER, message, message.length(), MessageTypes.COMMAND);
 
-        else {
-            String[] messageParts = message.split(TYPE_SEPARATOR, 2);
+        if (message.equals(HISTORY))
+            return historyRequestParser(message, message.length());
 
-            if (messageParts.length != 2)
-                throw new MessageIsNotValid(message);
+        int separator = message.indexOf(TYPE_SEPARATOR);
+        if (separator == -1)
+            throw new MessageIsNotValid(message);
+
+        int start = separator + TYPE_SEPARATOR.length();
+
+        if (isType(message, separator, PUBLIC_MESSAGE))
+            return publicMessageParser(message, start);
 
-            if (messageParts[0].equals(PUBLIC_MESSAGE))
-                return publicMessageParser(messageParts[1]);
+        if (isType(message, separator, PRIVATE_MESSAGE))
+            return privateMessageParser(message, start);
 
-            if (messageParts[0].equals(PRIVATE_MESSAGE))
-                return privateMessageParser(messageParts[1]);
+        if (isType(message, separator, PRIVATE_FILE_MESSAGE))
+            return privateDataMessageParser(message, start);
 
-            if (messageParts[0].equals(PRIVATE_FILE_MESSAGE))
-                return privateDataMessageParser(messageParts[1]);
+        if (isType(message, separator, PUBLIC_FILE_MESSAGE))
+            return publicDataMessageParser(message, start);
 
-            if (messageParts[0].equals(PUBLIC_FILE_MESSAGE))
-                return publicDataMessageParser(messageParts[1]);
+        if (isType(message, separator, DOWNLOAD))
+            return downloadRequestParser(message, start);
 
-            if (messageParts[0].equals(DOWNLOAD))
-                return downloadRequestParser(messageParts[1]);
+        if (isType(message, separator, HISTORY))
+            return historyRequestParser(message, start);
 
-            throw new MessageTypeIsNotValid(message);
+        if (isType(message, separator, SEARCH)) {
+            // format : "Search, WORDS"
+            String words = message.substring(start).trim();
+            if (words.isEmpty())
+                throw new MessageIsNotValid(message);
+            return new Message(userName, SERVER, SEARCH, SEARCH.length(), MessageTypes.COMMAND, new Query(words));
         }
-    }
 
-    /**
-     * Parse download request messages . when the client want to
-     * call the server to start it's  file upload service.
-     *
-     * @param message
-     * @return
-     */
-    private Message downloadRequestParser(String message) {
-        String fileName = message.substring(0, message.lastIndexOf(","));
-        String from = message.substring(message.lastIndexOf("<") + 1, message.lastIndexOf(">"));
-        return new Message(userName, new String[]{from}, fileName, fileName.length(), DL);
+        throw new MessageTypeIsNotValid(message);
     }
 
     /**
@@ -98,15 +116,7 @@ public class ServerMessageParser implements Parser {
      */
     @Override
     public Message publicDataMessageParser(String message) throws MessageIsNotValid {
-        String[] parts = message.split(USERNAMES_SEPARATOR);
-
-        if (parts.length != 2)
-            throw new MessageIsNotValid(message);
-
-        String fileName = parts[0].substring(parts[0].indexOf("<") + 1, parts[0].indexOf(">"));
-        String length = parts[1].substring(parts[1].indexOf("<") + 1, parts[1].indexOf(">"));
-
-        return new Message(userName, new String[]{"All"}, fileName, Long.parseLong(length), PUBLIC_DATA);
+        return publicDataMessageParser(message, 0);
     }
 
     /**
@@ -118,13 +128,7 @@ public class ServerMessageParser implements Parser {
      */
     @Override
     public Message privateDataMessageParser(String message) throws MessageIsNotValid {
-        String[] parts = message.split(USERNAMES_SEPARATOR);
-
-        String fileName = parts[0].substring(parts[0].indexOf("<") + 1, parts[0].indexOf(">"));
-        String length = parts[1].substring(parts[1].indexOf("<") + 1, parts[1].indexOf(">"));
-        String rec = parts[2];
-
-        return new Message(userName, convertStringToList(rec), fileName, Long.parseLong(length), PRIVATE_DATA);
+        return privateDataMessageParser(message, 0);
     }
 
     /**
@@ -137,85 +141,478 @@ public class ServerMessageParser implements Parser {
     @Override
     public Message privateMessageParser(String message) throws MessageLengthDoesNotExists,
             ReceiverDoesNotExists, MessageIsTooLong {
-        String length;
-        int messageLength;
+        return privateMessageParser(message, 0);
+    }
 
-        //Take th length of message and convert it to int.
-        try {
-            length = message.substring(message.indexOf("<") + 1, message.indexOf(">"));
-        } catch (IndexOutOfBoundsException e) {
-            throw new MessageLengthDoesNotExists(message);
+    /**
+     * Public messages pars in here.
+     *
+     * @param message
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public Message publicMessageParser(String message) throws MessageLengthDoesNotExists, MessageIsTooLong {
+        return publicMessageParser(message, 0);
+    }
+
+    /**
+     * Parse download request messages . when the client want to
+     * call the server to start it's  file upload service.
+     * format : "FileName,<Sender>" or "FileName,<Sender>, range<START-END>" (from start)
+     * The range is optional, END is exclusive and it can be empty (till the end of the file).
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private Message downloadRequestParser(String message, int start) throws MessageIsNotValid {
+        int end = message.length();
+        long rangeStart = 0;
+        long rangeEnd = Long.MAX_VALUE;
+
+        int rangeSeparator = message.lastIndexOf(USERNAMES_SEPARATOR);
+        int range = rangeSeparator + 1;
+        while (range < end && message.charAt(range) == ' ')
+            range++;
+        if (rangeSeparator >= start && message.startsWith(RANGE, range)) {
+            int dash = indexOf(message, '-', range, end);
+            int to = message.lastIndexOf('>');
+            if (dash == -1 || to < dash)
+                throw new MessageIsNotValid(message.substring(start));
+            try {
+                rangeStart = parseNumber(message, range + RANGE.length(), dash, 0, Long.MAX_VALUE);
+                if (dash + 1 < to)
+                    rangeEnd = parseNumber(message, dash + 1, to, 0, Long.MAX_VALUE);
+            } catch (NumberFormatException e) {
+                throw new MessageIsNotValid(message.substring(start));
+            }
+            if (rangeEnd < rangeStart)
+                throw new MessageIsNotValid(message.substring(start));
+            end = rangeSeparator;
         }
 
+        int separator = message.lastIndexOf(USERNAMES_SEPARATOR, end - 1);
+        int from = Math.max(message.lastIndexOf('<', end - 1), start - 1) + 1;
+        int to = message.lastIndexOf('>', end - 1);
 
-        try {
-            messageLength = Integer.parseInt(length);
-        } catch (NumberFormatException e) {
-            throw new MessageIsTooLong(length);
+        if (separator < start || to < start || from > to)
+            throw new MessageIsNotValid(message);
+
+        String fileName = message.substring(start, separator);
+        return new Message(userName, new String[]{message.substring(from, to)}, fileName, fileName.length(), DL,
+                rangeStart, rangeEnd);
+    }
+
+    /**
+     * Parse history request messages, a page of the chat history which is before a message or a time.
+     * format : " before<SEQUENCE>, time<MILLISECONDS>, limit<COUNT>" (from start), all of the fields are optional.
+     * It's a COMMAND with the fields in it's query (Long.MAX_VALUE if they are missing).
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private Message historyRequestParser(String message, int start) throws MessageIsNotValid {
+        long beforeSequence = Long.MAX_VALUE;
+        long beforeTime = Long.MAX_VALUE;
+        long limit = Long.MAX_VALUE;
+
+        while (start < message.length()) {
+            int end = fieldEnd(message, start);
+            int field = start;
+            while (field < end && message.charAt(field) == ' ')
+                field++;
+            if (field < end) {
+                long value = parseLength(message, field, end, 0);
+                if (value < 0)
+                    throw new MessageIsNotValid(message);
+                if (message.startsWith(BEFORE, field))
+                    beforeSequence = value;
+                else if (message.startsWith(TIME, field))
+                    beforeTime = value;
+                else if (message.startsWith(LIMIT, field))
+                    limit = value;
+                else
+                    throw new MessageIsNotValid(message);
+            }
+            start = end + 1;
         }
+        return new Message(userName, SERVER, HISTORY, HISTORY.length(), COMMAND,
+                new Query(beforeSequence, beforeTime, limit));
+    }
 
-        // Try to get the receivers of message from the raw message
-        String[] parts = message.split(RECEIVERS_SEPARATOR, 2);
-        if (parts.length != 2)
-            throw new ReceiverDoesNotExists(message);
+    /**
+     * Parse public upload request message. format : " name<FileName>, length<Byte>" (from start)
+     * or " name<FileName>, length<Byte>, sha256<Hash>" (the content hash is optional, see FileHash)
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private Message publicDataMessageParser(String message, int start) throws MessageIsNotValid {
+        int nameEnd = message.indexOf(USERNAMES_SEPARATOR, start);
+        int lengthEnd = (nameEnd == -1) ? -1 : fieldEnd(message, nameEnd + 1);
+        int hashEnd = (lengthEnd == -1 || !isHashField(message, lengthEnd + 1)) ? lengthEnd :
+                fieldEnd(message, lengthEnd + 1);
+
+        // It must have exactly two fields and the hash (the empty ones at the end don't count).
+        if (nameEnd == -1 || lengthEnd == nameEnd + 1 || !onlySeparators(message, hashEnd))
+            throw new MessageIsNotValid(message.substring(start));
+
+        String fileName = innerText(message, start, nameEnd, start);
+        long length = parseLength(message, nameEnd + 1, lengthEnd, start);
+        String hash = (hashEnd == lengthEnd) ? null : hash(message, lengthEnd + 1, hashEnd, start);
+
+        return new Message(userName, ALL, fileName, length, PUBLIC_DATA, hash);
+    }
+
+    /**
+     * Parse private upload request message. format : " name<FileName>, length<Byte>, <User1>" (from start)
+     * or " name<FileName>, length<Byte>, sha256<Hash>, <User1>" (the content hash is optional, see FileHash)
+     * note that only the first receiver is used.
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private Message privateDataMessageParser(String message, int start) throws MessageIsNotValid {
+        int nameEnd = message.indexOf(USERNAMES_SEPARATOR, start);
+        int lengthEnd = (nameEnd == -1) ? -1 : message.indexOf(USERNAMES_SEPARATOR, nameEnd + 1);
+
+        if (lengthEnd == -1)
+            throw new MessageIsNotValid(message.substring(start));
+
+        String fileName = innerText(message, start, nameEnd, start);
+        long length = parseLength(message, nameEnd + 1, lengthEnd, start);
+
+        int receiverStart = lengthEnd + 1;
+        String hash = null;
+        if (isHashField(message, receiverStart)) {
+            int hashEnd = message.indexOf(USERNAMES_SEPARATOR, receiverStart);
+            if (hashEnd == -1)
+                throw new MessageIsNotValid(message.substring(start));
+            hash = hash(message, receiverStart, hashEnd, start);
+            receiverStart = hashEnd + 1;
+        }
+
+        int receiverEnd = fieldEnd(message, receiverStart);
+        int from = indexOf(message, '<', receiverStart, receiverEnd) + 1;
+        int to = lastIndexOf(message, '>', receiverStart, receiverEnd);
+        if (from == 0)
+            from = receiverStart;
+        if (to == -1 || from > to)
+            throw new MessageIsNotValid(message.substring(start));
+
+        return new Message(userName, new String[]{message.substring(from, to)}, fileName, length, PRIVATE_DATA,
+                hash);
+    }
+
+    /**
+     * Parse private message. format : " length=<N> to <A>,<B>\n\r<Body>" (from start)
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageLengthDoesNotExists
+     * @throws ReceiverDoesNotExists
+     * @throws MessageIsTooLong
+     */
+    private Message privateMessageParser(String message, int start) throws MessageLengthDoesNotExists,
+            ReceiverDoesNotExists, MessageIsTooLong {
+        int messageLength = messageLength(message, start);
 
-        String rec = parts[1].substring(0, parts[1].indexOf(BODY_SEPARATOR));
+        // Try to get the receivers of message from the raw message
+        int receiversSeparator = message.indexOf(RECEIVERS_SEPARATOR, start);
+        if (receiversSeparator == -1)
+            throw new ReceiverDoesNotExists(message.substring(start));
 
+        int receiversStart = receiversSeparator + RECEIVERS_SEPARATOR.length();
+        int bodySeparator = message.indexOf(BODY_SEPARATOR, receiversStart);
+        if (bodySeparator == -1)
+            throw new ReceiverDoesNotExists(message.substring(start));
 
         // Try to get the body of message.
-        String[] endSection = parts[1].split(BODY_SEPARATOR, 2);
+        String body = body(message, bodySeparator + BODY_SEPARATOR.length());
+        if (body == null)
+            return new Message(userName, NONE_RECEIVER, "", 0, MessageTypes.NONE);
 
-        String body;
+        return new Message(userName, receivers(message, receiversStart, bodySeparator), body, messageLength, PRIVATE);
+    }
 
-        if (endSection.length == 2) {
+    /**
+     * Parse public message. format : " length=<N>\n\r<Body>" (from start)
+     *
+     * @param message
+     * @param start
+     * @return
+     * @throws MessageLengthDoesNotExists
+     * @throws MessageIsTooLong
+     */
+    private Message publicMessageParser(String message, int start) throws MessageLengthDoesNotExists,
+            MessageIsTooLong {
+        int messageLength = messageLength(message, start);
 
-            try {
-                body = endSection[1].substring(endSection[1].indexOf("<") + 1, endSection[1].lastIndexOf(">"));
-            } catch (IndexOutOfBoundsException e) {
-                return new Message(userName, new String[]{"None"}, "", 0, MessageTypes.NONE);
-            }
-            return new Message(userName, convertStringToList(rec), body, messageLength, PRIVATE);
-        } else
-            return new Message(userName, new String[]{"None"}, "", 0, MessageTypes.NONE);
+        int bodySeparator = message.indexOf(BODY_SEPARATOR, start);
+        String body = (bodySeparator == -1) ? null : body(message, bodySeparator + BODY_SEPARATOR.length());
+        if (body == null)
+            return new Message(userName, NONE_RECEIVER, "", 0, MessageTypes.NONE);
 
+        return new Message(userName, ALL, body, messageLength, MessageTypes.PUBLIC);
     }
 
     /**
-     * Public messages pars in here.
+     * Returns the declared length of a chat message, the first "<N>" after the start.
      *
      * @param message
+     * @param start
      * @return
-     * @throws Exception
+     * @throws MessageLengthDoesNotExists
+     * @throws MessageIsTooLong
      */
-    @Override
-    public Message publicMessageParser(String message) throws MessageLengthDoesNotExists, MessageIsTooLong {
-        String length;
-        int messageLength;
+    private static int messageLength(String message, int start) throws MessageLengthDoesNotExists,
+            MessageIsTooLong {
+        int from = Math.max(message.indexOf('<', start), start - 1) + 1;
+        int to = message.indexOf('>', start);
+        if (to == -1 || from > to)
+            throw new MessageLengthDoesNotExists(message.substring(start));
 
         try {
-            length = message.substring(message.indexOf("<") + 1, message.indexOf(">"));
-        } catch (IndexOutOfBoundsException e) {
-            throw new MessageLengthDoesNotExists(message);
+            return (int) parseNumber(message, from, to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            throw new MessageIsTooLong(message.substring(from, to));
         }
+    }
+
+    /**
+     * Returns the body of a chat message, between the first "<" and the last ">" after the start.
+     * it returns null if the body doesn't exist.
+     *
+     * @param message
+     * @param start
+     * @return
+     */
+    private static String body(String message, int start) {
+        int from = Math.max(message.indexOf('<', start), start - 1) + 1;
+        int to = message.lastIndexOf('>');
+        if (to < start || from > to)
+            return null;
+        return message.substring(from, to);
+    }
 
+    /**
+     * Returns the receivers list of a private message. format : "<A>,<B>" (from start to end)
+     * The empty fields at the end of the list are ignored.
+     *
+     * @param message
+     * @param start
+     * @param end
+     * @return
+     * @throws ReceiverDoesNotExists
+     */
+    private String[] receivers(String message, int start, int end) throws ReceiverDoesNotExists {
+        if (start == end)
+            throw new ReceiverDoesNotExists(message.substring(start, end));
+
+        int count = 0;
+        int lastNonEmpty = 0;
+        int fieldStart = start;
+        while (fieldStart <= end) {
+            int fieldEnd = indexOf(message, USERNAMES_SEPARATOR.charAt(0), fieldStart, end);
+            if (fieldEnd == -1)
+                fieldEnd = end;
+
+            if (receiverBounds.length < 2 * (count + 1))
+                receiverBounds = Arrays.copyOf(receiverBounds, receiverBounds.length * 2);
+            receiverBounds[2 * count] = fieldStart;
+            receiverBounds[2 * count + 1] = fieldEnd;
+            count++;
+            if (fieldEnd > fieldStart)
+                lastNonEmpty = count;
+
+            fieldStart = fieldEnd + 1;
+        }
+
+        String[] receivers = new String[lastNonEmpty];
+        for (int i = 0; i < lastNonEmpty; i++) {
+            int receiverStart = receiverBounds[2 * i];
+            int receiverEnd = receiverBounds[2 * i + 1];
+            int from = indexOf(message, '<', receiverStart, receiverEnd) + 1;
+            int to = lastIndexOf(message, '>', receiverStart, receiverEnd);
+            if (from == 0)
+                from = receiverStart;
+            if (to == -1 || from > to)
+                throw new ReceiverDoesNotExists(message.substring(receiverStart, receiverEnd));
+            receivers[i] = message.substring(from, to);
+        }
+        return receivers;
+    }
+
+    /**
+     * Returns the text between the first "<" and the first ">" of a field (from start to end).
+     *
+     * @param message
+     * @param start
+     * @param end
+     * @param messageStart start of the message, for the exception
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private static String innerText(String message, int start, int end, int messageStart)
+            throws MessageIsNotValid {
+        int from = indexOf(message, '<', start, end) + 1;
+        int to = indexOf(message, '>', start, end);
+        if (from == 0)
+            from = start;
+        if (to == -1 || from > to)
+            throw new MessageIsNotValid(message.substring(messageStart));
+        return message.substring(from, to);
+    }
+
+    /**
+     * Returns the number between the first "<" and the first ">" of a field (from start to end).
+     *
+     * @param message
+     * @param start
+     * @param end
+     * @param messageStart start of the message, for the exception
+     * @return
+     * @throws MessageIsNotValid
+     */
+    private static long parseLength(String message, int start, int end, int messageStart)
+            throws MessageIsNotValid {
+        int from = indexOf(message, '<', start, end) + 1;
+        int to = indexOf(message, '>', start, end);
+        if (from == 0)
+            from = start;
+        if (to == -1 || from > to)
+            throw new MessageIsNotValid(message.substring(messageStart));
         try {
-            messageLength = Integer.parseInt(length);
+            return parseNumber(message, from, to, Long.MIN_VALUE, Long.MAX_VALUE);
         } catch (NumberFormatException e) {
-            throw new MessageIsTooLong(length);
+            throw new MessageIsNotValid(message.substring(messageStart));
         }
+    }
 
-        String[] endSection = message.split(BODY_SEPARATOR, 2);
+    /**
+     * Returns true if the field which starts from the given index is the content hash. " sha256<Hash>"
+     *
+     * @param message
+     * @param start
+     * @return
+     */
+    private static boolean isHashField(String message, int start) {
+        while (start < message.length() && message.charAt(start) == ' ')
+            start++;
+        return message.startsWith(HASH, start);
+    }
 
-        if (endSection.length == 2) {
-            String body = "";
-            try {
-                body = endSection[1].substring(endSection[1].indexOf("<") + 1, endSection[1].lastIndexOf(">"));
-            } catch (IndexOutOfBoundsException e) {
-                return new Message(userName, new String[]{"None"}, "", 0, MessageTypes.NONE);
-            }
+    /**
+     * Returns the content hash of the hash field (from start to end).
+     *
+     * @param message
+     * @param start
+     * @param end
+     * @param messageStart start of the message, for the exception
+     * @return
+     * @throws MessageIsNotValid if it's not a hash (see FileHash)
+     */
+    private static String hash(String message, int start, int end, int messageStart) throws MessageIsNotValid {
+        String hash = innerText(message, start, end, messageStart);
+        if (!FileHash.isValid(hash))
+            throw new MessageIsNotValid(message.substring(messageStart));
+        return hash;
+    }
+
+    /**
+     * Parse a decimal number (from start to end) like Integer.parseInt and Long.parseLong,
+     * without making a substring.
+     *
+     * @param text
+     * @param start
+     * @param end
+     * @param min
+     * @param max
+     * @return
+     * @throws NumberFormatException
+     */
+    private static long parseNumber(String text, int start, int end, long min, long max)
+            throws NumberFormatException {
+        if (start >= end)
+            throw new NumberFormatException();
+
+        boolean negative = false;
+        long limit = -max;
+        int index = start;
+
+        char first = text.charAt(index);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+                limit = min;
+            } else if (first != '+')
+                throw new NumberFormatException();
+
+            if (end - start == 1)
+                throw new NumberFormatException();
+            index++;
+        }
+
+        long multiplyMin = limit / 10;
+        long result = 0;
+        while (index < end) {
+            int digit = Character.digit(text.charAt(index++), 10);
+            if (digit < 0 || result < multiplyMin)
+                throw new NumberFormatException();
+            result *= 10;
+            if (result < limit + digit)
+                throw new NumberFormatException();
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static boolean isType(String message, int separator, String type) {
+        return separator == type.length() && message.startsWith(type);
+    }
+
+    /**
+     * Returns the end of the field which starts from the given index.
+     *
+     * @param message
+     * @param start
+     * @return
+     */
+    private static int fieldEnd(String message, int start) {
+        int end = message.indexOf(USERNAMES_SEPARATOR, start);
+        return (end == -1) ? message.length() : end;
+    }
+
+    /**
+     * Returns true if there are only separators (empty fields) from the given index.
+     *
+     * @param message
+     * @param start
+     * @return
+     */
+    private static boolean onlySeparators(String message, int start) {
+        for (int i = start; i < message.length(); i++)
+            if (message.charAt(i) != USERNAMES_SEPARATOR.charAt(0))
+                return false;
+        return true;
+    }
+
+    private static int indexOf(String message, char c, int start, int end) {
+        int index = message.indexOf(c, start);
+        return (index < end) ? index : -1;
+    }
 
-            return new Message(userName, new String[]{"All"}, body, messageLength, MessageTypes.PUBLIC);
-        } else
-            return new Message(userName, new String[]{"None"}, "", 0, MessageTypes.NONE);
+    private static int lastIndexOf(String message, char c, int start, int end) {
+        int index = message.lastIndexOf(c, end - 1);
+        return (index >= start) ? index : -1;
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package Server;
 
 /**
  * Runs server :)
+ * The optional settings are passed as system properties (See ServerConfiguration).
  */
 public class ServerRunner {
     private static final int PORT = 15_000;
@@ -9,11 +10,12 @@ public class ServerRunner {
 
     public static void main(String[] args) {
         Server server;
+        ServerConfiguration configuration = ServerConfiguration.fromSystemProperties();
         try {
-            server = (args.length == 2) ? new Server(Integer.parseInt(args[0]), Integer.parseInt(args[1])) :
-                    new Server(PORT, CAPACITY);
+            server = (args.length == 2) ? new Server(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                    configuration) : new Server(PORT, CAPACITY, configuration);
         } catch (NumberFormatException e) {
-            server = new Server(PORT, CAPACITY);
+            server = new Server(PORT, CAPACITY, configuration);
         }
 
         server.runServer();
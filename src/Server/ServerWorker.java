@@ -2,17 +2,24 @@ package Server;
 
 import Message.Message;
 import Message.Parser.Exceptions.*;
+import Message.Protocol.BinaryProtocol;
 import Server.Exceptions.ReceivingFromClientWasFailed;
 import Server.Exceptions.SendingToClientWasFailed;
 import Server.FileSharing.ServerFileDownloader;
 import Server.FileSharing.ServerFileUploader;
+import Transfer.ParallelTransfer;
+import Server.Network.Packet;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import static Message.MessageTypes.*;
 import static Message.StaticMessages.*;
@@ -25,12 +32,20 @@ public class ServerWorker implements Runnable {
     private final ExecutorService fileDownloadingExecutor;
     private final ExecutorService fileUploadingExecutor;
     private final int FILE_SHARING_CAPACITY;
+    private final int STREAMS_CAPACITY;
+    private final boolean sharedExecutors;
+    private final Executor blockingTaskExecutor;
 
     private ServerMessageParser parser;
+    private ServerFrameDecoder decoder;
+    private int protocol = BinaryProtocol.TEXT_PROTOCOL;
+    private long lastSeenSequence = -1;
+    private long liveSequence = 0;
 
     private int downloadingInProgress = 0;
     private int uploadingInProgress = 0;
-    private boolean isOnline = true;
+    private int streamsInProgress = 0;
+    private volatile boolean isOnline = true;
     private boolean establishingConnectionState = true;
 
     public ServerWorker(Client client) {
@@ -38,64 +53,166 @@ public class ServerWorker implements Runnable {
         this.logger = LogManager.getLogger(ServerWorker.class.getName());
 
         this.FILE_SHARING_CAPACITY = client.getServer().getCAPACITY();
-        this.fileDownloadingExecutor = Executors.newFixedThreadPool(FILE_SHARING_CAPACITY);
-        this.fileUploadingExecutor = Executors.newFixedThreadPool(FILE_SHARING_CAPACITY);
+        this.STREAMS_CAPACITY = client.getServer().getConfiguration().getUserStreams();
+
+        // With virtual threads, all of the workers use the server's shared executor.
+        ExecutorService sharedExecutor = client.getServer().getFileSharingExecutor();
+        this.sharedExecutors = Optional.ofNullable(sharedExecutor).isPresent();
+        this.fileDownloadingExecutor = sharedExecutors ? sharedExecutor :
+                Executors.newFixedThreadPool(FILE_SHARING_CAPACITY);
+        this.fileUploadingExecutor = sharedExecutors ? sharedExecutor :
+                Executors.newFixedThreadPool(FILE_SHARING_CAPACITY);
+
+        // Event loops must not wait, so the NIO engine runs the blocking tasks on the client executor.
+        ServerConfiguration configuration = client.getServer().getConfiguration();
+        this.blockingTaskExecutor = (configuration.getEngine() == ServerConfiguration.Engine.NIO) ?
+                client.getServer().getClientExecutor() : null;
     }
 
     /**
      * This method call when a new thread created for the client, it will run till
      * client request for log out or client connection be inaccessible.
+     * note that it's only used by the BLOCKING engine, the NIO engine calls handleMessage
+     * by it self.
      */
     @Override
     public void run() {
-        String message;
+        Packet message;
 
         while (isOnline) {
             try {
                 //Wait for client to send a message .
                 logger.debug("Waiting for client message");
                 message = client.receiveMessageFromClient();
+                handleMessage(message);
+            } catch (ReceivingFromClientWasFailed e) {
+                //Any problem in connecting to client, will refuse the connection.
+                forceLogout(e);
+            }
+        }
+    }
 
-                logger.debug("User Message : " + message);
-
-                // If is the first message from client, will parse as the handshake request
-                if (establishingConnectionState) {
-                    /* If this handshake was valid (sign and user name) it will send
-                       the welcome message to the client and broad cast this join to the
-                       other online users.
-                     */
-                    if (establishingConnection(message)) {
-                        welcomeMessages();
-                    } else
-                        rejectConnection();//If it was not valid, it will reject this connection.
-                    establishingConnectionState = false;
+    /**
+     * Handle a received message from the client.
+     * The first message will be parsed as the handshake request and the rest of them
+     * will be parsed (or decoded, in binary protocol) to recognize the proper action for the request.
+     *
+     * @param message
+     */
+    public void handleMessage(Packet message) {
+        try {
+            // If is the first message from client, will parse as the handshake request
+            if (establishingConnectionState) {
+                logger.debug("User Message : " + message.getText());
+                /* If this handshake was valid (sign and user name) it will send
+                   the welcome message to the client and broad cast this join to the
+                   other online users.
+                 */
+                establishingConnectionState = false;
+                // Adding the client takes the routing lock of the server, and catching it up reads the history.
+                runBlocking(() -> {
+                    try {
+                        if (message.isText() && establishingConnection(message.getText()))
+                            welcomeMessages();
+                        else
+                            rejectConnection();//If it was not valid, it will reject this connection.
+                    } catch (SendingToClientWasFailed e) {
+                        forceLogout(e);
+                    }
+                });
+            } else {
+                /* For the rest of time, parse any message from client to
+                   to recognize the proper action for the request.
+                 */
+                Message parsedMessage;
+                if (message.isText()) {
+                    logger.debug("User Message : " + message.getText());
+                    parsedMessage = parser.parse(message.getText());
                 } else {
-                    /* For the rest of time, parse any message from client to
-                       to recognize the proper action for the request.
-                     */
-                    Message parsedMessage = parser.parse(message);
-                    if (parsedMessage.getType() == PUBLIC_DATA || parsedMessage.getType() == PRIVATE_DATA)
-                        handlingUploadMessages(parsedMessage);
-                    else if (parsedMessage.getType() == PRIVATE)
-                        handlingPrivateMessage(parsedMessage);
-                    else if (parsedMessage.getType() == PUBLIC)
-                        handlingPublicMessage(parsedMessage);
-                    else if (parsedMessage.getType() == COMMAND)
-                        handlingCommands(parsedMessage);
-                    else if (parsedMessage.getType() == DL)
-                        handlingDownloadRequest(parsedMessage);
-
+                    parsedMessage = decoder.decode(message.getFrame());
+                    if (!Optional.ofNullable(parsedMessage).isPresent())
+                        return;//It was a chunk of a long message.
                 }
-            } catch (MessageIsNotValid | MessageTypeIsNotValid | MessageLengthDoesNotExists | MessageIsTooLong |
-                    ReceiverDoesNotExists e) {
-                logger.error(e.getMessage());
-            } catch (SendingToClientWasFailed | ReceivingFromClientWasFailed e) {
-                //Any problem in connecting to client, will refuse the connection.
-                forceLogout(e);
+
+                Message request = parsedMessage;
+                if (parsedMessage.getType() == PUBLIC_DATA || parsedMessage.getType() == PRIVATE_DATA)
+                    handlingUploadMessages(parsedMessage);
+                else if (parsedMessage.getType() == PRIVATE)
+                    runBlocking(() -> handlingPrivateMessage(request));
+                else if (parsedMessage.getType() == PUBLIC)
+                    runBlocking(() -> handlingPublicMessage(request));
+                else if (parsedMessage.getType() == COMMAND)
+                    runBlocking(() -> handlingCommands(request));
+                else if (parsedMessage.getType() == DL)
+                    handlingDownloadRequest(parsedMessage);
+
             }
+        } catch (MessageIsNotValid | MessageTypeIsNotValid | MessageLengthDoesNotExists | MessageIsTooLong |
+                ReceiverDoesNotExists e) {
+            logger.error(e.getMessage());
+        } catch (SendingToClientWasFailed e) {
+            //Any problem in connecting to client, will refuse the connection.
+            forceLogout(e);
+        }
+    }
+
+    /**
+     * Run a task of the client which may block (e.g. reading the history, taking the routing lock of the server, or
+     * waiting for the outbound queue of a receiver). The NIO engine runs it on the client executor of the server,
+     * and the next messages of the client are not handled till it's done (see Transport.suspendReading), so they
+     * are still handled in order and the event loop doesn't wait for it. The BLOCKING engine runs it on the client
+     * thread.
+     *
+     * @param task
+     */
+    private void runBlocking(Runnable task) {
+        if (!Optional.ofNullable(blockingTaskExecutor).isPresent()) {
+            task.run();
+            return;
+        }
+
+        client.suspendReading();
+        try {
+            blockingTaskExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    client.resumeReading();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Server is shutting down.
+            client.resumeReading();
+        }
+    }
+
+    /**
+     * Called by the NIO engine when the client connection is closed or broken.
+     *
+     * @param e
+     */
+    public void connectionLost(Exception e) {
+        if (!isOnline)
+            return;
+
+        if (Optional.ofNullable(client.getUserName()).isPresent())
+            forceLogout(e);
+        else {
+            // Handshake was not done yet, so there is nothing to sign out.
+            logger.debug(e.getMessage());
+            isOnline = false;
         }
     }
 
+    /**
+     * Return true till the client is logged out or it's connection is rejected.
+     *
+     * @return
+     */
+    public boolean isOnline() {
+        return isOnline;
+    }
+
 
     /**
      * If client requested to upload a file,
@@ -135,7 +252,8 @@ public class ServerWorker implements Runnable {
      * If received message from source client type was COMMAND,
      * based on the message body, it will call the proper method.
      * if it wsa GET_USERS_LIST request, it will send the online users
-     * to the client.
+     * to the client, if it was HISTORY request, it will send a page of the history, and if it was
+     * SEARCH request, it will send the sequence numbers of the found messages.
      *
      * @param message
      */
@@ -147,6 +265,10 @@ public class ServerWorker implements Runnable {
                 client.sendMessageToClient(ServerMessageBuilder.responseBuilder(LIST_PASSED,
                         ServerMessageBuilder.sendUsersList(client.getServer().getOnlineUsers())
                 ));
+            else if (message.getBody().equals(HISTORY))
+                client.getServer().sendHistory(client, message.getQuery());
+            else if (message.getBody().equals(SEARCH))
+                client.getServer().sendSearchResults(client, message.getQuery().getWords());
         } catch (SendingToClientWasFailed e) {
             logger.error(e.getMessage());
         }
@@ -160,8 +282,8 @@ public class ServerWorker implements Runnable {
      * @param message
      */
     private void handlingPublicMessage(Message message) {
-        client.getServer().broadCastMessage(ServerMessageBuilder.publicMessage(message.getSafeBody(),
-                message.getLength(), client.getUserName()));
+        client.getServer().broadCastPublicMessage(message.getSafeBody(), message.getLength(),
+                client.getUserName());
     }
 
     /**
@@ -170,19 +292,24 @@ public class ServerWorker implements Runnable {
      * if all of the receiver, received it's own message, it will send
      * SENDING_PRIVATE_MESSAGE_WAS_SUCCESSFUL message to source client otherwise
      * it will send a message which contains the list of not received clients.
+     * The offline receivers which get the message at their next login (see OfflineInbox)
+     * are sent in a PRIVATE_MESSAGE_IS_STORED message.
      *
      * @param message
      */
     private void handlingPrivateMessage(Message message) {
-        String[] notReceivedClients = client.getServer().
-                sendPrivateMessage(ServerMessageBuilder.privateMessage(message.getSafeBody(),
-                        message.getLength(), client.getUserName(),
-                        message.getReceivers()), message.getReceivers());
+        List<String> storedClients = new LinkedList<>();
+        String[] notReceivedClients = client.getServer().sendPrivateMessage(message.getSafeBody(),
+                message.getLength(), client.getUserName(), message.getReceivers(), storedClients);
         try {
-            if (notReceivedClients.length == 0)
-                client.sendMessageToClient(ServerMessageBuilder.
-                        responseBuilder(SENDING_PRIVATE_MESSAGE_WAS_SUCCESSFUL, ""));
-            else
+            if (!storedClients.isEmpty())
+                client.sendMessageToClient(ServerMessageBuilder.responseBuilder(PRIVATE_MESSAGE_IS_STORED,
+                        ServerMessageBuilder.convertListToString(storedClients.toArray(new String[0]))));
+            if (notReceivedClients.length == 0) {
+                if (storedClients.isEmpty())
+                    client.sendMessageToClient(ServerMessageBuilder.
+                            responseBuilder(SENDING_PRIVATE_MESSAGE_WAS_SUCCESSFUL, ""));
+            } else
                 client.sendMessageToClient(ServerMessageBuilder.responseBuilder(
                         SENDING_PRIVATE_MESSAGE_WAS_NOT_SUCCESSFUL,
                         ServerMessageBuilder.convertListToString(notReceivedClients)
@@ -206,8 +333,19 @@ public class ServerWorker implements Runnable {
     private boolean establishingConnection(String handshake) {
         if (Optional.ofNullable(handshake).isPresent()) {
             if (validateHandshake(handshake)) {
-                if (client.getServer().addClient(client, extractingUserName(handshake))) {
+                lastSeenSequence = Optional.ofNullable(client.getServer().getMessageLog()).isPresent() ?
+                        BinaryProtocol.requestedSequence(handshake) : -1;
+                // The live messages are held till the handshake is answered, and a reconnecting client gets
+                // the missed messages before them (see welcomeMessages). Each message is either in the history
+                // part (<= liveSequence) or held (see Server.addHeldClient).
+                long addedAt = client.getServer().addHeldClient(client, extractingUserName(handshake));
+                if (addedAt >= 0) {
+                    liveSequence = addedAt;
                     parser = new ServerMessageParser(client.getUserName());
+                    decoder = new ServerFrameDecoder(client.getUserName(), parser,
+                            client.getServer().getConfiguration().getMaxMessageSize());
+                    protocol = Math.min(BinaryProtocol.requestedProtocol(handshake),
+                            client.getServer().getConfiguration().getProtocol());
                     return true;
                 }
             }
@@ -219,28 +357,67 @@ public class ServerWorker implements Runnable {
      * Send a welcome message to client and all the other
      * clients on public chatroom .
      * and send handshake accept response to client to start it's job :)
+     * If the client asked for the binary protocol, the accept response contains the
+     * accepted protocol, and the next messages will use it.
+     * If the handshake had the last seen sequence number, the accept response contains the sequence number
+     * of the last message, and a reconnecting client gets the messages which it missed before the live ones
+     * (at most server.catchUpLimit of them). The private messages which are sent to the client when it was
+     * offline (see OfflineInbox) are sent with them in order, a new client which has such messages gets the
+     * messages after the first one of them (the accept response contains the sequence number before it). They are
+     * removed from the inbox after they are sent.
      *
      * @throws SendingToClientWasFailed
      */
     private void welcomeMessages() throws SendingToClientWasFailed {
-        client.sendMessageToClient(ServerMessageBuilder.responseBuilder(HANDSHAKE_ACCEPTED, ""));
+        long[] inbox = client.getServer().readInbox(client);
+        // 0 is a new client, it doesn't have any missed message unless it has offline messages.
+        boolean hasOfflineMessages = lastSeenSequence == 0 && inbox.length > 0;
+        long seenSequence = hasOfflineMessages ? inbox[0] - 1 : lastSeenSequence;
+
+        // The messages after the sent sequence are sent (missed and live ones), the client gets it as it's last
+        // seen message if it's new.
+        String sequenceSign = (lastSeenSequence >= 0) ? SEQUENCE + (hasOfflineMessages ? seenSequence :
+                liveSequence) : "";
+        if (protocol > BinaryProtocol.TEXT_PROTOCOL)
+            client.acceptProtocol(ServerMessageBuilder.responseBuilder(HANDSHAKE_ACCEPTED,
+                    (sequenceSign.isEmpty() ? "" : sequenceSign + ", ") + BinaryProtocol.protocolSign(protocol)),
+                    protocol, lastSeenSequence >= 0);
+        else
+            client.sendMessageToClient(ServerMessageBuilder.responseBuilder(HANDSHAKE_ACCEPTED, sequenceSign));
         client.sendMessageToClient(ServerMessageBuilder.responseBuilder(HANDSHAKE_ACCEPTED,
                 ServerMessageBuilder.handshakeAcceptResponse(client.getUserName())
         ));
         String joinMessage = ServerMessageBuilder.userJoiningInChatRoom
                 (client.getUserName());
-        String publicMessage = ServerMessageBuilder.publicMessage(
-                joinMessage,
-                joinMessage.length(),
-                "Server"
-        );
-        client.getServer().broadCastMessage(publicMessage);
+        client.getServer().broadCastPublicMessage(joinMessage, joinMessage.length(), "Server");
+
+        boolean catchUp = lastSeenSequence >= 0 && (lastSeenSequence > 0 || hasOfflineMessages)
+                && seenSequence < liveSequence;
+        long caughtUpAfter = catchUp ? Math.max(seenSequence,
+                liveSequence - client.getServer().getConfiguration().getCatchUpLimit()) : liveSequence;
+
+        // The messages are sent in order, so the client can skip the ones which it has already seen.
+        boolean inboxSent = client.getServer().flushInbox(client, inbox, 0, caughtUpAfter);
+        long sent = lastSeenSequence;
+        if (catchUp) {
+            sent = client.getServer().catchUp(client, caughtUpAfter, liveSequence);
+            logger.debug(String.format("%s got the missed messages %d-%d", client.getUserName(),
+                    caughtUpAfter + 1, sent));
+        }
+        // They are sent to the inbox before the client was added, so they aren't held.
+        inboxSent &= client.getServer().flushInbox(client, inbox, liveSequence, Long.MAX_VALUE);
+        // The inbox is kept till it's sent, so it's sent again at the next login if sending it fails.
+        if (inboxSent)
+            client.getServer().removeInbox(client, inbox);
+
+        // Only the held messages which the client has already got (or just got from the history) are skipped.
+        client.releaseLiveMessages(sent);
     }
 
 
     /**
      * Takes the handshake and validates it
-     * this message format is : Hello<\Username\>
+     * this message format is : Hello<\Username\> (and optionally ", protocol=2")
      * if it was valid , it will return true.
      *
      * @param handshake
@@ -262,8 +439,10 @@ public class ServerWorker implements Runnable {
      */
     private void rejectConnection() {
         isOnline = false;
+        shutDownExecutors();
         try {
             client.sendMessageToClient(ServerMessageBuilder.responseBuilder(HANDSHAKE_REJECTED, ""));
+            client.closeConnection();
             client.getServer().updateCapacity(-1);
         } catch (SendingToClientWasFailed e) {
             logger.error(e.getMessage());
@@ -281,6 +460,7 @@ public class ServerWorker implements Runnable {
         if (!forcedSignOut)
             client.sendMessageToClient(ServerMessageBuilder.responseBuilder(LOG_OUT, ""));
         isOnline = false;
+        shutDownExecutors();
         client.getServer().broadCastMessage(ServerMessageBuilder.responseBuilder(USER_LOGOUT,
                 ServerMessageBuilder.logoutMessage(client.getUserName())
         ));
@@ -292,6 +472,18 @@ public class ServerWorker implements Runnable {
         }
     }
 
+    /**
+     * Shutdown the own file sharing thread pools of the worker, the running
+     * transfers will be finished. Shared executors belong to the server, so they
+     * will not be touched.
+     */
+    private void shutDownExecutors() {
+        if (!sharedExecutors) {
+            fileDownloadingExecutor.shutdown();
+            fileUploadingExecutor.shutdown();
+        }
+    }
+
     /**
      * If there was any connection problem between the server
      * and the client, it will logout and remove the client
@@ -300,6 +492,12 @@ public class ServerWorker implements Runnable {
      * @param e
      */
     private void forceLogout(Exception e) {
+        // The NIO engine may lose the connection while a blocking task of the client is failing too.
+        synchronized (this) {
+            if (!isOnline)
+                return;
+            isOnline = false;
+        }
         logger.fatal(e.getMessage());
         logger.debug("This Connection forced close!");
         try {
@@ -342,4 +540,28 @@ public class ServerWorker implements Runnable {
         uploadingInProgress--;
     }
 
+    /**
+     * Reserve the data connections of a transfer of length bytes (see ParallelTransfer), at most
+     * server.transferStreams, and the user can't have more than STREAMS_CAPACITY of them at the same time.
+     * Each transfer gets at least one connection.
+     *
+     * @param length
+     * @return
+     */
+    public synchronized int acquireStreams(long length) {
+        int streams = ParallelTransfer.streams(length, client.getServer().getConfiguration().getTransferStreams());
+        streams = Math.max(1, Math.min(streams, STREAMS_CAPACITY - streamsInProgress));
+        streamsInProgress += streams;
+        return streams;
+    }
+
+    /**
+     * Release the data connections of a finished transfer.
+     *
+     * @param streams
+     */
+    public synchronized void releaseStreams(int streams) {
+        streamsInProgress -= streams;
+    }
+
 }
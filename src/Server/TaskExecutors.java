@@ -0,0 +1,54 @@
+package Server;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the executors of the server tasks (ServerWorker, ServerFileDownloader and ServerFileUploader).
+ */
+public class TaskExecutors {
+
+    private static final Logger logger = LogManager.getLogger(TaskExecutors.class.getName());
+    private static final long IDLE_THREAD_TIMEOUT = 60;
+
+    private static ExecutorService virtualThreadExecutor;
+    private static boolean virtualThreadsChecked = false;
+
+    /**
+     * Returns an executor which runs at most maxConcurrentTasks tasks at the same time
+     * on the shared virtual-thread-per-task executor, shutting it down doesn't stop the other ones.
+     * Virtual threads need java 21, on older java versions it returns a thread pool with the same
+     * limit, which only makes the threads when they are needed and lets the idle ones go.
+     *
+     * @param maxConcurrentTasks
+     * @return
+     */
+    public static synchronized ExecutorService newVirtualThreadExecutor(int maxConcurrentTasks) {
+        if (!virtualThreadsChecked) {
+            virtualThreadsChecked = true;
+            try {
+                virtualThreadExecutor = (ExecutorService) MethodHandles.publicLookup().findStatic(Executors.class,
+                        "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                        .invoke();
+            } catch (Throwable e) {
+                logger.error("Virtual threads are not supported by this java version, using platform threads!");
+            }
+        }
+
+        if (Optional.ofNullable(virtualThreadExecutor).isPresent())
+            return new BoundedExecutor(virtualThreadExecutor, maxConcurrentTasks);
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxConcurrentTasks, maxConcurrentTasks,
+                IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+}
@@ -0,0 +1,191 @@
+package Tests;
+
+import Client.ClientFrameDecoder;
+import Client.ClientMessageBuilder;
+import Message.Message;
+import Message.MessageTypes;
+import Message.Parser.Exceptions.*;
+import Message.Protocol.FrameBuilder;
+import Message.Protocol.FrameReader;
+import Server.ServerFrameDecoder;
+import Server.ServerMessageParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static Message.Protocol.BinaryProtocol.*;
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of the binary protocol : the frames which are built by FrameBuilder are read (readFrame) and decoded
+ * (ServerFrameDecoder, ClientFrameDecoder) to the same message, and the chunks of a long message are put
+ * together by FrameAssembler.
+ */
+public class BinaryProtocolTest {
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("protocol: varints", () -> {
+            for (int value : new int[]{0, 1, 127, 128, 16_383, 16_384, 1 << 21, Integer.MAX_VALUE}) {
+                byte[] frame = single(new FrameBuilder(USER).writeVarInt(value).writeText("bob").build());
+                FrameReader reader = new FrameReader(frame);
+                checkEquals(USER, reader.getType());
+                checkEquals(value, reader.readVarInt());
+                checkEquals("bob", reader.readText());
+                checkEquals(1 + varIntSize(value) + 3, frame.length);
+            }
+
+            checkEquals(-1, readVarInt(new byte[]{(byte) 0x80, (byte) 0x80}, 0, 2));
+            checkEquals(300, readVarInt(new byte[]{0, (byte) 0xAC, 0x02}, 1, 3));
+            checkThrows(IOException.class, () -> readVarInt(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                    (byte) 0xFF, (byte) 0xFF, 0x01}, 0, 6));
+        });
+
+        runner.run("protocol: frame length is checked", () -> {
+            checkThrows(IOException.class, () -> readFrame(new DataInputStream(new ByteArrayInputStream(
+                    new byte[]{0}))));
+            checkThrows(IOException.class, () -> readFrame(new DataInputStream(new ByteArrayInputStream(
+                    new byte[]{(byte) 0xFF, (byte) 0xFF, 0x7F}))));
+            checkThrows(IOException.class, () -> readFrame(new DataInputStream(new ByteArrayInputStream(
+                    new byte[]{3, TEXT, 'a'}))));
+        });
+
+        runner.run("protocol: handshake", () -> {
+            String handshake = ClientMessageBuilder.handshakeMessage("alice", 120, BINARY_PROTOCOL);
+            checkEquals(BINARY_PROTOCOL, requestedProtocol(handshake));
+            checkEquals(120L, requestedSequence(handshake));
+            checkEquals(TEXT_PROTOCOL, requestedProtocol(ClientMessageBuilder.handshakeMessage("alice")));
+            checkEquals(-1L, requestedSequence(ClientMessageBuilder.handshakeMessage("alice", BINARY_PROTOCOL)));
+            checkEquals(TEXT_PROTOCOL, requestedProtocol("Hello<protocol=2>"));
+        });
+
+        runner.run("protocol: client messages round trip", () -> {
+            ServerFrameDecoder decoder = decoder(MAX_MESSAGE_LENGTH);
+
+            Message publicMessage = decoder.decode(single(new FrameBuilder(PUBLIC).writeText("Hi, <all>").build()));
+            checkEquals(MessageTypes.PUBLIC, publicMessage.getType());
+            checkEquals("alice", publicMessage.getSender());
+            checkEquals("Hi, <all>", publicMessage.getBody());
+
+            Message privateMessage = decoder.decode(single(new FrameBuilder(PRIVATE)
+                    .writeReceivers(new String[]{"bob", "carol"}).writeText("سلام").build()));
+            checkEquals(MessageTypes.PRIVATE, privateMessage.getType());
+            checkEquals(new String[]{"bob", "carol"}, privateMessage.getReceivers());
+            checkEquals("سلام", privateMessage.getBody());
+
+            Message command = decoder.decode(single(new FrameBuilder(TEXT)
+                    .writeText(ClientMessageBuilder.historyRequest(10, 5)).build()));
+            checkEquals(10L, command.getQuery().getBeforeSequence());
+
+            checkThrows(ReceiverDoesNotExists.class, () -> decoder.decode(single(new FrameBuilder(PRIVATE)
+                    .writeReceivers(new String[0]).writeText("Hi").build())));
+            checkThrows(MessageTypeIsNotValid.class, () -> decoder.decode(single(new FrameBuilder(USER)
+                    .writeVarInt(1).writeText("bob").build())));
+        });
+
+        runner.run("protocol: chunked message round trip", () -> {
+            String body = text(3 * CHUNK_SIZE + 100);
+            List<byte[]> frames = frames(new FrameBuilder(PUBLIC).writeText(body).build());
+            checkEquals(4, frames.size());
+
+            ServerFrameDecoder decoder = decoder(MAX_MESSAGE_LENGTH);
+            for (int i = 0; i < frames.size() - 1; i++) {
+                checkEquals(CHUNK, frames.get(i)[0]);
+                checkNull(decoder.decode(frames.get(i)));
+            }
+            checkEquals(LAST_CHUNK, frames.get(frames.size() - 1)[0]);
+            checkEquals(body, decoder.decode(frames.get(frames.size() - 1)).getBody());
+
+            // The assembler is empty again after the message.
+            checkEquals("next", decoder.decode(single(new FrameBuilder(PUBLIC).writeText("next").build()))
+                    .getBody());
+        });
+
+        runner.run("protocol: too long chunked message is dropped", () -> {
+            ServerFrameDecoder decoder = decoder(2 * CHUNK_SIZE);
+            List<byte[]> frames = frames(new FrameBuilder(PUBLIC).writeText(text(4 * CHUNK_SIZE)).build());
+            int thrown = 0;
+            for (byte[] frame : frames) {
+                try {
+                    checkNull(decoder.decode(frame));
+                } catch (MessageIsTooLong e) {
+                    thrown++;
+                }
+            }
+            checkEquals(1, thrown);
+            checkEquals("next", decoder.decode(single(new FrameBuilder(PUBLIC).writeText("next").build()))
+                    .getBody());
+        });
+
+        runner.run("protocol: message in the middle of a chunked message", () -> {
+            ServerFrameDecoder decoder = decoder(MAX_MESSAGE_LENGTH);
+            List<byte[]> frames = frames(new FrameBuilder(PUBLIC).writeText(text(2 * CHUNK_SIZE)).build());
+            checkNull(decoder.decode(frames.get(0)));
+            byte[] next = single(new FrameBuilder(PUBLIC).writeText("next").build());
+            checkThrows(MessageIsNotValid.class, () -> decoder.decode(next));
+            checkEquals("next", decoder.decode(next).getBody());
+            checkThrows(MessageIsNotValid.class, () -> decoder.decode(new byte[]{LAST_CHUNK}));
+        });
+
+        runner.run("protocol: server messages round trip", () -> {
+            ClientFrameDecoder decoder = new ClientFrameDecoder("alice");
+            checkNull(decoder.decode(single(new FrameBuilder(USER).writeVarInt(7).writeText("bob").build())));
+            checkNull(decoder.decode(single(new FrameBuilder(SEQUENCE).writeLong(42).build())));
+
+            Message publicMessage = decoder.decode(single(new FrameBuilder(PUBLIC).writeVarInt(7).writeText("Hi")
+                    .build()));
+            checkEquals(MessageTypes.PUBLIC, publicMessage.getType());
+            checkEquals("bob", publicMessage.getSender());
+            checkEquals("Hi", publicMessage.getBody());
+            checkEquals(42L, publicMessage.getSequence());
+
+            Message privateMessage = decoder.decode(single(new FrameBuilder(PRIVATE).writeVarInt(7)
+                    .writeReceivers(new String[]{"alice"}).writeText("Hey").build()));
+            checkEquals(new String[]{"alice"}, privateMessage.getReceivers());
+            checkEquals(0L, privateMessage.getSequence());
+
+            checkThrows(SenderDoesNotExists.class, () -> decoder.decode(single(new FrameBuilder(PUBLIC)
+                    .writeVarInt(8).writeText("Hi").build())));
+        });
+    }
+
+    private static ServerFrameDecoder decoder(int maxMessageSize) {
+        return new ServerFrameDecoder("alice", new ServerMessageParser("alice"), maxMessageSize);
+    }
+
+    /**
+     * Read the frames (type + payload) of the built bytes.
+     *
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    private static List<byte[]> frames(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        List<byte[]> frames = new ArrayList<>();
+        while (in.available() > 0)
+            frames.add(readFrame(in));
+        return frames;
+    }
+
+    private static byte[] single(byte[] bytes) throws IOException {
+        List<byte[]> frames = frames(bytes);
+        checkEquals(1, frames.size());
+        return frames.get(0);
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append((char) ('a' + i % 26));
+        return text.toString();
+    }
+}
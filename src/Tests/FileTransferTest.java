@@ -0,0 +1,131 @@
+package Tests;
+
+import Transfer.FileHash;
+import Transfer.FileTransfer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of FileTransfer : the resume offset of a part file (with and without it's progress file), and resuming
+ * a transfer from there.
+ */
+public class FileTransferTest {
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("transfer: resume offset is the length of the part file", () -> {
+            File partFile = FileTransfer.partFile(new File(temporaryDirectory("transfer"), "a.bin"));
+            checkEquals(0L, FileTransfer.resumeOffset(partFile, 1_000));
+            write(partFile, new byte[100]);
+            checkEquals(100L, FileTransfer.resumeOffset(partFile, 1_000));
+            checkEquals(100L, FileTransfer.resumeOffset(partFile, 100));
+        });
+
+        runner.run("transfer: part file which is longer than the file is removed", () -> {
+            File partFile = FileTransfer.partFile(new File(temporaryDirectory("transfer"), "a.bin"));
+            write(partFile, new byte[100]);
+            checkEquals(0L, FileTransfer.resumeOffset(partFile, 50));
+            check(!partFile.exists(), "part file is removed");
+        });
+
+        runner.run("transfer: resume offset of an extended part file", () -> {
+            File partFile = FileTransfer.partFile(new File(temporaryDirectory("transfer"), "a.bin"));
+            File progressFile = new File(partFile.getPath() + FileTransfer.PROGRESS_SUFFIX);
+            write(partFile, new byte[100]);
+            try (FileChannel file = new RandomAccessFile(partFile, "rw").getChannel()) {
+                FileTransfer.reserve(partFile, file, 100, 1_000);
+                checkEquals(1_000L, partFile.length());
+                check(progressFile.exists(), "progress file is written");
+                checkEquals(100L, FileTransfer.resumeOffset(partFile, 1_000));
+
+                // Reserving again doesn't change the received bytes.
+                FileTransfer.reserve(partFile, file, 600, 1_000);
+                checkEquals(100L, FileTransfer.resumeOffset(partFile, 1_000));
+
+                FileTransfer.truncate(partFile, file, 300);
+                checkEquals(300L, partFile.length());
+                check(!progressFile.exists(), "progress file is removed");
+                checkEquals(300L, FileTransfer.resumeOffset(partFile, 1_000));
+            }
+
+            write(progressFile, new byte[3]);
+            checkEquals(0L, FileTransfer.resumeOffset(partFile, 1_000));
+
+            FileTransfer.discard(partFile);
+            check(!partFile.exists() && !progressFile.exists(), "part and progress files are removed");
+        });
+
+        runner.run("transfer: resumed transfer gives the same file", () -> {
+            File directory = temporaryDirectory("transfer");
+            byte[] content = new byte[3 * 1024 * 1024 + 17];
+            new Random(7).nextBytes(content);
+            File source = new File(directory, "source.bin");
+            write(source, content);
+            File target = new File(directory, "target.bin");
+            File partFile = FileTransfer.partFile(target);
+            write(partFile, Arrays.copyOf(content, 1_000_000));
+
+            long offset = FileTransfer.resumeOffset(partFile, content.length);
+            checkEquals(1_000_000L, offset);
+            try (FileChannel sourceFile = new RandomAccessFile(source, "r").getChannel();
+                 FileChannel file = new RandomAccessFile(partFile, "rw").getChannel()) {
+                Pipe pipe = Pipe.open();
+                Thread sender = new Thread(() -> {
+                    try (Pipe.SinkChannel sink = pipe.sink()) {
+                        FileTransfer.send(sourceFile, offset, content.length - offset, sink);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                sender.start();
+                try (Pipe.SourceChannel from = pipe.source()) {
+                    checkEquals(content.length - offset,
+                            FileTransfer.receive(from, file, offset, content.length - offset).getBytes());
+                }
+                sender.join();
+            }
+            FileTransfer.commit(partFile, target);
+
+            check(!partFile.exists(), "part file is renamed");
+            check(Arrays.equals(content, Files.readAllBytes(target.toPath())), "file has the same content");
+            try (FileChannel sourceFile = new RandomAccessFile(source, "r").getChannel();
+                 FileChannel targetFile = new RandomAccessFile(target, "r").getChannel()) {
+                checkEquals(FileHash.of(sourceFile), FileHash.of(targetFile));
+            }
+        });
+
+        runner.run("transfer: closed connection before the end", () -> {
+            File partFile = FileTransfer.partFile(new File(temporaryDirectory("transfer"), "a.bin"));
+            try (FileChannel file = new RandomAccessFile(partFile, "rw").getChannel()) {
+                Pipe pipe = Pipe.open();
+                pipe.sink().write(ByteBuffer.wrap(new byte[10]));
+                pipe.sink().close();
+                checkThrows(EOFException.class, () -> FileTransfer.receive(pipe.source(), file, 0, 100));
+                pipe.source().close();
+            }
+            checkEquals(10L, FileTransfer.resumeOffset(partFile, 100));
+        });
+    }
+
+    private static void write(File file, byte[] bytes) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package Tests;
+
+import Message.Message;
+import Message.MessageTypes;
+import Server.History.LoggedMessage;
+import Server.History.MessageLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of MessageLog (and it's LogSegment files) : reading the history forward and backward, dropping a broken
+ * record by it's CRC, building a missing or broken index again, and the messages which don't fit in a segment.
+ */
+public class MessageLogTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("history: read forward and backward", () -> {
+            File directory = temporaryDirectory("history");
+            MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+            Thread writer = start(log);
+            for (int i = 1; i <= 300; i++)
+                checkEquals((long) i, log.append(message(i)));
+            check(log.await(300, 5_000), "messages are written");
+
+            List<LoggedMessage> all = log.read(0, 1_000);
+            checkEquals(300, all.size());
+            for (int i = 0; i < all.size(); i++) {
+                LoggedMessage loggedMessage = all.get(i);
+                checkEquals(i + 1L, loggedMessage.getSequence());
+                checkEquals(message(i + 1).getBody(), loggedMessage.getMessage().getBody());
+                checkEquals(message(i + 1).getType(), loggedMessage.getMessage().getType());
+            }
+            checkEquals(new String[]{"bob", "carol"}, all.get(1).getMessage().getReceivers());
+            checkNull(all.get(0).getMessage().getReceivers());
+
+            List<LoggedMessage> page = new ArrayList<>();
+            checkEquals(291L, log.readBefore(301, 10, 1_000, message -> true, page));
+            checkEquals(291L, page.get(0).getSequence());
+            checkEquals(300L, page.get(9).getSequence());
+
+            List<LoggedMessage> privatePage = new ArrayList<>();
+            log.readBefore(Long.MAX_VALUE, 5, 1_000, message -> message.getType() == MessageTypes.PRIVATE,
+                    privatePage);
+            checkEquals(5, privatePage.size());
+            checkEquals(292L, privatePage.get(0).getSequence());
+            checkEquals(300L, privatePage.get(4).getSequence());
+
+            List<LoggedMessage> first = new ArrayList<>();
+            checkEquals(0L, log.readBefore(3, 10, 1_000, message -> true, first));
+            checkEquals(2, first.size());
+            stop(log, writer);
+        });
+
+        runner.run("history: segments are continued after reopening", () -> {
+            File directory = temporaryDirectory("history");
+            MessageLog log = new MessageLog(directory, 4 * 1024);
+            Thread writer = start(log);
+            for (int i = 1; i <= 200; i++)
+                log.append(message(i));
+            stop(log, writer);
+            check(directory.listFiles((dir, name) -> name.endsWith(".log")).length > 1, "log has more segments");
+
+            log = new MessageLog(directory, 4 * 1024);
+            checkEquals(200L, log.getLastSequence());
+            writer = start(log);
+            checkEquals(201L, log.append(message(201)));
+            check(log.await(201, 5_000), "message is written");
+            List<LoggedMessage> all = log.read(0, 1_000);
+            checkEquals(201, all.size());
+            for (int i = 0; i < all.size(); i++)
+                checkEquals(i + 1L, all.get(i).getSequence());
+            stop(log, writer);
+        });
+
+        runner.run("history: broken last record is dropped by it's CRC", () -> {
+            File directory = temporaryDirectory("history");
+            write(directory, 100);
+
+            File segment = new File(directory, String.format("%020d.log", 1));
+            byte[] bytes = Files.readAllBytes(segment.toPath());
+            int body = lastIndexOf(bytes, message(100).getBody().getBytes(StandardCharsets.UTF_8));
+            check(body > 0, "last record is found");
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                file.seek(body);
+                file.write('M');
+            }
+
+            MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+            checkEquals(99L, log.getLastSequence());
+            Thread writer = start(log);
+            checkEquals(100L, log.append(message(1_000)));
+            stop(log, writer);
+
+            log = new MessageLog(directory, SEGMENT_SIZE);
+            List<LoggedMessage> all = log.read(0, 1_000);
+            checkEquals(100, all.size());
+            checkEquals(message(1_000).getBody(), all.get(99).getMessage().getBody());
+            stop(log, start(log));
+        });
+
+        runner.run("history: missing or broken index is built again", () -> {
+            File directory = temporaryDirectory("history");
+            write(directory, 200);
+            File index = new File(directory, String.format("%020d.idx", 1));
+            long indexLength = index.length();
+            check(indexLength > 0, "index is written");
+
+            check(index.delete(), "index is removed");
+            checkRead(directory, 200);
+            checkEquals(indexLength, index.length());
+
+            try (FileOutputStream file = new FileOutputStream(index)) {
+                for (int i = 0; i < 100; i++)
+                    file.write(0x5A);
+            }
+            checkRead(directory, 200);
+            checkEquals(indexLength, index.length());
+        });
+
+        runner.run("history: message larger than a segment is not logged", () -> {
+            File directory = temporaryDirectory("history");
+            MessageLog log = new MessageLog(directory, 1024);
+            Thread writer = start(log);
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 1024; i++)
+                body.append('x');
+            checkEquals(0L, log.append(new Message("alice", new String[]{"All"}, body.toString(), body.length(),
+                    MessageTypes.PUBLIC)));
+            checkEquals(1L, log.append(message(1)));
+            check(log.await(1, 5_000), "message is written");
+            checkEquals(1, log.read(0, 10).size());
+            stop(log, writer);
+        });
+    }
+
+    /**
+     * Odd messages are public and even ones are private.
+     *
+     * @param number
+     * @return
+     */
+    private static Message message(int number) {
+        String body = "message " + number;
+        if (number % 2 == 1)
+            return new Message("alice", new String[]{"All"}, body, body.length(), MessageTypes.PUBLIC);
+        return new Message("alice", new String[]{"bob", "carol"}, body, body.length(), MessageTypes.PRIVATE);
+    }
+
+    private static void write(File directory, int count) throws Exception {
+        MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+        Thread writer = start(log);
+        for (int i = 1; i <= count; i++)
+            log.append(message(i));
+        stop(log, writer);
+    }
+
+    /**
+     * Reopen the history and check that it has the messages, reading from the middle uses the index.
+     *
+     * @param directory
+     * @param count
+     * @throws Exception
+     */
+    private static void checkRead(File directory, int count) throws Exception {
+        MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+        checkEquals((long) count, log.getLastSequence());
+        checkEquals(count, log.read(0, 10 * count).size());
+        List<LoggedMessage> middle = log.read(150, 10);
+        checkEquals(10, middle.size());
+        checkEquals(151L, middle.get(0).getSequence());
+        checkEquals(message(160).getBody(), middle.get(9).getMessage().getBody());
+        stop(log, start(log));
+    }
+
+    private static Thread start(MessageLog log) {
+        Thread writer = new Thread(log, "HistoryWriter");
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Close the history and wait for the writer, it closes the segments.
+     *
+     * @param log
+     * @param writer
+     * @throws InterruptedException
+     */
+    private static void stop(MessageLog log, Thread writer) throws InterruptedException {
+        log.close();
+        writer.join();
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] part) {
+        for (int i = bytes.length - part.length; i >= 0; i--) {
+            int j = 0;
+            while (j < part.length && bytes[i + j] == part[j])
+                j++;
+            if (j == part.length)
+                return i;
+        }
+        return -1;
+    }
+}
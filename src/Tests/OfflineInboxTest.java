@@ -0,0 +1,116 @@
+package Tests;
+
+import Server.History.OfflineInbox;
+
+import java.io.File;
+
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of OfflineInbox : only the known users have an inbox, the messages are kept till they are removed, the
+ * limits of the inboxes, and the inboxes and users are kept after reopening the folder.
+ */
+public class OfflineInboxTest {
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("inbox: messages are read in order", () -> {
+            OfflineInbox inbox = new OfflineInbox(temporaryDirectory("inbox"), 100, 10, 1024);
+            inbox.addUser("bob");
+            check(inbox.store("bob", 3), "message is stored");
+            check(inbox.store("bob", 7), "message is stored");
+            check(inbox.store("bob", 12), "message is stored");
+            checkEquals(new long[]{3, 7, 12}, take(inbox, "bob"));
+            checkEquals(new long[0], take(inbox, "bob"));
+            checkEquals(new long[0], take(inbox, "carol"));
+        });
+
+        runner.run("inbox: messages are kept till they are removed", () -> {
+            File directory = temporaryDirectory("inbox");
+            OfflineInbox inbox = new OfflineInbox(directory, 100, 10, 1024);
+            inbox.addUser("bob");
+            inbox.store("bob", 3);
+            inbox.store("bob", 7);
+            long[] read = inbox.read("bob");
+            checkEquals(new long[]{3, 7}, read);
+            checkEquals(new long[]{3, 7}, new OfflineInbox(directory, 100, 10, 1024).read("bob"));
+
+            // A message which is stored after reading the inbox is not removed with the read ones.
+            inbox.store("bob", 9);
+            inbox.remove("bob", read.length);
+            checkEquals(new long[]{9}, inbox.read("bob"));
+            checkEquals(new long[]{9}, new OfflineInbox(directory, 100, 10, 1024).read("bob"));
+            inbox.remove("bob", 1);
+            checkEquals(new long[0], inbox.read("bob"));
+            check(!new File(directory, "bob").exists(), "empty inbox is removed");
+        });
+
+        runner.run("inbox: only known users have an inbox", () -> {
+            File directory = temporaryDirectory("inbox");
+            OfflineInbox inbox = new OfflineInbox(directory, 100, 10, 1024);
+            check(!inbox.store("mallory", 1), "message of an unknown user is not stored");
+            inbox.addUser("a1");
+            inbox.addUser("");
+            check(!inbox.store("a1", 1), "user name which is not a valid inbox name is not known");
+            check(!new File(directory, "a1").exists(), "inbox is not made");
+        });
+
+        runner.run("inbox: limits", () -> {
+            OfflineInbox inbox = new OfflineInbox(temporaryDirectory("inbox"), 2, 1, 1024);
+            inbox.addUser("bob");
+            inbox.addUser("carol");
+            check(inbox.store("bob", 1), "message is stored");
+            check(inbox.store("bob", 2), "message is stored");
+            check(!inbox.store("bob", 3), "inbox is full");
+            check(!inbox.store("carol", 4), "there are too many inboxes");
+            checkEquals(new long[]{1, 2}, take(inbox, "bob"));
+            check(inbox.store("carol", 4), "message is stored after taking the other inbox");
+
+            OfflineInbox small = new OfflineInbox(temporaryDirectory("inbox"), 100, 10, 3 * 8);
+            small.addUser("bob");
+            small.addUser("carol");
+            check(small.store("bob", 1), "message is stored");
+            check(small.store("carol", 2), "message is stored");
+            check(small.store("bob", 3), "message is stored");
+            check(!small.store("carol", 4), "inboxes are full");
+            take(small, "bob");
+            check(small.store("carol", 4), "message is stored after taking the other inbox");
+            checkEquals(new long[]{2, 4}, take(small, "carol"));
+        });
+
+        runner.run("inbox: inboxes are kept after reopening", () -> {
+            File directory = temporaryDirectory("inbox");
+            OfflineInbox inbox = new OfflineInbox(directory, 3, 10, 1024);
+            inbox.addUser("bob");
+            inbox.addUser("carol");
+            inbox.addUser("bob");
+            inbox.store("bob", 5);
+            inbox.store("bob", 6);
+
+            OfflineInbox reopened = new OfflineInbox(directory, 3, 10, 1024);
+            check(reopened.store("carol", 7), "known user is kept");
+            check(reopened.store("bob", 8), "message is stored");
+            check(!reopened.store("bob", 9), "size of the inbox is kept");
+            checkEquals(new long[]{5, 6, 8}, take(reopened, "bob"));
+            checkEquals(new long[]{7}, take(reopened, "carol"));
+        });
+    }
+
+    /**
+     * Read and remove the messages of the inbox, like a login which sends all of them.
+     *
+     * @param inbox
+     * @param userName
+     * @return
+     */
+    private static long[] take(OfflineInbox inbox, String userName) {
+        long[] sequences = inbox.read(userName);
+        inbox.remove(userName, sequences.length);
+        return sequences;
+    }
+}
@@ -0,0 +1,158 @@
+package Tests;
+
+import Server.Network.Frame;
+import Server.Network.OutboundQueue;
+import Server.Network.Packet;
+import Server.Network.Transport;
+import Server.ServerConfiguration.OverflowPolicy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of OutboundQueue : a full queue doesn't make trySend wait, the waiting messages are sent in order
+ * (see awaitSpace), and the overflow policies. The writer tasks are run by the test, so nothing is written
+ * till then.
+ */
+public class OutboundQueueTest {
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("outbound: waiting messages are sent in order", () -> {
+            RecordingTransport transport = new RecordingTransport();
+            TaskList tasks = new TaskList();
+            OutboundQueue queue = new OutboundQueue(transport, tasks, 2, OverflowPolicy.BACKPRESSURE, 1_000, 0);
+            check(queue.trySend(frame(1)), "first message is queued");
+            check(queue.trySend(frame(2)), "second message is queued");
+            check(!queue.trySend(frame(3)), "third message waits for space");
+
+            tasks.runAll();
+            checkEquals(new long[]{1, 2}, transport.written());
+            // The queue has space now, but the message must not go before the waiting one.
+            check(!queue.trySend(frame(4)), "message waits after the waiting one");
+
+            queue.awaitSpace();
+            tasks.runAll();
+            checkEquals(new long[]{1, 2, 3, 4}, transport.written());
+
+            check(queue.trySend(frame(5)), "message is queued without waiting messages");
+            tasks.runAll();
+            checkEquals(new long[]{1, 2, 3, 4, 5}, transport.written());
+        });
+
+        runner.run("outbound: too slow client is disconnected", () -> {
+            RecordingTransport transport = new RecordingTransport();
+            OutboundQueue queue = new OutboundQueue(transport, new TaskList(), 1, OverflowPolicy.BACKPRESSURE,
+                    50, 0);
+            check(queue.trySend(frame(1)), "first message is queued");
+            check(!queue.trySend(frame(2)), "second message waits for space");
+            checkThrows(IOException.class, queue::awaitSpace);
+            check(transport.closed, "connection is closed");
+            checkThrows(IOException.class, () -> queue.trySend(frame(3)));
+        });
+
+        runner.run("outbound: overflow policies don't wait", () -> {
+            RecordingTransport transport = new RecordingTransport();
+            TaskList tasks = new TaskList();
+            OutboundQueue dropping = new OutboundQueue(transport, tasks, 1, OverflowPolicy.DROP, 1_000, 0);
+            check(dropping.trySend(frame(1)), "first message is queued");
+            check(dropping.trySend(frame(2)), "second message is dropped");
+            tasks.runAll();
+            checkEquals(new long[]{1}, transport.written());
+
+            RecordingTransport disconnected = new RecordingTransport();
+            OutboundQueue disconnecting = new OutboundQueue(disconnected, new TaskList(), 1,
+                    OverflowPolicy.DISCONNECT, 1_000, 0);
+            check(disconnecting.trySend(frame(1)), "first message is queued");
+            checkThrows(IOException.class, () -> disconnecting.trySend(frame(2)));
+            check(disconnected.closed, "connection is closed");
+        });
+    }
+
+    private static Frame frame(long sequence) {
+        return Frame.publicMessage("message " + sequence, 1, "alice", "message " + sequence, sequence);
+    }
+
+    /**
+     * Keeps the writer tasks till runAll.
+     */
+    private static class TaskList implements Executor {
+
+        private final LinkedList<Runnable> tasks = new LinkedList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = next()) != null)
+                task.run();
+        }
+
+        private synchronized Runnable next() {
+            return tasks.poll();
+        }
+    }
+
+    /**
+     * Keeps the sequence numbers of the written frames.
+     */
+    private static class RecordingTransport implements Transport {
+
+        private final List<Long> sequences = new ArrayList<>();
+        private volatile boolean closed = false;
+
+        @Override
+        public synchronized void write(Frame frame) {
+            sequences.add(frame.getSequence());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public Packet receive() throws IOException {
+            throw new IOException("Nothing to receive");
+        }
+
+        @Override
+        public void upgradeInbound(int protocol) {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public String getInfo() {
+            return "test";
+        }
+
+        synchronized long[] written() {
+            long[] written = new long[sequences.size()];
+            for (int i = 0; i < written.length; i++)
+                written[i] = sequences.get(i);
+            return written;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package Tests;
+
+import Message.Message;
+import Message.MessageTypes;
+import Server.History.MessageLog;
+import Server.History.SearchIndex;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of SearchIndex : the messages which have all of the words (newest first), the visibility of the private
+ * messages, building the index from the history (also the messages which didn't fit in the queue), and the results
+ * after many compactions (merged parts).
+ */
+public class SearchIndexTest {
+
+    private static final long TIMEOUT = 10_000;
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        runner.run("search: messages which have all of the words", () -> {
+            SearchIndex index = start(new SearchIndex(log(), true));
+            index.add(1, publicMessage("Who posted the link?"));
+            index.add(2, publicMessage("the LINK is broken"));
+            index.add(3, publicMessage("nothing here"));
+            index.add(4, privateMessage("secret link", "bob"));
+            index.add(0, publicMessage("link which is not logged"));
+            awaitSearch(index, "bob", "link", new long[]{4, 2, 1});
+
+            checkEquals(new long[]{2, 1}, index.search("carol", "link", 10));
+            checkEquals(new long[]{2, 1}, index.search("carol", "The, link!", 10));
+            checkEquals(new long[]{1}, index.search("carol", "posted link", 10));
+            checkEquals(new long[]{2}, index.search("carol", "link", 1));
+            checkEquals(new long[0], index.search("carol", "link missing", 10));
+            checkEquals(new long[0], index.search("carol", "a", 10));
+            checkEquals(new long[0], index.search("carol", "link", 0));
+            checkEquals(new long[]{4, 2, 1}, index.search("alice", "link", 10));
+            checkEquals(new long[]{4}, index.search("bob", "secret", 10));
+            checkEquals(new long[0], index.search("carol", "secret", 10));
+            index.close();
+        });
+
+        runner.run("search: private messages are not indexed if they are not searchable", () -> {
+            SearchIndex index = start(new SearchIndex(log(), false));
+            index.add(1, privateMessage("secret link", "bob"));
+            index.add(2, publicMessage("public link"));
+            awaitSearch(index, "carol", "link", new long[]{2});
+            checkEquals(new long[]{2}, index.search("bob", "link", 10));
+            checkEquals(new long[0], index.search("alice", "secret", 10));
+            index.close();
+        });
+
+        runner.run("search: index is built from the history", () -> {
+            MessageLog log = log();
+            Thread writer = new Thread(log, "HistoryWriter");
+            writer.start();
+            log.append(publicMessage("first message"));
+            log.append(privateMessage("second message", "bob"));
+            log.append(publicMessage("third message"));
+
+            SearchIndex index = start(new SearchIndex(log, true));
+            awaitSearch(index, "bob", "message", new long[]{3, 2, 1});
+            checkEquals(new long[]{3, 1}, index.search("carol", "message", 10));
+            index.add(log.append(publicMessage("fourth message")), publicMessage("fourth message"));
+            awaitSearch(index, "carol", "message", new long[]{4, 3, 1});
+            index.close();
+            log.close();
+            writer.join();
+        });
+
+        runner.run("search: messages which are not queued are indexed from the history", () -> {
+            MessageLog log = log();
+            Thread writer = new Thread(log, "HistoryWriter");
+            writer.start();
+            SearchIndex index = new SearchIndex(log, true);
+            // The indexer is not started yet, so the queue gets full.
+            int count = 40_000;
+            for (int i = 1; i <= count; i++) {
+                Message message = publicMessage(String.format("queued w%d", i % 10));
+                index.add(log.append(message), message);
+            }
+            start(index);
+            awaitSearch(index, "carol", "queued w3", LongStream.rangeClosed(1, count)
+                    .map(i -> count + 1 - i).filter(i -> i % 10 == 3).toArray());
+            Message last = publicMessage("queued again");
+            index.add(log.append(last), last);
+            awaitSearch(index, "carol", "again", new long[]{count + 1});
+            index.close();
+            log.close();
+            writer.join();
+        });
+
+        runner.run("search: results after compactions", () -> {
+            MessageLog log = log();
+            Thread writer = new Thread(log, "HistoryWriter");
+            writer.start();
+            SearchIndex index = start(new SearchIndex(log, true));
+            int count = 300_000;
+            for (int i = 1; i <= count; i++) {
+                Message message = publicMessage(String.format("common w%d v%d", i % 100, i % 7));
+                index.add(log.append(message), message);
+            }
+
+            long[] all = new long[count];
+            for (int i = 0; i < count; i++)
+                all[i] = count - i;
+            awaitSearch(index, "carol", "common", all);
+
+            long[] found = index.search("carol", "w42 v3", Integer.MAX_VALUE);
+            long[] expected = Arrays.stream(all).filter(i -> i % 100 == 42 && i % 7 == 3).toArray();
+            checkEquals(expected, found);
+            checkEquals(Arrays.copyOf(expected, 5), index.search("carol", "common v3 w42", 5));
+            index.close();
+            log.close();
+            writer.join();
+        });
+    }
+
+    private static MessageLog log() throws Exception {
+        File directory = temporaryDirectory("search");
+        return new MessageLog(directory, 16 * 1024 * 1024);
+    }
+
+    private static SearchIndex start(SearchIndex index) {
+        Thread indexer = new Thread(index, "SearchIndexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        return index;
+    }
+
+    /**
+     * Wait till the search gives the expected result, the messages are indexed by the indexer thread.
+     *
+     * @param index
+     * @param userName
+     * @param query
+     * @param expected
+     * @throws InterruptedException
+     */
+    private static void awaitSearch(SearchIndex index, String userName, String query, long[] expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!Arrays.equals(expected, index.search(userName, query, Integer.MAX_VALUE))
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        checkEquals(expected, index.search(userName, query, Integer.MAX_VALUE));
+    }
+
+    private static Message publicMessage(String body) {
+        return new Message("alice", new String[]{"All"}, body, body.length(), MessageTypes.PUBLIC);
+    }
+
+    private static Message privateMessage(String body, String receiver) {
+        return new Message("alice", new String[]{receiver}, body, body.length(), MessageTypes.PRIVATE);
+    }
+}
@@ -0,0 +1,131 @@
+package Tests;
+
+import Client.ClientMessageBuilder;
+import Message.Message;
+import Message.MessageTypes;
+import Message.Parser.Exceptions.*;
+import Server.ServerMessageParser;
+
+import static Message.StaticMessages.*;
+import static Tests.TestRunner.*;
+
+/**
+ * Tests of ServerMessageParser, the messages are built by ClientMessageBuilder (like a client sends them).
+ */
+public class ServerMessageParserTest {
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        run(runner);
+        runner.exit();
+    }
+
+    public static void run(TestRunner runner) {
+        ServerMessageParser parser = new ServerMessageParser("alice");
+
+        runner.run("parser: public message", () -> {
+            Message message = parser.parse(ClientMessageBuilder.publicMessage("Hi, <all>", 9));
+            checkEquals(MessageTypes.PUBLIC, message.getType());
+            checkEquals("alice", message.getSender());
+            checkEquals(new String[]{"All"}, message.getReceivers());
+            checkEquals("Hi, <all>", message.getBody());
+            checkEquals(9L, message.getLength());
+        });
+
+        runner.run("parser: private message", () -> {
+            Message message = parser.parse(ClientMessageBuilder.privateMessageBuilder("Hi", 2, "bob", "carol"));
+            checkEquals(MessageTypes.PRIVATE, message.getType());
+            checkEquals(new String[]{"bob", "carol"}, message.getReceivers());
+            checkEquals("Hi", message.getBody());
+
+            // The receivers bounds grow for a long list.
+            String[] receivers = new String[40];
+            for (int i = 0; i < receivers.length; i++)
+                receivers[i] = "user" + i;
+            checkEquals(receivers, parser.parse(ClientMessageBuilder.privateMessageBuilder("Hi", 2, receivers))
+                    .getReceivers());
+        });
+
+        runner.run("parser: commands", () -> {
+            checkEquals(MessageTypes.COMMAND, parser.parse(GET_USERS_LIST).getType());
+            checkEquals(SIGN_OUT, parser.parse(SIGN_OUT).getBody());
+        });
+
+        runner.run("parser: history request", () -> {
+            Message last = parser.parse(HISTORY);
+            checkEquals(MessageTypes.COMMAND, last.getType());
+            checkEquals(HISTORY, last.getBody());
+            checkEquals(Long.MAX_VALUE, last.getQuery().getBeforeSequence());
+            checkEquals(Long.MAX_VALUE, last.getQuery().getBeforeTime());
+            checkEquals(Long.MAX_VALUE, last.getQuery().getLimit());
+
+            Message page = parser.parse(ClientMessageBuilder.historyRequest(120, 50));
+            checkEquals(120L, page.getQuery().getBeforeSequence());
+            checkEquals(50L, page.getQuery().getLimit());
+            checkEquals(Long.MAX_VALUE, page.getQuery().getBeforeTime());
+
+            checkEquals(1000L, parser.parse("History, time<1000>").getQuery().getBeforeTime());
+            checkThrows(MessageIsNotValid.class, () -> parser.parse("History, after<10>"));
+            checkThrows(MessageIsNotValid.class, () -> parser.parse("History, limit<-1>"));
+        });
+
+        runner.run("parser: search request", () -> {
+            Message message = parser.parse(ClientMessageBuilder.searchRequest("who posted the link"));
+            checkEquals(MessageTypes.COMMAND, message.getType());
+            checkEquals(SEARCH, message.getBody());
+            checkEquals("who posted the link", message.getQuery().getWords());
+            checkThrows(MessageIsNotValid.class, () -> parser.parse("Search,  "));
+        });
+
+        runner.run("parser: file messages", () -> {
+            Message upload = parser.parse(ClientMessageBuilder.publicFileSendMessage("a.txt", 4096));
+            checkEquals(MessageTypes.PUBLIC_DATA, upload.getType());
+            checkEquals("a.txt", upload.getBody());
+            checkEquals(4096L, upload.getLength());
+            checkNull(upload.getHash());
+
+            checkEquals(HASH, parser.parse(ClientMessageBuilder.publicFileSendMessage("a.txt", 4096, HASH))
+                    .getHash());
+
+            Message privateUpload = parser.parse(ClientMessageBuilder.privateFileSendMessage("a.txt", 10, HASH,
+                    new String[]{"bob"}));
+            checkEquals(MessageTypes.PRIVATE_DATA, privateUpload.getType());
+            checkEquals(new String[]{"bob"}, privateUpload.getReceivers());
+            checkEquals(HASH, privateUpload.getHash());
+
+            checkThrows(MessageIsNotValid.class, () -> parser.parse(ClientMessageBuilder.publicFileSendMessage(
+                    "a.txt", 4096, "not a hash")));
+        });
+
+        runner.run("parser: download request", () -> {
+            Message whole = parser.parse(ClientMessageBuilder.downloadRequest("a.txt", "bob"));
+            checkEquals(MessageTypes.DL, whole.getType());
+            checkEquals("a.txt", whole.getBody());
+            checkEquals(new String[]{"bob"}, whole.getReceivers());
+            checkEquals(0L, whole.getRangeStart());
+            checkEquals(Long.MAX_VALUE, whole.getRangeEnd());
+
+            Message resumed = parser.parse(ClientMessageBuilder.downloadRequest("a.txt", "bob", 4096));
+            checkEquals(4096L, resumed.getRangeStart());
+            checkEquals(Long.MAX_VALUE, resumed.getRangeEnd());
+
+            Message range = parser.parse(ClientMessageBuilder.downloadRequest("a.txt", "bob", 10, 20));
+            checkEquals(10L, range.getRangeStart());
+            checkEquals(20L, range.getRangeEnd());
+
+            checkThrows(MessageIsNotValid.class, () -> parser.parse(
+                    ClientMessageBuilder.downloadRequest("a.txt", "bob", 20, 10)));
+        });
+
+        runner.run("parser: invalid messages", () -> {
+            checkThrows(MessageIsNotValid.class, () -> parser.parse("Hello there"));
+            checkThrows(MessageTypeIsNotValid.class, () -> parser.parse("Secret message, length=<1>\n\r<x>"));
+            checkThrows(MessageLengthDoesNotExists.class, () -> parser.parse("Public message, length="));
+            checkThrows(MessageIsTooLong.class, () -> parser.parse("Public message, length=<99999999999>\n\r<x>"));
+            checkThrows(ReceiverDoesNotExists.class, () -> parser.parse("Private message, length=<1>\n\r<x>"));
+            checkEquals(MessageTypes.NONE, parser.parse("Public message, length=<1>").getType());
+        });
+    }
+}
@@ -0,0 +1,153 @@
+package Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A small unit test harness (there is no build module for JUnit), each test is a task which fails by throwing
+ * an exception (e.g. an AssertionError of the check methods). It prints the result of each test and the number
+ * of the failed ones, and the exit code is 1 if any of them failed, e.g :
+ * java -cp out:log4j-1.2.17.jar Tests.TestRunner
+ * Settings (system properties) :
+ * test.filter : regex, only the tests which their name contains it will run
+ */
+public class TestRunner {
+
+    /**
+     * A test, it passes if it doesn't throw anything.
+     */
+    public interface Test {
+        void run() throws Exception;
+    }
+
+    private final Pattern filter;
+
+    private int passed = 0;
+    private int failed = 0;
+
+    /**
+     * Constructor. It reads the settings from system properties.
+     */
+    public TestRunner() {
+        this.filter = Pattern.compile(System.getProperty("test.filter", ""));
+    }
+
+    /**
+     * Runs all of the tests.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        TestRunner runner = new TestRunner();
+        ServerMessageParserTest.run(runner);
+        BinaryProtocolTest.run(runner);
+        OutboundQueueTest.run(runner);
+        MessageLogTest.run(runner);
+        OfflineInboxTest.run(runner);
+        SearchIndexTest.run(runner);
+        FileTransferTest.run(runner);
+        runner.exit();
+    }
+
+    /**
+     * Run a test and print it's result.
+     *
+     * @param name
+     * @param test
+     */
+    public void run(String name, Test test) {
+        if (!filter.matcher(name).find())
+            return;
+        try {
+            test.run();
+            passed++;
+            System.out.printf("PASS  %s%n", name);
+        } catch (Throwable e) {
+            failed++;
+            System.out.printf("FAIL  %s : %s%n", name, e);
+        }
+    }
+
+    /**
+     * Print the number of the passed and failed tests, and exit (with 1 if any of them failed).
+     */
+    public void exit() {
+        System.out.printf("%d passed, %d failed%n", passed, failed);
+        System.exit((failed == 0) ? 0 : 1);
+    }
+
+    public static void check(boolean condition, String description) {
+        if (!condition)
+            throw new AssertionError(description);
+    }
+
+    public static void checkEquals(Object expected, Object actual) {
+        if (!Objects.equals(expected, actual))
+            throw new AssertionError(String.format("expected <%s> but it was <%s>", expected, actual));
+    }
+
+    public static void checkNull(Object actual) {
+        if (actual != null)
+            throw new AssertionError(String.format("expected null but it was <%s>", actual));
+    }
+
+    public static void checkEquals(long[] expected, long[] actual) {
+        if (Arrays.equals(expected, actual))
+            return;
+        if (expected.length + actual.length <= 64)
+            throw new AssertionError(String.format("expected %s but it was %s", Arrays.toString(expected),
+                    Arrays.toString(actual)));
+        int index = 0;
+        while (index < expected.length && index < actual.length && expected[index] == actual[index])
+            index++;
+        throw new AssertionError(String.format("expected %d values but it was %d, the first difference is at %d",
+                expected.length, actual.length, index));
+    }
+
+    public static void checkEquals(Object[] expected, Object[] actual) {
+        if (!Arrays.equals(expected, actual))
+            throw new AssertionError(String.format("expected %s but it was %s", Arrays.toString(expected),
+                    Arrays.toString(actual)));
+    }
+
+    /**
+     * Checks that the test throws the given exception (or a subclass of it).
+     *
+     * @param expected
+     * @param test
+     */
+    public static void checkThrows(Class<? extends Throwable> expected, Test test) {
+        try {
+            test.run();
+        } catch (Throwable e) {
+            if (expected.isInstance(e))
+                return;
+            throw new AssertionError(String.format("expected %s but it was %s", expected.getSimpleName(), e));
+        }
+        throw new AssertionError(String.format("expected %s but nothing was thrown", expected.getSimpleName()));
+    }
+
+    /**
+     * Returns a new empty folder in the temp folder, it's removed at exit.
+     *
+     * @param prefix
+     * @return
+     * @throws IOException
+     */
+    public static File temporaryDirectory(String prefix) throws IOException {
+        File directory = Files.createTempDirectory(prefix).toFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory)));
+        return directory;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (File child : (files == null) ? new File[0] : files)
+            delete(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,192 @@
+package Transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Moves file data in compressed blocks (see Compression). Each block of the file (BLOCK_SIZE bytes)
+ * is deflated on it's own, and sent with a header :
+ * [TYPE (1 byte)][LENGTH IN THE FILE (4 bytes)][LENGTH ON THE WIRE (4 bytes)][DATA]
+ * TYPE is RAW or DEFLATED. If a block doesn't get at least 1/8 smaller, it's sent raw, and the next
+ * SKIPPED_BLOCKS blocks are sent raw without trying (e.g. the already compressed files), so those files
+ * don't waste much CPU. The blocks don't depend on each other, so each range of a parallel or resumed
+ * transfer is compressed on it's own.
+ */
+public class CompressedTransfer {
+
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int HEADER_SIZE = 9;
+    private static final int SKIPPED_BLOCKS = 16;
+
+    /**
+     * Send length bytes of the file (from position) to the channel in compressed blocks.
+     *
+     * @param file
+     * @param position
+     * @param length
+     * @param to
+     * @param throttle it's charged for the bytes on the wire
+     * @return
+     * @throws IOException
+     * @throws EOFException if the file is shorter than position + length
+     */
+    public static TransferStats send(FileChannel file, long position, long length, WritableByteChannel to,
+                                     FileTransfer.Throttle throttle) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + BLOCK_SIZE);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        long sent = 0;
+        long wireBytes = 0;
+        int skip = 0;
+        try {
+            while (sent < length) {
+                block.clear().limit((int) Math.min(BLOCK_SIZE, length - sent));
+                while (block.hasRemaining())
+                    if (file.read(block, position + sent + block.position()) == -1)
+                        throw new EOFException(String.format("File is shorter than %d bytes", position + length));
+                int blockLength = block.position();
+
+                int compressedLength = -1;
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    // It must save at least 1/8 of the block, otherwise the block is sent raw.
+                    int maxLength = blockLength - blockLength / 8;
+                    deflater.reset();
+                    deflater.setInput(block.array(), 0, blockLength);
+                    deflater.finish();
+                    int deflated = deflater.deflate(frame.array(), HEADER_SIZE, maxLength);
+                    if (deflater.finished() && deflated < maxLength)
+                        compressedLength = deflated;
+                    else
+                        skip = SKIPPED_BLOCKS;
+                }
+
+                if (compressedLength == -1) {
+                    System.arraycopy(block.array(), 0, frame.array(), HEADER_SIZE, blockLength);
+                    frame.put(0, RAW).putInt(1, blockLength).putInt(5, blockLength);
+                    frame.limit(HEADER_SIZE + blockLength).position(0);
+                } else {
+                    frame.put(0, DEFLATED).putInt(1, blockLength).putInt(5, compressedLength);
+                    frame.limit(HEADER_SIZE + compressedLength).position(0);
+                }
+                wireBytes += frame.remaining();
+                acquireAll(throttle, frame.remaining());
+                while (frame.hasRemaining())
+                    to.write(frame);
+                frame.clear();
+                sent += blockLength;
+            }
+        } finally {
+            deflater.end();
+        }
+        return new TransferStats(sent, wireBytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Receive length bytes of the file in compressed blocks from the (blocking) channel,
+     * and write them to the file (from position).
+     *
+     * @param from
+     * @param file
+     * @param position
+     * @param length
+     * @param progress it's told about each received block
+     * @param throttle it's charged for the bytes on the wire
+     * @return
+     * @throws IOException
+     * @throws EOFException if the connection is closed before receiving all of the bytes
+     */
+    public static TransferStats receive(ReadableByteChannel from, FileChannel file, long position, long length,
+                                        FileTransfer.Progress progress, FileTransfer.Throttle throttle)
+            throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        Inflater inflater = new Inflater();
+
+        long received = 0;
+        long wireBytes = 0;
+        try {
+            while (received < length) {
+                header.clear();
+                readFully(from, header, received, length);
+                byte type = header.get(0);
+                int blockLength = header.getInt(1);
+                int dataLength = header.getInt(5);
+                if ((type != RAW && type != DEFLATED) || blockLength <= 0 || blockLength > BLOCK_SIZE ||
+                        blockLength > length - received || dataLength < 0 || dataLength > BLOCK_SIZE ||
+                        (type == RAW && dataLength != blockLength))
+                    throw new IOException("Compressed block is not valid!");
+
+                acquireAll(throttle, HEADER_SIZE + dataLength);
+                data.clear().limit(dataLength);
+                readFully(from, data, received, length);
+
+                ByteBuffer content = data;
+                if (type == DEFLATED) {
+                    inflater.reset();
+                    inflater.setInput(data.array(), 0, dataLength);
+                    try {
+                        if (inflater.inflate(block.array(), 0, blockLength) != blockLength || !inflater.finished())
+                            throw new IOException("Compressed block is not valid!");
+                    } catch (DataFormatException e) {
+                        throw new IOException("Compressed block is not valid!", e);
+                    }
+                    content = block;
+                }
+                content.clear().limit(blockLength);
+                while (content.hasRemaining())
+                    file.write(content, position + received + content.position());
+
+                wireBytes += HEADER_SIZE + dataLength;
+                received += blockLength;
+                progress.advance(blockLength);
+            }
+        } finally {
+            inflater.end();
+        }
+        return new TransferStats(received, wireBytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Acquire all of the bytes from the throttle (a block is moved at once).
+     *
+     * @param throttle
+     * @param bytes
+     * @throws IOException
+     */
+    private static void acquireAll(FileTransfer.Throttle throttle, long bytes) throws IOException {
+        while (bytes > 0)
+            bytes -= throttle.acquire(bytes);
+    }
+
+    /**
+     * Fill the buffer from the channel.
+     *
+     * @param from
+     * @param buffer
+     * @param received for the exception
+     * @param length   for the exception
+     * @throws IOException
+     */
+    private static void readFully(ReadableByteChannel from, ByteBuffer buffer, long received, long length)
+            throws IOException {
+        while (buffer.hasRemaining())
+            if (from.read(buffer) == -1)
+                throw new EOFException(String.format("Connection is closed after %d of %d bytes", received, length));
+    }
+}
@@ -0,0 +1,150 @@
+package Transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+
+/**
+ * How the file data is sent on a data connection. It's negotiated on each data connection :
+ * the client sends the compression it wants right after the token (see TransferToken), and the server
+ * answers the chosen one (one byte each), both sides use it for the file data after that.
+ * NONE : the file is sent as it is, with zero-copy (see FileTransfer)
+ * DEFLATE : the file is sent in compressed blocks, the blocks which don't compress well are sent
+ * raw (see CompressedTransfer)
+ * It's DEFLATE only if both sides want it.
+ */
+public enum Compression {
+    NONE,
+    DEFLATE;
+
+    /**
+     * Send length bytes of the file (from position) to the channel, with this compression.
+     *
+     * @param file
+     * @param position
+     * @param length
+     * @param to
+     * @return
+     * @throws IOException
+     */
+    public TransferStats send(FileChannel file, long position, long length, WritableByteChannel to)
+            throws IOException {
+        return send(file, position, length, to, FileTransfer.Throttle.NONE);
+    }
+
+    /**
+     * Same as the other one, with a limited rate.
+     *
+     * @param file
+     * @param position
+     * @param length
+     * @param to
+     * @param throttle
+     * @return
+     * @throws IOException
+     */
+    public TransferStats send(FileChannel file, long position, long length, WritableByteChannel to,
+                              FileTransfer.Throttle throttle) throws IOException {
+        return (this == DEFLATE) ? CompressedTransfer.send(file, position, length, to, throttle) :
+                FileTransfer.send(file, position, length, to, throttle);
+    }
+
+    /**
+     * Receive length bytes from the channel with this compression, and write them to the file (from position).
+     *
+     * @param from
+     * @param file
+     * @param position
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    public TransferStats receive(ReadableByteChannel from, FileChannel file, long position, long length)
+            throws IOException {
+        return receive(from, file, position, length, FileTransfer.Progress.NONE, FileTransfer.Throttle.NONE);
+    }
+
+    /**
+     * Same as the other one, with a limited rate, and tells the progress about the received bytes.
+     *
+     * @param from
+     * @param file
+     * @param position
+     * @param length
+     * @param progress
+     * @param throttle
+     * @return
+     * @throws IOException
+     */
+    public TransferStats receive(ReadableByteChannel from, FileChannel file, long position, long length,
+                                 FileTransfer.Progress progress, FileTransfer.Throttle throttle)
+            throws IOException {
+        return (this == DEFLATE) ? CompressedTransfer.receive(from, file, position, length, progress, throttle) :
+                FileTransfer.receive(from, file, position, length, progress, throttle);
+    }
+
+    /**
+     * Send this compression on the data connection (the wanted one from the client,
+     * the chosen one from the server).
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1).put(0, (byte) ordinal());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Read the compression which the other side sent.
+     *
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    public static Compression read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) == -1)
+                throw new EOFException("Data connection is closed before choosing the compression");
+        int value = buffer.get(0);
+        if (value < 0 || value >= values().length)
+            throw new IOException(String.format("Compression %d is not valid!", value));
+        return values()[value];
+    }
+
+    /**
+     * Server side of the negotiation, it reads the wanted compression of the client and
+     * answers the chosen one (this one, if the client wants it too).
+     *
+     * @param channel
+     * @return the chosen compression
+     * @throws IOException
+     */
+    public Compression accept(ByteChannel channel) throws IOException {
+        Compression chosen = (read(channel) == DEFLATE && this == DEFLATE) ? DEFLATE : NONE;
+        chosen.write(channel);
+        return chosen;
+    }
+
+    /**
+     * Returns the compression by it's name (case insensitive), or the default if it's missing or not valid.
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    public static Compression of(String name, Compression defaultValue) {
+        try {
+            return Optional.ofNullable(name).map(value -> valueOf(value.trim().toUpperCase())).orElse(defaultValue);
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package Transfer.Exceptions;
+
+import java.io.IOException;
+
+/**
+ * Some of the streams of a parallel transfer failed. The bytes before
+ * completeLength are received completely (it's used for resuming the transfer).
+ */
+public class TransferWasIncomplete extends IOException {
+
+    private final long completeLength;
+
+    public TransferWasIncomplete(String message, long completeLength) {
+        super(message);
+        this.completeLength = completeLength;
+    }
+
+    public long getCompleteLength() {
+        return completeLength;
+    }
+}
@@ -0,0 +1,74 @@
+package Transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The content hash (SHA-256) of the files, the server stores each file by it's hash (see FileStore),
+ * so the same content is stored once, and the client can ask the server if it already has a
+ * content before uploading it. The hash is 64 hex characters.
+ */
+public class FileHash {
+
+    public static final String ALGORITHM = "SHA-256";
+    public static final int HASH_LENGTH = 64;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    //Each thread reuses it's buffer, a direct buffer is expensive to allocate (and it's freed only by the GC).
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * Returns the hash of the whole file, it streams the file through the buffer of the thread
+     * (the file is not loaded to the memory).
+     *
+     * @param fileChannel
+     * @return
+     * @throws IOException
+     */
+    public static String of(FileChannel fileChannel) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        long position = 0;
+        for (int read = fileChannel.read(buffer, position); read != -1; read = fileChannel.read(buffer, position)) {
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+
+        StringBuilder hash = new StringBuilder(HASH_LENGTH);
+        for (byte value : digest.digest())
+            hash.append(String.format("%02x", value));
+        return hash.toString();
+    }
+
+    /**
+     * Returns true if the text is a hash (64 lowercase hex characters),
+     * so it's safe to be used as a file name.
+     *
+     * @param hash
+     * @return
+     */
+    public static boolean isValid(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH)
+            return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,55 @@
+package Transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+
+/**
+ * How a received file is written to the disk.
+ * COMPLETION : normal (buffered) writes, and one force() after receiving the whole file,
+ * so the file is durable before anyone is told about it (default)
+ * STRICT : each write is synchronous ("rws"), it's much slower for the large files
+ */
+public enum FileSync {
+    COMPLETION,
+    STRICT;
+
+    /**
+     * Open the destination file for writing.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public FileChannel open(File file) throws IOException {
+        return new RandomAccessFile(file, (this == STRICT) ? "rws" : "rw").getChannel();
+    }
+
+    /**
+     * Called after receiving the whole file, in COMPLETION mode it flushes the content
+     * and metadata of the file to the disk.
+     *
+     * @param fileChannel
+     * @throws IOException
+     */
+    public void complete(FileChannel fileChannel) throws IOException {
+        if (this == COMPLETION)
+            fileChannel.force(true);
+    }
+
+    /**
+     * Returns the mode by it's name (case insensitive), or COMPLETION if it's missing or not valid.
+     *
+     * @param name
+     * @return
+     */
+    public static FileSync of(String name) {
+        try {
+            return Optional.ofNullable(name).map(value -> valueOf(value.trim().toUpperCase())).orElse(COMPLETION);
+        } catch (IllegalArgumentException e) {
+            return COMPLETION;
+        }
+    }
+}
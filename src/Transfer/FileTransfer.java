@@ -0,0 +1,251 @@
+package Transfer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves file data between a file and a socket, it's used by both server and client file sharing.
+ * It uses FileChannel.transferTo/transferFrom, so the data doesn't pass through the java heap
+ * (e.g. sendfile on linux), and the other side doesn't need any special handling.
+ * Both directions move exactly the requested number of bytes (short reads and writes are continued),
+ * and return the throughput of the transfer.
+ * A received file is written to "name.part" and renamed when it's complete, so an interrupted transfer
+ * can be resumed from the end of the part file, and nobody sees an incomplete file.
+ * A part file which is extended before receiving it's ranges in parallel (see reserve) is not received till it's
+ * end, so the received part of it is kept in a progress file ("name.part.progress") till it's truncated or
+ * committed, and a transfer which is killed in the middle is resumed from there.
+ */
+public class FileTransfer {
+
+    public static final String PART_SUFFIX = ".part";
+    public static final String PROGRESS_SUFFIX = ".progress";
+
+    /**
+     * Maximum bytes of each transferTo call.
+     */
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Maximum bytes of each transferFrom call, it's smaller so the progress is reported often
+     * (transferFrom copies from a socket through a small buffer anyway).
+     */
+    private static final long RECEIVE_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Limits the rate of a transfer (see BandwidthScheduler). Each chunk of the transfer
+     * is acquired before moving it, it may give less bytes than asked (at least one).
+     */
+    public interface Throttle {
+        Throttle NONE = bytes -> bytes;
+
+        long acquire(long bytes) throws IOException;
+    }
+
+    /**
+     * It's told about the received bytes, as soon as they are written to the file.
+     */
+    public interface Progress {
+        Progress NONE = bytes -> {
+        };
+
+        void advance(long bytes);
+    }
+
+    /**
+     * Send length bytes of the file (from position) to the channel.
+     *
+     * @param file
+     * @param position
+     * @param length
+     * @param to
+     * @return
+     * @throws IOException
+     * @throws EOFException if the file is shorter than position + length
+     */
+    public static TransferStats send(FileChannel file, long position, long length, WritableByteChannel to)
+            throws IOException {
+        return send(file, position, length, to, Throttle.NONE);
+    }
+
+    /**
+     * Same as the other one, with a limited rate.
+     *
+     * @param file
+     * @param position
+     * @param length
+     * @param to
+     * @param throttle
+     * @return
+     * @throws IOException
+     * @throws EOFException if the file is shorter than position + length
+     */
+    public static TransferStats send(FileChannel file, long position, long length, WritableByteChannel to,
+                                     Throttle throttle) throws IOException {
+        long start = System.nanoTime();
+        long sent = 0;
+        while (sent < length) {
+            long count = file.transferTo(position + sent, throttle.acquire(Math.min(CHUNK_SIZE, length - sent)), to);
+            // transferTo returns 0 only if the position is at the end of the file.
+            if (count <= 0 && position + sent >= file.size())
+                throw new EOFException(String.format("File is shorter than %d bytes", position + length));
+            sent += count;
+        }
+        return new TransferStats(sent, System.nanoTime() - start);
+    }
+
+    /**
+     * Receive length bytes from the (blocking) channel and write them to the file (from position).
+     *
+     * @param from
+     * @param file
+     * @param position
+     * @param length
+     * @return
+     * @throws IOException
+     * @throws EOFException if the connection is closed before receiving all of the bytes
+     */
+    public static TransferStats receive(ReadableByteChannel from, FileChannel file, long position, long length)
+            throws IOException {
+        return receive(from, file, position, length, Progress.NONE, Throttle.NONE);
+    }
+
+    /**
+     * Same as the other one, with a limited rate, and tells the progress about the received bytes.
+     *
+     * @param from
+     * @param file
+     * @param position
+     * @param length
+     * @param progress
+     * @param throttle
+     * @return
+     * @throws IOException
+     * @throws EOFException if the connection is closed before receiving all of the bytes
+     */
+    public static TransferStats receive(ReadableByteChannel from, FileChannel file, long position, long length,
+                                        Progress progress, Throttle throttle) throws IOException {
+        long start = System.nanoTime();
+        long received = 0;
+        while (received < length) {
+            // A blocking channel returns 0 only at the end of the stream.
+            long count = file.transferFrom(from, position + received,
+                    throttle.acquire(Math.min(RECEIVE_CHUNK_SIZE, length - received)));
+            if (count <= 0)
+                throw new EOFException(String.format("Connection is closed after %d of %d bytes", received, length));
+            received += count;
+            progress.advance(count);
+        }
+        return new TransferStats(received, System.nanoTime() - start);
+    }
+
+    /**
+     * Extend the part file to length bytes, if it's shorter. transferFrom doesn't write after the end of the file,
+     * so the file must be extended before receiving it's ranges in parallel (see ParallelTransfer).
+     * The received bytes (from the start of the file) are written to the progress file first, so the
+     * extended part is not taken as received by resumeOffset if the transfer is killed.
+     *
+     * @param partFile
+     * @param file     channel of the part file
+     * @param received
+     * @param length
+     * @throws IOException
+     */
+    public static void reserve(File partFile, FileChannel file, long received, long length) throws IOException {
+        if (file.size() >= length)
+            return;
+        try (FileOutputStream progressFile = new FileOutputStream(progressFile(partFile));
+             DataOutputStream progress = new DataOutputStream(progressFile)) {
+            progress.writeLong(received);
+            progress.flush();
+            progressFile.getFD().sync();
+        }
+        file.write(ByteBuffer.allocate(1), length - 1);
+    }
+
+    /**
+     * Cut the part file after the received bytes of an incomplete transfer, the ranges after them may have gaps.
+     * Then the length of the part file is the received bytes again.
+     *
+     * @param partFile
+     * @param file     channel of the part file
+     * @param received
+     * @throws IOException
+     */
+    public static void truncate(File partFile, FileChannel file, long received) throws IOException {
+        file.truncate(received);
+        file.force(false);
+        Files.deleteIfExists(progressFile(partFile).toPath());
+    }
+
+    /**
+     * Returns the part file of a file which is being received.
+     *
+     * @param file
+     * @return
+     */
+    public static File partFile(File file) {
+        return new File(file.getPath() + PART_SUFFIX);
+    }
+
+    /**
+     * Returns the number of already received bytes of the file (length of it's part file, or the received bytes of
+     * it's progress file if it was extended), so the transfer continues from there. If the part file is longer than
+     * the file, it doesn't belong to this file and it will be removed.
+     *
+     * @param partFile
+     * @param length   length of the whole file
+     * @return
+     */
+    public static long resumeOffset(File partFile, long length) {
+        if (partFile.length() > length)
+            discard(partFile);
+
+        File progressFile = progressFile(partFile);
+        if (!progressFile.exists())
+            return partFile.length();
+        try (DataInputStream progress = new DataInputStream(new FileInputStream(progressFile))) {
+            return Math.max(0, Math.min(progress.readLong(), partFile.length()));
+        } catch (IOException e) {
+            // The part file was extended, but it's received bytes are not known.
+            return 0;
+        }
+    }
+
+    /**
+     * Remove the part file (and it's progress file).
+     *
+     * @param partFile
+     */
+    public static void discard(File partFile) {
+        partFile.delete();
+        progressFile(partFile).delete();
+    }
+
+    /**
+     * Rename the completely received part file to the file (replaces the old one).
+     *
+     * @param partFile
+     * @param file
+     * @throws IOException
+     */
+    public static void commit(File partFile, File file) throws IOException {
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile(partFile).toPath());
+    }
+
+    private static File progressFile(File partFile) {
+        return new File(partFile.getPath() + PROGRESS_SUFFIX);
+    }
+}
@@ -0,0 +1,184 @@
+package Transfer;
+
+import Transfer.Exceptions.TransferWasIncomplete;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves the ranges of one file over several data connections at the same time, so a high latency
+ * link isn't limited to the window of one TCP connection. Each range is moved by it's own stream
+ * (see FileTransfer), and the receiver writes each range at it's own position of the file.
+ * The first range is moved on the caller thread, and the others on the executor.
+ */
+public class ParallelTransfer {
+
+    /**
+     * Each stream moves at least this much, so the small files are moved by one stream.
+     */
+    public static final long MIN_STREAM_LENGTH = 8 * 1024 * 1024;
+
+    /**
+     * Moves one range of the file on it's own data connection.
+     */
+    public interface Stream {
+        TransferStats transfer(long position, long length) throws IOException;
+    }
+
+    private final Executor executor;
+    private final List<Range> ranges = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param executor runs the streams except the first one
+     */
+    public ParallelTransfer(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of streams for moving length bytes, at most maxStreams.
+     *
+     * @param length
+     * @param maxStreams
+     * @return
+     */
+    public static int streams(long length, int maxStreams) {
+        return (int) Math.max(1, Math.min(maxStreams, length / MIN_STREAM_LENGTH));
+    }
+
+    /**
+     * Split length bytes (from position) into equal ranges, the last one takes the rest.
+     *
+     * @param position
+     * @param length
+     * @param streams
+     * @return
+     */
+    public static List<Range> split(long position, long length, int streams) {
+        List<Range> ranges = new ArrayList<>(streams);
+        long rangeLength = length / streams;
+        for (int i = 0; i < streams; i++) {
+            long start = position + i * rangeLength;
+            ranges.add(new Range(start, (i == streams - 1) ? position + length - start : rangeLength));
+        }
+        return ranges;
+    }
+
+    /**
+     * Add a range of the file and the stream which moves it.
+     *
+     * @param range
+     * @param stream
+     */
+    public void add(Range range, Stream stream) {
+        ranges.add(range.withStream(stream));
+    }
+
+    /**
+     * Returns the total length of the added ranges.
+     *
+     * @return
+     */
+    public long getLength() {
+        return ranges.stream().mapToLong(Range::getLength).sum();
+    }
+
+    /**
+     * Run all of the streams and wait till they are done, it returns the total throughput.
+     * If only one range was added, it's exception is thrown as it is. Otherwise it throws
+     * TransferWasIncomplete, which tells the end of the completely moved ranges from the start
+     * (the other ranges may have gaps).
+     *
+     * @return
+     * @throws IOException
+     */
+    public TransferStats run() throws IOException {
+        long start = System.nanoTime();
+        ranges.sort(Comparator.comparingLong(Range::getPosition));
+
+        List<CompletableFuture<TransferStats>> results = new ArrayList<>(ranges.size());
+        for (Range range : ranges.subList(Math.min(1, ranges.size()), ranges.size()))
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return range.transfer();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+
+        CompletableFuture<TransferStats> first = new CompletableFuture<>();
+        try {
+            first.complete(ranges.isEmpty() ? new TransferStats(0, 0) : ranges.get(0).transfer());
+        } catch (IOException e) {
+            first.completeExceptionally(new UncheckedIOException(e));
+        }
+        results.add(0, first);
+
+        long bytes = 0;
+        long wireBytes = 0;
+        IOException failure = null;
+        long completeLength = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                TransferStats stats = results.get(i).join();
+                bytes += stats.getBytes();
+                wireBytes += stats.getWireBytes();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof UncheckedIOException) ?
+                            ((UncheckedIOException) e.getCause()).getCause() : new IOException(e.getCause());
+                    completeLength = ranges.get(i).getPosition();
+                }
+            }
+        }
+
+        if (failure != null && ranges.size() == 1)
+            throw failure;
+        if (failure != null)
+            throw new TransferWasIncomplete(failure.getMessage(), completeLength);
+        return new TransferStats(bytes, wireBytes, System.nanoTime() - start);
+    }
+
+    /**
+     * A range of the file, from position.
+     */
+    public static class Range {
+        private final long position;
+        private final long length;
+        private final Stream stream;
+
+        public Range(long position, long length) {
+            this(position, length, null);
+        }
+
+        private Range(long position, long length, Stream stream) {
+            this.position = position;
+            this.length = length;
+            this.stream = stream;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        private Range withStream(Stream stream) {
+            return new Range(position, length, stream);
+        }
+
+        private TransferStats transfer() throws IOException {
+            return stream.transfer(position, length);
+        }
+    }
+}
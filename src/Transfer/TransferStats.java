@@ -0,0 +1,84 @@
+package Transfer;
+
+/**
+ * Result of a finished transfer, the number of moved bytes and how long it took.
+ * With compression (see Compression), less bytes are sent on the wire than the moved bytes of the file.
+ */
+public class TransferStats {
+
+    private final long bytes;
+    private final long wireBytes;
+    private final long duration;
+
+    /**
+     * Constructor
+     *
+     * @param bytes
+     * @param duration nanoseconds
+     */
+    public TransferStats(long bytes, long duration) {
+        this(bytes, bytes, duration);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bytes
+     * @param wireBytes number of the bytes which were sent on the wire
+     * @param duration  nanoseconds
+     */
+    public TransferStats(long bytes, long wireBytes, long duration) {
+        this.bytes = bytes;
+        this.wireBytes = wireBytes;
+        this.duration = duration;
+    }
+
+    /**
+     * Number of transferred bytes.
+     *
+     * @return
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of the bytes which were sent on the wire.
+     *
+     * @return
+     */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    /**
+     * Duration of the transfer in nanoseconds.
+     *
+     * @return
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Average throughput of the transfer.
+     *
+     * @return
+     */
+    public double getBytesPerSecond() {
+        return (duration > 0) ? bytes * 1e9 / duration : 0;
+    }
+
+    /**
+     * e.g : "5000123 bytes in 120 ms (39.7 MB/s)" or with compression
+     * "5000123 bytes in 120 ms (39.7 MB/s), 1200456 bytes on the wire"
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        String stats = String.format("%d bytes in %d ms (%.1f MB/s)", bytes, duration / 1_000_000,
+                getBytesPerSecond() / (1024 * 1024));
+        return (wireBytes == bytes) ? stats : String.format("%s, %d bytes on the wire", stats, wireBytes);
+    }
+}
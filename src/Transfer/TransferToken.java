@@ -0,0 +1,65 @@
+package Transfer;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Each file transfer is announced on the control connection with a one-time token
+ * (READY_TO_GET_FILE response), and the data connection presents the same token as the first
+ * thing it sends, so the server knows which transfer the connection belongs to.
+ * The token is sent like writeUTF (2 bytes length and the characters), and the file data
+ * comes right after it.
+ */
+public class TransferToken {
+
+    private static final int TOKEN_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Returns a new random token (32 hex characters).
+     *
+     * @return
+     */
+    public static String next() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte value : bytes)
+            token.append(String.format("%02x", value));
+        return token.toString();
+    }
+
+    /**
+     * Present the token on the data connection.
+     *
+     * @param channel
+     * @param token
+     * @throws IOException
+     */
+    public static void write(WritableByteChannel channel, String token) throws IOException {
+        byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + bytes.length);
+        buffer.putShort((short) bytes.length).put(bytes).flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Read the token of a data connection. It doesn't buffer, so the file data
+     * can be read from the same connection after it.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     * @throws EOFException if the connection is closed before sending the token
+     */
+    public static String read(InputStream in) throws IOException {
+        return new DataInputStream(in).readUTF();
+    }
+}